@@ -57,6 +57,12 @@ EXPORT_DLL int startPlayback(char* filename, long long startFrame, long long end
 EXPORT_DLL long long stopPlayback(void);
 EXPORT_DLL long long streamPosition(void);
 EXPORT_DLL int playbackInProgress(void);
+EXPORT_DLL int openEngine(char* filename);
+EXPORT_DLL int enginePlay(long long startFrame, long long endFrame);
+EXPORT_DLL long long engineStop(void);
+EXPORT_DLL void closeEngine(void);
+EXPORT_DLL int attachPositionBuffer(void* buffer, int size);
+EXPORT_DLL long long engineStartClock(void);
 EXPORT_DLL int getLibraryRevisionNumber(void);
 EXPORT_DLL const char* getLibraryName(void);
 
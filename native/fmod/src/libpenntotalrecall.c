@@ -36,7 +36,7 @@
 #include <memory.h>
 
 //library info
-const unsigned int revisionNumber = 1;
+const unsigned int revisionNumber = 3;
 const char* libName = "FMOD implementation of LibPennTotalRecall";
 
 //playback state
@@ -46,8 +46,22 @@ FMOD_CHANNEL *channel = NULL;
 FMOD_CREATESOUNDEXINFO soundInfo;
 int lastStartFrame = 0;
 
+//engine state, set while a file is held open between playbacks, see openEngine()
+int engineOpen = FALSE;
+float engineInputRate = 0;
+int engineOutputRate = 0;
+unsigned int engineStartDelayFrames = 0;
+
+//position reporting state, see attachPositionBuffer()
+FMOD_DSP_DESCRIPTION positionDSPDescription;
+FMOD_DSP *positionDSP = NULL;
+volatile long long mixedFrames = 0;
+volatile long long *positionBuffer = NULL;
+long long playStartClock = 0;
+
 
 static void printError(FMOD_RESULT result);
+static FMOD_RESULT F_CALLBACK positionDSPRead(FMOD_DSP_STATE *dspState, float *inBuffer, float *outBuffer, unsigned int length, int inChannels, int outChannels);
 
 
 
@@ -274,6 +288,284 @@ EXPORT_DLL int playbackInProgress(void)
 	return playing;
 }
 
+EXPORT_DLL int openEngine(char* filename)
+{
+	FMOD_RESULT result = FMOD_OK;
+	int numDrivers = 0;
+
+	if (engineOpen || fmsystem != NULL || sound != NULL || channel != NULL) {
+		fprintf(stderr, "openEngine() called in inconsistent state\n");
+		return -4;
+	}
+
+	result = FMOD_System_Create(&fmsystem);
+	if (result != FMOD_OK) {
+		fprintf(stderr, "exceptional return value for FMOD::System_Create() in openEngine()\n");
+		printError(result);
+		closeEngine();
+		return -1;
+	}
+
+	result = FMOD_System_GetNumDrivers(fmsystem, &numDrivers);
+	if (result != FMOD_OK || numDrivers <= 0) {
+		fprintf(stderr, "no audio devices found in openEngine()\n");
+		closeEngine();
+		return -2;
+	}
+
+	result = FMOD_System_Init(fmsystem, 32, FMOD_INIT_NORMAL, NULL);
+	if (result != FMOD_OK) {
+		fprintf(stderr, "exceptional return value for FMOD::System.init() in openEngine()\n");
+		printError(result);
+		closeEngine();
+		return -1;
+	}
+
+	memset(&soundInfo, 0, sizeof(FMOD_CREATESOUNDEXINFO));
+	soundInfo.cbsize = sizeof(FMOD_CREATESOUNDEXINFO);
+
+	result = FMOD_System_CreateSound(fmsystem, filename, FMOD_SOFTWARE | FMOD_CREATESTREAM | FMOD_LOOP_OFF, &soundInfo, &sound);
+	if (result != FMOD_OK) {
+		fprintf(stderr, "exceptional return value for FMOD::System.createSound() in openEngine()\n");
+		printError(result);
+		closeEngine();
+		return -3;
+	}
+
+	result = FMOD_Sound_GetDefaults(sound, &engineInputRate, NULL, NULL, NULL);
+	if (result != FMOD_OK) {
+		fprintf(stderr, "exceptional return value for FMOD::Sound.getDefaults() in openEngine()\n");
+		printError(result);
+		closeEngine();
+		return -3;
+	}
+
+	result = FMOD_System_GetDSPBufferSize(fmsystem, &engineStartDelayFrames, 0);
+	if (result != FMOD_OK) {
+		fprintf(stderr, "cannot determine buffer size in openEngine()\n");
+		printError(result);
+		closeEngine();
+		return -1;
+	}
+	engineStartDelayFrames *= 2;
+
+	result = FMOD_System_GetSoftwareFormat(fmsystem, &engineOutputRate, NULL, NULL, NULL, NULL, NULL);
+	if (result != FMOD_OK) {
+		fprintf(stderr, "cannot determine output format in openEngine()\n");
+		printError(result);
+		closeEngine();
+		return -1;
+	}
+
+	//count mixed frames on the mixer thread, so Java can read the position without calling in, see attachPositionBuffer()
+	mixedFrames = 0;
+	memset(&positionDSPDescription, 0, sizeof(FMOD_DSP_DESCRIPTION));
+	strcpy(positionDSPDescription.name, "penntotalrecall position");
+	positionDSPDescription.channels = 0;
+	positionDSPDescription.read = positionDSPRead;
+	result = FMOD_System_CreateDSP(fmsystem, &positionDSPDescription, &positionDSP);
+	if (result == FMOD_OK) {
+		result = FMOD_System_AddDSP(fmsystem, positionDSP, NULL);
+	}
+	if (result != FMOD_OK) {
+		fprintf(stderr, "cannot add position DSP in openEngine(), position buffer unavailable\n");
+		printError(result);
+		if (positionDSP != NULL) {
+			FMOD_DSP_Release(positionDSP);
+			positionDSP = NULL;
+		}
+	}
+
+	engineOpen = TRUE;
+	return 0;
+}
+
+EXPORT_DLL int enginePlay(long long startFrame, long long endFrame)
+{
+	unsigned int hiclock = 0, loclock = 0, hitime, lotime, endDelayFrames;
+	FMOD_RESULT result = FMOD_OK;
+
+	if (engineOpen == FALSE) {
+		fprintf(stderr, "enginePlay() called without an open engine\n");
+		return -4;
+	}
+
+	if (startFrame < 0) {
+		fprintf(stderr, "enginePlay() given a negative startFrame (%lld)! Correcting to 0\n", startFrame);
+		startFrame = 0;
+	}
+
+	if (endFrame <= startFrame) {
+		fprintf(stderr, "enginePlay() given an endFrame (%lld) <= startFrame (%lld)\n", endFrame, startFrame);
+		return -1;
+	}
+
+	//the device and the stream are already open, so starting is only a seek and a schedule on the channel
+	if (channel != NULL) {
+		FMOD_Channel_Stop(channel);
+		channel = NULL;
+	}
+	lastStartFrame = startFrame;
+
+	result = FMOD_System_PlaySound(fmsystem, FMOD_CHANNEL_FREE, sound, TRUE, &channel);
+	if (result != FMOD_OK) {
+		fprintf(stderr, "exceptional return value for FMOD::System.playSound() in enginePlay()\n");
+		printError(result);
+		engineStop();
+		return -1;
+	}
+
+	result = FMOD_Channel_SetPosition(channel, (unsigned int) startFrame, FMOD_TIMEUNIT_PCM);
+	if (result != FMOD_OK) {
+		fprintf(stderr, "exceptional return value for FMOD::Channel.setPosition() in enginePlay()\n");
+		printError(result);
+		engineStop();
+		return -5;
+	}
+
+	FMOD_System_GetDSPClock(fmsystem, &hitime, &lotime);
+	//the position DSP's count advances with the DSP clock, so the channel starts when the count reaches this
+	playStartClock = mixedFrames + engineStartDelayFrames;
+
+	hiclock = hitime;
+	loclock = lotime;
+	FMOD_64BIT_ADD(hiclock, loclock, 0, engineStartDelayFrames);
+	result = FMOD_Channel_SetDelay(channel, FMOD_DELAYTYPE_DSPCLOCK_START, hiclock, loclock);
+	if (result != FMOD_OK) {
+		fprintf(stderr, "exceptional return value for FMOD::Chanel.setDelay() [start] in enginePlay()\n");
+		printError(result);
+		engineStop();
+		return -1;
+	}
+
+	endDelayFrames = engineStartDelayFrames + (int) (engineOutputRate * ((endFrame - startFrame) / (double)(engineInputRate)));
+
+	hiclock = hitime;
+	loclock = lotime;
+	FMOD_64BIT_ADD(hiclock, loclock, 0, endDelayFrames);
+	result = FMOD_Channel_SetDelay(channel, FMOD_DELAYTYPE_DSPCLOCK_END, hiclock, loclock);
+	if (result != FMOD_OK) {
+		fprintf(stderr, "exceptional return value for FMOD::Chanel.setDelay() [end] in enginePlay()\n");
+		printError(result);
+		engineStop();
+		return -1;
+	}
+
+	result = FMOD_Channel_SetVolume(channel, 1);
+	if ((result != FMOD_OK) && (result != FMOD_ERR_INVALID_HANDLE) && (result != FMOD_ERR_CHANNEL_STOLEN)) {
+		fprintf(stderr, "exceptional return value for FMOD::Channel.setVolume() in enginePlay()\n");
+		printError(result);
+		engineStop();
+		return -1;
+	}
+
+	result = FMOD_Channel_SetPaused(channel, FALSE);
+	if ((result != FMOD_OK) && (result != FMOD_ERR_INVALID_HANDLE) && (result != FMOD_ERR_CHANNEL_STOLEN)) {
+		fprintf(stderr, "exceptional return value for FMOD::Channel.setPaused() in enginePlay()\n");
+		printError(result);
+		engineStop();
+		return -1;
+	}
+
+	FMOD_System_Update(fmsystem);
+
+	return 0;
+}
+
+EXPORT_DLL long long engineStop(void)
+{
+	long long toReturn;
+
+	if (engineOpen == FALSE) {
+		fprintf(stderr, "engineStop() called without an open engine\n");
+		return -1;
+	}
+
+	if (channel == NULL) {
+		return -1;
+	}
+
+	toReturn = streamPosition();
+
+	//the device and the stream stay open for the next enginePlay()
+	FMOD_Channel_Stop(channel);
+	FMOD_System_Update(fmsystem);
+	channel = NULL;
+	lastStartFrame = 0;
+
+	return toReturn;
+}
+
+EXPORT_DLL int attachPositionBuffer(void* buffer, int size)
+{
+	volatile long long *slots = (volatile long long *) buffer;
+
+	if (engineOpen == FALSE || positionDSP == NULL) {
+		fprintf(stderr, "attachPositionBuffer() called without an open engine and position DSP\n");
+		return -4;
+	}
+
+	if (buffer == NULL || size < 3 * (int) sizeof(long long)) {
+		fprintf(stderr, "attachPositionBuffer() given a buffer too small (%d bytes)\n", size);
+		return -1;
+	}
+
+	slots[0] = 0;
+	slots[1] = mixedFrames;
+	slots[2] = engineOutputRate;
+	positionBuffer = slots;
+	return 0;
+}
+
+EXPORT_DLL long long engineStartClock(void)
+{
+	return playStartClock;
+}
+
+EXPORT_DLL void closeEngine(void)
+{
+	FMOD_RESULT result = FMOD_OK;
+
+	positionBuffer = NULL;
+
+	if (channel != NULL) {
+		FMOD_Channel_Stop(channel);
+	}
+
+	if (positionDSP != NULL) {
+		FMOD_DSP_Remove(positionDSP);
+		FMOD_DSP_Release(positionDSP);
+		positionDSP = NULL;
+	}
+
+	if (sound != NULL) {
+		result = FMOD_Sound_Release(sound);
+		if (result != FMOD_OK) {
+			fprintf(stderr, "exceptional return value for FMOD::Sound.release() in closeEngine()\n");
+			printError(result);
+		}
+	}
+
+	if (fmsystem != NULL) {
+		result = FMOD_System_Close(fmsystem);
+		if (result != FMOD_OK) {
+			fprintf(stderr, "exceptional return value for FMOD::System.close() in closeEngine()\n");
+			printError(result);
+		}
+		result = FMOD_System_Release(fmsystem);
+		if (result != FMOD_OK) {
+			fprintf(stderr, "exceptional return value for FMOD::System.release() in closeEngine()\n");
+			printError(result);
+		}
+	}
+
+	fmsystem = NULL;
+	sound = NULL;
+	channel = NULL;
+	lastStartFrame = 0;
+	engineOpen = FALSE;
+}
+
 EXPORT_DLL int getLibraryRevisionNumber(void)
 {
 	return revisionNumber;
@@ -284,6 +576,26 @@ EXPORT_DLL const char* getLibraryName(void)
 	return libName;
 }
 
+/*
+ * Passes the mix through unchanged, counting its frames into the position buffer.
+ *
+ * Called on FMOD's mixer thread once per mix block. The buffer is a seqlock: slot 0 is odd while slot 1 is being written,
+ * so a reader that sees the same even value before and after reading slot 1 has read a whole value.
+ */
+static FMOD_RESULT F_CALLBACK positionDSPRead(FMOD_DSP_STATE *dspState, float *inBuffer, float *outBuffer, unsigned int length, int inChannels, int outChannels)
+{
+	volatile long long *slots = positionBuffer;
+
+	memcpy(outBuffer, inBuffer, sizeof(float) * length * outChannels);
+	mixedFrames += length;
+	if (slots != NULL) {
+		slots[0]++;
+		slots[1] = mixedFrames;
+		slots[0]++;
+	}
+	return FMOD_OK;
+}
+
 static void printError(FMOD_RESULT result)
 {
     fprintf(stderr, "FMOD error: (%d) %s\n", result, FMOD_ErrorString(result));
@@ -14,11 +14,14 @@
 
 package behaviors;
 
+import info.Constants;
+
 import java.awt.event.ActionEvent;
-import java.util.ArrayList;
 
 import javax.swing.AbstractAction;
 
+import util.ActivitySpans;
+
 import components.MyMenu;
 
 import control.XActionManager;
@@ -46,9 +49,14 @@ public abstract class UpdatingAction extends AbstractAction {
 		XActionManager.registerAction(this, e);
 	}
 	
-	private static ArrayList<Long> stamps = new ArrayList<Long>();
+	private static final ActivitySpans stamps = new ActivitySpans(Constants.timeout);
 
-	public static ArrayList<Long> getStamps() {
+	/**
+	 * Returns the record of user activity, to which every action and playback progress report adds a stamp.
+	 * 
+	 * @return The activity spans since they were last written
+	 */
+	public static ActivitySpans getStamps() {
 		return stamps;
 	}
 	
@@ -33,8 +33,8 @@ import java.awt.event.ActionEvent;
 import java.io.IOException;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Arrays;
 
+import util.FileTransaction;
 import util.GiveMessage;
 import util.OSPath;
 
@@ -122,11 +122,12 @@ public class AnnotateAction extends IdentifiedMultiAction {
 		//find whether the text matches a wordpool entry, so we can find the wordpool number of the annotation text
 		WordpoolWord match = WordpoolDisplay.findMatchingWordpooWord(text);
 		int shouldbeindex = -1;
+		String wordpoolFilename = null;
 		if(match == null) {
 			if(mode == Mode.REGULAR) { //words not from the wordpool must be marked as intrusions
 				return;
 			}
-			String wordpoolFilename = UserPrefs.prefs.get(UserPrefs.wordpoolFilename, UserPrefs.wordpoolFilename);
+			wordpoolFilename = UserPrefs.prefs.get(UserPrefs.wordpoolFilename, UserPrefs.wordpoolFilename);
 			//System.out.println("Current wordpool file is: " + wordpoolFilename);
 			shouldbeindex = WordpoolDisplay.getInstance().getWordpoolWordIndex(text);
 			String shouldbeindexstr = Integer.valueOf(shouldbeindex).toString();
@@ -136,7 +137,6 @@ public class AnnotateAction extends IdentifiedMultiAction {
 			ArrayList<WordpoolWord> matchlist = new ArrayList<WordpoolWord>();
 			matchlist.add(match);
 			WordpoolDisplay.getInstance().addWordpoolWords(matchlist);
-			WriteToWpFileLine(wordpoolFilename, text, (shouldbeindex - 1));
 		}
 
 
@@ -196,37 +196,14 @@ public class AnnotateAction extends IdentifiedMultiAction {
 				
 				
 				//add a new annotation object, and clear the field
-				AnnotationFileParser.appendAnnotation(ann, oFile);
 				if(shouldbeindex != -1){
 					AnnotationDisplay.getInstance().addNewWPAnn(ann, shouldbeindex);
 
-					//Write the newly updated annotation row numbers to the annotation file
-					
-					String annotatorName = MyMenu.getAnnotator();
-					String annotationFilename = OSPath.basename(CurAudio.getCurrentAudioFileAbsolutePath()) + "." + Constants.temporaryAnnotationFileExtension;
-					File annotationFile = new File(annotationFilename);
-					File tmpFile = new File(oFile.getAbsolutePath() + "." + Constants.deletionTempFileExtension);
-					BufferedWriter fw = new BufferedWriter(new FileWriter(tmpFile));
-					
-					Annotation [] annList = AnnotationDisplay.getInstance().getAnnotationsInOrder();
-					int annListSize = annList.length;
-					//System.out.println("Number of annotations: " + Integer.valueOf(annListSize).toString());
-					for(Annotation currentAnn : annList){
-						String currline = AnnotationFileParser.makeLine(currentAnn) + "\n";
-						fw.write(currline);
-					}
-					//br.close();
-		
-					fw.close();	
-					if(annotationFile.delete() == false) {
-						GiveMessage.errorMessage("could not delete old file");
-					}
-					if(tmpFile.renameTo(annotationFile) == false) {
-						GiveMessage.errorMessage("could not rename temp deletion file to normal temp file");
-					}
-					AnnotationFileParser.prependHeader(annotationFile, annotatorName);
+					//the intrusion renumbers the annotations of later wordpool words, so the annotation and wordpool files are rewritten together
+					commitIntrusion(oFile, wordpoolFilename, text, (shouldbeindex - 1));
 				}
 				else{
+					AnnotationFileParser.appendAnnotation(ann, oFile);
 					AnnotationDisplay.getInstance().addAnnotation(ann);
 				}
 				WordpoolDisplay.clearText();
@@ -257,60 +234,54 @@ public class AnnotateAction extends IdentifiedMultiAction {
 		}
 	}
 
-	public static void WriteToWpFileLine(String wpFilename, String wpWord, int wpLine){
+	/**
+	 * Writes an intrusion to disk as one {@link FileTransaction}: the annotation file, with the new annotation and the renumbered annotations,
+	 * and the wordpool file, with the intrusion's word inserted, are each written once and replace the old files together.
+	 * 
+	 * @param oFile The temporary annotation file
+	 * @param wpFilename The wordpool file
+	 * @param wpWord The intrusion's word
+	 * @param wpLine The line the word goes on in the wordpool file, or past the end to append it
+	 * @throws IOException If the files cannot be written, in which case neither has changed
+	 */
+	private static void commitIntrusion(File oFile, String wpFilename, String wpWord, int wpLine) throws IOException {
+		FileTransaction transaction = AnnotationFileParser.beginTransaction(oFile);
 		try {
+			AnnotationFileParser.stageRewrite(oFile, MyMenu.getAnnotator(), AnnotationDisplay.getAnnotationsInOrder(), transaction);
+
 			Path path = Paths.get(wpFilename);
-			List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
-			
-			if(wpLine < lines.size()){
-				lines.add(wpLine, wpWord);
+			if(Files.exists(path)) {
+				List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+				if(wpLine < lines.size()){
+					lines.add(wpLine, wpWord);
+				}
+				else{
+					lines.add(wpWord);
+				}
+				StringBuilder contents = new StringBuilder();
+				for(String line: lines) {
+					contents.append(line).append(System.lineSeparator());
+				}
+				transaction.stage(path.toFile(), contents.toString(), StandardCharsets.UTF_8);
 			}
-			else{
-				lines.add(wpWord);
+			else {
+				GiveMessage.errorMessage("Error appending to wordpool file! Check files for damage.");
 			}
-			Files.write(path, lines, StandardCharsets.UTF_8);
-		} 
-		catch (IOException e2) {
-			e2.printStackTrace();
-			GiveMessage.errorMessage("Error appending to wordpool file! Check files for damage.");
 		}
+		catch(IOException e) {
+			transaction.abort();
+			throw e;
+		}
+		transaction.commit();
 	}
 	
 	public static void writeSpans() {
-		if(UpdatingAction.getStamps().size() > 0) {
-			ArrayList<ArrayList<Long>> spans = new ArrayList<ArrayList<Long>>();
-			
-			Long[] stamps = UpdatingAction.getStamps().toArray(new Long[] {});
-			Arrays.sort(stamps);
-
-			long start = 0L;
-			long end = 0L;
-			for(long stamp: stamps) {
-				if(stamp - end > Constants.timeout) {
-					if(start > 0 && end > start) {
-						ArrayList<Long> nSpan = new ArrayList<Long>();
-						nSpan.add(start);
-						nSpan.add(end);
-						spans.add(nSpan);
-					}
-					start = stamp;
-					end = stamp;
-				}
-				else {
-					end = stamp;
-				}
-			}
-			if(start > 0 && end > start) {
-				ArrayList<Long> nSpan = new ArrayList<Long>();
-				nSpan.add(start);
-				nSpan.add(end);
-				spans.add(nSpan);
-			}
-			
-			UpdatingAction.getStamps().clear();
+		if(UpdatingAction.getStamps().isEmpty() == false) {
+			//stamps were merged into spans as they arrived, see ActivitySpans
+			long[][] spans = UpdatingAction.getStamps().drainSpans();
 			
-			for(ArrayList<Long> span: spans) {
-				String toWrite = "Span: " + span.get(0) + "-" + span.get(1);
+			for(long[] span: spans) {
+				String toWrite = "Span: " + span[0] + "-" + span[1];
 				try {
 					AnnotationFileParser.addField(getOutputFile(), obfuscate(toWrite));
 				} catch (IOException e) {
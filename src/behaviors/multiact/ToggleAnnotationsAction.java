@@ -114,19 +114,16 @@ public class ToggleAnnotationsAction extends IdentifiedMultiAction {
 	 * @return In principle, the <code>Annotation</code> after/before <code>curTimeMillis</code>
 	 */
 	private Annotation findAnnotation(Direction dir, double curTimeMillis) {
-		Annotation[] anns = AnnotationDisplay.getAnnotationsInOrder();
 		if(myDir == Direction.FORWARD) {
-			for(int i = 0; i < anns.length; i++) {
-				if(anns[i].getTime() - curTimeMillis > 1) {
-					return anns[i];
-				}
+			int index = AnnotationDisplay.findFirstAnnotationAfter(curTimeMillis + 1);
+			if(index < AnnotationDisplay.getNumAnnotations()) {
+				return AnnotationDisplay.getAnnotationAt(index);
 			}
 		}
 		else {
-			for(int i = anns.length - 1; i >= 0; i--) {
-				if(curTimeMillis - anns[i].getTime() > 1) {
-					return anns[i];
-				}
+			int index = AnnotationDisplay.findFirstAnnotationAtOrAfter(curTimeMillis - 1) - 1;
+			if(index >= 0) {
+				return AnnotationDisplay.getAnnotationAt(index);
 			}
 		}
 		return null;
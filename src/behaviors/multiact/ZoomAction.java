@@ -16,6 +16,7 @@ package behaviors.multiact;
 
 import java.awt.event.ActionEvent;
 
+import components.MyMenu;
 import components.waveform.WaveformDisplay;
 
 import control.CurAudio;
@@ -24,7 +25,8 @@ import edu.upenn.psych.memory.precisionplayer.PrecisionPlayer;
 /**
  * Zooms the waveform display in/out.
  * 
- * It only changes the pixelsPerSecond value that the waveform display will utilize on its next repaint.
+ * It only changes the zoom level that the waveform display will utilize on its next repaint.
+ * Each zoom level doubles or halves the pixels per second, see {@link components.waveform.WaveformDisplay#pixelsPerSecond(int)}.
  * 
  * @author Yuvi Masory
  */
@@ -43,7 +45,7 @@ public class ZoomAction extends IdentifiedMultiAction {
 	}
 
 	/**
-	 * Performs the zoom, increasing/decreasing the pixelsPerSecond by calling {@link components.waveform.WaveformDisplay#zoomX(boolean)}. 
+	 * Performs the zoom, doubling/halving the pixels per second by calling {@link components.waveform.WaveformDisplay#zoomX(boolean)}. 
 	 * 
 	 * Since the waveform display autonomously decides when to paint itself, this action may not result in an instant visual change.
 	 * 
@@ -58,10 +60,11 @@ public class ZoomAction extends IdentifiedMultiAction {
 		else {
 			WaveformDisplay.zoomX(false);
 		}
+		MyMenu.updateActions();
 	}
 	
 	/**
-	 * Zooming is enabled only when audio is open and not playing.
+	 * Zooming is enabled only when audio is open and not playing, and there is another zoom level in this action's direction.
 	 */
 	@Override
 	public void update() {
@@ -70,7 +73,7 @@ public class ZoomAction extends IdentifiedMultiAction {
 				setEnabled(false);
 			}
 			else {
-				setEnabled(true);				
+				setEnabled(WaveformDisplay.canZoomX(dir == Direction.IN));				
 			}
 		}
 		else {
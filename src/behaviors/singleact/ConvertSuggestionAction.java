@@ -19,8 +19,6 @@ import info.Constants;
 import java.awt.event.ActionEvent;
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
 
 import util.GiveMessage;
 import util.OSPath;
@@ -92,6 +90,12 @@ public class ConvertSuggestionAction extends IdentifiedSingleAction {
 			
 			//no suggestions left after removal, so delete file too
 			if(SuggestionDisplay.getNumSuggestions() == 0) {
+				try {
+					SuggestionFileParser.closeJournal();
+				}
+				catch(IOException ex) {
+					ex.printStackTrace();
+				}
 				if(oFile.delete() == false) {
 					GiveMessage.errorMessage("Deletion of suggestion successful, but could not remove temporary suggestion file.");
 				}
@@ -230,40 +234,12 @@ public class ConvertSuggestionAction extends IdentifiedSingleAction {
 	}
 	
 	public static void writeSpans() {
-		if(UpdatingAction.getStamps().size() > 0) {
-			ArrayList<ArrayList<Long>> spans = new ArrayList<ArrayList<Long>>();
-			
-			Long[] stamps = UpdatingAction.getStamps().toArray(new Long[] {});
-			Arrays.sort(stamps);
-
-			long start = 0L;
-			long end = 0L;
-			for(long stamp: stamps) {
-				if(stamp - end > Constants.timeout) {
-					if(start > 0 && end > start) {
-						ArrayList<Long> nSpan = new ArrayList<Long>();
-						nSpan.add(start);
-						nSpan.add(end);
-						spans.add(nSpan);
-					}
-					start = stamp;
-					end = stamp;
-				}
-				else {
-					end = stamp;
-				}
-			}
-			if(start > 0 && end > start) {
-				ArrayList<Long> nSpan = new ArrayList<Long>();
-				nSpan.add(start);
-				nSpan.add(end);
-				spans.add(nSpan);
-			}
-			
-			UpdatingAction.getStamps().clear();
+		if(UpdatingAction.getStamps().isEmpty() == false) {
+			//stamps were merged into spans as they arrived, see ActivitySpans
+			long[][] spans = UpdatingAction.getStamps().drainSpans();
 			
-			for(ArrayList<Long> span: spans) {
-				String toWrite = "Span: " + span.get(0) + "-" + span.get(1);
+			for(long[] span: spans) {
+				String toWrite = "Span: " + span[0] + "-" + span[1];
 				try {
 					AnnotationFileParser.addField(getAnnotationOutputFile(), obfuscate(toWrite));
 				} catch (IOException e) {
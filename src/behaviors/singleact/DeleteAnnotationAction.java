@@ -83,6 +83,12 @@ public class DeleteAnnotationAction extends IdentifiedSingleAction {
 			
 			//no annotations left after removal, so delete file too
 			if(AnnotationDisplay.getNumAnnotations() == 0) {
+				try {
+					AnnotationFileParser.closeJournal();
+				}
+				catch(IOException ex) {
+					ex.printStackTrace();
+				}
 				if(oFile.delete() == false) {
 					GiveMessage.errorMessage("Deletion of annotation successful, but could not remove temporary annotation file.");
 				}
@@ -17,8 +17,6 @@ package behaviors.singleact;
 import java.awt.event.ActionEvent;
 
 import components.MySplitPane;
-import components.annotations.Annotation;
-import components.annotations.AnnotationDisplay;
 import components.waveform.WaveformDisplay;
 
 import control.CurAudio;
@@ -32,14 +30,10 @@ public class DeleteSelectedAnnotationAction extends IdentifiedSingleAction {
 		long curFrame = CurAudio.getAudioProgress();
 		int progX = WaveformDisplay.frameToAbsoluteXPixel(curFrame);
 
-		Annotation[] anns = AnnotationDisplay.getAnnotationsInOrder();
-		for(int i = 0; i < anns.length; i++) {
-			int annX = WaveformDisplay.frameToAbsoluteXPixel(CurAudio.getMaster().millisToFrames(anns[i].getTime()));
-			if(progX == annX) {
-				new DeleteAnnotationAction(i).actionPerformed(
-						new ActionEvent(MySplitPane.getInstance(), ActionEvent.ACTION_PERFORMED, null, System.currentTimeMillis(), 0));
-				return;
-			}
+		int index = WaveformDisplay.findAnnotationAtAbsoluteXPixel(progX);
+		if(index >= 0) {
+			new DeleteAnnotationAction(index).actionPerformed(
+					new ActionEvent(MySplitPane.getInstance(), ActionEvent.ACTION_PERFORMED, null, System.currentTimeMillis(), 0));
 		}
 	}
 
@@ -83,6 +83,12 @@ public class DeleteSuggestionAction extends IdentifiedSingleAction {
 			
 			//no suggestions left after removal, so delete file too
 			if(SuggestionDisplay.getNumSuggestions() == 0) {
+				try {
+					SuggestionFileParser.closeJournal();
+				}
+				catch(IOException ex) {
+					ex.printStackTrace();
+				}
 				if(oFile.delete() == false) {
 					GiveMessage.errorMessage("Deletion of suggestion successful, but could not remove temporary suggestion file.");
 				}
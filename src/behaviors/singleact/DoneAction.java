@@ -19,12 +19,14 @@ import info.SysInfo;
 
 import java.awt.event.ActionEvent;
 import java.io.File;
+import java.io.IOException;
 
 import behaviors.multiact.AnnotateAction;
 
 import util.GiveMessage;
 import util.OSPath;
 
+import components.annotations.AnnotationFileParser;
 import components.audiofiles.AudioFile.AudioFilePathException;
 
 import control.CurAudio;
@@ -56,6 +58,14 @@ public class DoneAction extends IdentifiedSingleAction {
 			}
 			else {
 				AnnotateAction.writeSpans();
+				try {
+					AnnotationFileParser.closeJournal();
+				}
+				catch(IOException e1) {
+					e1.printStackTrace();
+					GiveMessage.errorMessage("Operation failed.");
+					return;
+				}
 				if(!tmpFile.renameTo(oFile)) {
 					GiveMessage.errorMessage("Operation failed.");
 					return;
@@ -29,6 +29,8 @@ import javax.swing.JOptionPane;
 
 import components.MyFrame;
 import components.MySplitPane;
+import components.annotations.AnnotationFileParser;
+import components.suggestions.SuggestionFileParser;
 
 import control.CurAudio;
 
@@ -90,6 +92,14 @@ public class ExitAction extends IdentifiedSingleAction {
 		catch(Throwable e) {
 			e.printStackTrace();
 		}
+
+		try {
+			AnnotationFileParser.closeJournal();
+			SuggestionFileParser.closeJournal();
+		}
+		catch(Throwable e) {
+			e.printStackTrace();
+		}
 		
 		Rectangle bounds = MyFrame.getInstance().getBounds();
 		UserPrefs.prefs.putInt(UserPrefs.windowWidth, (int)bounds.getWidth());
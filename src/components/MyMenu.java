@@ -87,7 +87,7 @@ public class MyMenu extends JMenuBar {
 		initFileMenu();
 		initControlsMenu();
 		initAnnotationMenu();
-//		initViewMenu();
+		initViewMenu();
 		initHelpMenu();
 	}
 
@@ -209,7 +209,6 @@ public class MyMenu extends JMenuBar {
 	/**
 	 * Creates the View menu, which controls aspects of the waveform's appearance.
 	 */
-	@SuppressWarnings("unused")
 	private void initViewMenu() {
 		JMenu jmView = new JMenu("View");
 		JMenuItem jmiZoomIn = new JMenuItem(
@@ -14,13 +14,15 @@
 
 package components.annotations;
 
+import util.Timed;
+
 /**
  * Note: this class has a natural ordering that is inconsistent with equals.
  *  
  * @author Yuvi Masory
  *
  */
-public class Annotation implements Comparable<Annotation>{
+public class Annotation implements Comparable<Annotation>, Timed {
 
 	private int wordNum;
 	private double time;
@@ -77,6 +77,36 @@ public class AnnotationDisplay extends JScrollPane {
 		return table.getModel().toArray();
 	}
 	
+	/**
+	 * Returns one annotation in time order, without copying the annotations as {@link #getAnnotationsInOrder()} does.
+	 * 
+	 * @param index The annotation's index, from <code>0</code> to <code>getNumAnnotations() - 1</code>
+	 * @return The annotation at that index
+	 */
+	public static Annotation getAnnotationAt(int index) {
+		return table.getModel().getAnnotationAt(index);
+	}
+	
+	/**
+	 * Finds the first annotation at or after the provided time, by binary search.
+	 * 
+	 * @param timeMillis The time in milliseconds
+	 * @return The index of the annotation, or <code>getNumAnnotations()</code> if there is none
+	 */
+	public static int findFirstAnnotationAtOrAfter(double timeMillis) {
+		return table.getModel().firstIndexAtOrAfter(timeMillis);
+	}
+	
+	/**
+	 * Finds the first annotation strictly after the provided time, by binary search.
+	 * 
+	 * @param timeMillis The time in milliseconds
+	 * @return The index of the annotation, or <code>getNumAnnotations()</code> if there is none
+	 */
+	public static int findFirstAnnotationAfter(double timeMillis) {
+		return table.getModel().firstIndexAfter(timeMillis);
+	}
+	
 	public static void addAnnotation(Annotation ann) {
 		if(ann == null) {
 			throw new IllegalArgumentException("annotation/s cannot be null");
@@ -133,4 +163,11 @@ public class AnnotationDisplay extends JScrollPane {
 	public static int getNumAnnotations() {
 		return table.getModel().size();
 	}
+
+	/**
+	 * Returns a count of the changes made to the annotations, which increases on every addition and removal.
+	 */
+	public static int getAnnotationsVersion() {
+		return table.getModel().getVersion();
+	}
 }
@@ -12,37 +12,33 @@
 //    You should have received a copy of the GNU General Public License
 //    along with TotalRecall.  If not, see <http://www.gnu.org/licenses/>.
 
+
 package components.annotations;
 
 import info.Constants;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.text.DateFormat;
-import java.util.ArrayList;
-import java.util.Date;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Scanner;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
-import util.OSPath;
+import util.FieldTokenizer;
+import util.FileTransaction;
+import util.TimedEventCodec;
+import util.TimedEventStore;
 
 /**
  * Handles manipulations of annotation files, e.g. adding and removing annotations.
  * 
+ * The files are read and edited by a {@link TimedEventStore}, which journals additions and removals, so this class only supplies the line format.
+ * 
  * @author Yuvi Masory
  */
 public class AnnotationFileParser {
 
-	private static final Pattern delimiter = Pattern.compile(Constants.annotationFileDelimiter);
+	private static final String delimiter = Constants.annotationFileDelimiter;
 
-	private static final Pattern commentPattern = Pattern.compile("(.*)" + Constants.inlineCommentIndicator + ".*");
+	private static final TimedEventStore<Annotation> store = new TimedEventStore<Annotation>(new AnnotationCodec());
 
 	/**
 	 * Private constructor to prevent instantiation.
@@ -52,26 +48,8 @@ public class AnnotationFileParser {
 
 
 
-	private static Annotation parseLine(String line) {
-		Scanner sc = new Scanner(line).useDelimiter(delimiter);
-		if(sc.hasNextDouble()) {
-			double time = sc.nextDouble();
-			if(sc.hasNextInt()) {
-				int wordNum = sc.nextInt();
-				if(sc.hasNext()) {
-					String text = sc.next().toUpperCase();
-					return new Annotation(time, wordNum, text);
-				}
-			}
-		}
-		return null;
-	}
-
-
-
-
 	public static String makeLine(Annotation ann) {
-		return ann.getTime() + delimiter.toString() + ann.getWordNum() + delimiter.toString() + ann.getText();
+		return ann.getTime() + delimiter + ann.getWordNum() + delimiter + ann.getText();
 	}
 
 
@@ -83,253 +61,108 @@ public class AnnotationFileParser {
 	 * Proceeds line by line, parsing at most one <code>Annotation</code> per line.
 	 * 
 	 * @param file The file to be parsed
-	 * @return A <code>List</code> of <code>Annotations</code> from the file, or <code>null</code> if the file does not exist or causes an <code>IOException</code>
+	 * @return A <code>List</code> of <code>Annotations</code> from the file, or <code>null</code> if the file does not exist
 	 */
 	public static List<Annotation> parse(File file) {
-		BufferedReader br;
-		try {
-			br = new BufferedReader(new FileReader(file));
-		} 
-		catch (FileNotFoundException e) {
-			e.printStackTrace();
-			return null;
-		}
-		ArrayList<Annotation> anns = new ArrayList<Annotation>();
-		String line;
-		try {
-			int lineNum = 1;
-			line = br.readLine();
-			while(line != null) {
-				Matcher m = commentPattern.matcher(line);
-				if(m.matches()) {
-					line = m.group(1);
-				}
-				if(line.length() > 0) {
-					Annotation ann = parseLine(line);	
-					if(ann != null) {
-						anns.add(ann);
-					}
-					else {
-						Matcher whiteSpace = Pattern.compile("\\s*").matcher(line);
-						if(whiteSpace.matches() == false) {
-							System.err.println("line #" + lineNum + " unparseable: " + line);
-						}
-					}
-				}
-				line = br.readLine();
-				lineNum++;
-			}
-		} 
-		catch (IOException e) {
-			e.printStackTrace();
-			return anns;
-		}
-		return anns;
+		return store.parse(file);
 	}
 
 
 
 
+	/**
+	 * Removes every line matching the provided <code>Annotation</code> from an annotation file.
+	 * 
+	 * @param annToDelete The <code>Annotation</code> to remove
+	 * @param oFile The temporary annotation file
+	 * @return <code>true</code> iff the <code>Annotation</code> was found
+	 * @throws IOException If the file cannot be read or the journal cannot be written
+	 */
 	public static boolean removeAnnotation(Annotation annToDelete, File oFile) throws IOException {
-		File nFile = new File(OSPath.basename(oFile.getAbsolutePath()) + "." + Constants.deletionTempFileExtension);
-		BufferedReader reader = null;
-		BufferedWriter writer = null;
-		reader = new BufferedReader(new FileReader(oFile));
-		writer = new BufferedWriter(new FileWriter(nFile));
-
-		boolean foundTarget = false;
-		String curLine;
-		while((curLine = reader.readLine()) != null) {
-			Annotation curLineAnn = parseLine(curLine);
-			if(curLineAnn != null && curLineAnn.equals(annToDelete)) {
-				if(foundTarget) {
-					System.err.println("duplicate match?: " + curLine);
-				}
-				else {
-					foundTarget = true;
-				}
-			}
-			else {
-				writer.write(curLine + "\n");
-			}
-		}
-		writer.close();
-		reader.close();
-
-		if(oFile.delete() == false) {
-			throw new IOException("could not delete old file");
-		}
-		if(nFile.renameTo(oFile) == false) {
-			throw new IOException("could not rename temp deletion file to normal temp file");
-		}
-		return foundTarget;
+		return store.remove(annToDelete, oFile);
 	}
 
-
+	/**
+	 * Adds an <code>Annotation</code> to an annotation file, before the first annotation with a later time.
+	 * 
+	 * @param ann The <code>Annotation</code> to add
+	 * @param oFile The temporary annotation file
+	 * @throws IOException If the file cannot be read or the journal cannot be written
+	 */
 	public static void appendAnnotation(Annotation ann, File oFile) throws IOException {
-		ArrayList<String> inLines = new ArrayList<String>();
-		ArrayList<String> outLines = new ArrayList<String>();
-		BufferedReader reader = new BufferedReader(new FileReader(oFile));
-		String curLine;
-		while((curLine = reader.readLine()) != null) {
-			inLines.add(curLine);
-		}
-		String lineToAdd = makeLine(ann);
-		boolean foundPosition = false;
-		for(int i = 0; i < inLines.size(); i++) {
-			if(foundPosition == false) {
-				Annotation curAnn = parseLine(inLines.get(i));
-				if(curAnn != null) {
-					if(ann.getTime() < curAnn.getTime()) {
-						outLines.add(lineToAdd);
-						foundPosition = true;
-					}
-				}
-			}
-			outLines.add(inLines.get(i));
-		}
-		if(foundPosition == false) {
-			outLines.add(lineToAdd);
-		}
-		reader.close();
+		store.append(ann, oFile);
+	}
 
-		File nFile = new File(OSPath.basename(oFile.getAbsolutePath()) + "." + Constants.deletionTempFileExtension);
-		BufferedWriter writer = new BufferedWriter(new FileWriter(nFile));
-		for(int i = 0; i < outLines.size(); i++) {
-			writer.write(outLines.get(i) + "\n");
-		}
-		writer.close();		
-		oFile.delete();		
-		if(nFile.renameTo(oFile) == false) {
-			throw new IOException("could not rename temp deletion file to normal temp file");
-		}
+	/**
+	 * Writes all journaled additions and deletions into the annotation file they belong to.
+	 * 
+	 * Must be called before the temporary annotation file is renamed, deleted or rewritten directly.
+	 * 
+	 * @throws IOException If the journal cannot be compacted
+	 */
+	public static void closeJournal() throws IOException {
+		store.closeJournal();
 	}
 	
 
+	/**
+	 * Starts a transaction for replacing the provided annotation file together with other files.
+	 * 
+	 * @param oFile The temporary annotation file
+	 * @return The transaction, which is finished on the next parse if a crash interrupts its commit
+	 */
+	public static FileTransaction beginTransaction(File oFile) {
+		return store.beginTransaction(oFile);
+	}
+
+	/**
+	 * Stages a rewrite of an annotation file as a new header followed by the provided annotations, with a single write.
+	 * 
+	 * @param oFile The temporary annotation file
+	 * @param annotatorName The annotator named in the new header
+	 * @param anns All of the file's <code>Annotations</code>, in order of time
+	 * @param transaction A transaction from {@link #beginTransaction(File)}, which performs the rewrite when committed
+	 * @throws IOException If the new file cannot be staged
+	 */
+	public static void stageRewrite(File oFile, String annotatorName, Annotation[] anns, FileTransaction transaction) throws IOException {
+		store.stageReplacement(oFile, annotatorName, Arrays.asList(anns), transaction);
+	}
+
 	public static boolean headerExists(File oFile) {
-		if(oFile.exists()) {
-			BufferedReader br;
-			try {
-				br = new BufferedReader(new FileReader(oFile));
-				String firstLine = br.readLine();
-				br.close();
-				if(firstLine != null) {
-					return firstLine.contains(Constants.headerStartLine);
-				}
-				else {
-					return false;
-				}
-			} 	
-			catch (IOException e) {
-				e.printStackTrace();
-				return false;
-			}
-		}
-		else {
-			return false;
-		}
+		return store.headerExists(oFile);
 	}
 	
 
 
 	public static void prependHeader(File oFile, String annotatorName) throws IOException {		
-		if(oFile.exists() == false) {
-			throw new FileNotFoundException(oFile + " not found");
-		}
-		
-		File tmpFile = new File(oFile.getAbsolutePath() + "." + Constants.deletionTempFileExtension);
-		
-		BufferedWriter fw = new BufferedWriter(new FileWriter(tmpFile));
-		
-		fw.write(Constants.headerStartLine + "\n");
-		fw.write(Constants.commentStart + "Annotator: " + annotatorName + "\n");
-		
-		Date date = new Date();
-		String utcString = DateFormat.getDateInstance(DateFormat.LONG).format(date) + Constants.annotationFileDelimiter + DateFormat.getTimeInstance(DateFormat.LONG).format(date);
-		fw.write(Constants.commentStart + "UTC Locally Formatted: " +  utcString + "\n");
-		
-		fw.write(Constants.commentStart + "UNIX: " + System.currentTimeMillis()/1000 + "\n");
-		
-		fw.write(Constants.commentStart + "Program Version: " + Constants.programVersion + "\n");
-		
-		String[] osPropertyStrings = {"os.name", "os.arch", "user.name", "user.country", "user.language"};
-		writePropertyLine("OS Properties", osPropertyStrings, fw);		
-		String[] javaPropertyStrings = {
-				"java.runtime.version", "java.specification.name", "java.specification.vendor", "java.specification.version", "java.vendor", "java.version",
-				"java.vm.name", "java.vm.specification.name", "java.vm.specification.vendor", "java.vm.specification.version", "java.vm.vendor", "java.vm.version"};
-		writePropertyLine("Java Properties", javaPropertyStrings, fw);
-
-		fw.write("\n");
-		
-		BufferedReader br = new BufferedReader(new FileReader(oFile));
-		String curLine;
-		while((curLine = br.readLine()) != null) {
-			fw.write(curLine + "\n");
-		}
-		br.close();
-		
-		fw.close();		
-		
-		if(oFile.delete() == false) {
-			throw new IOException("could not delete old file");
-		}
-		if(tmpFile.renameTo(oFile) == false) {
-			throw new IOException("could not rename temp deletion file to normal temp file");
-		}
+		store.prependHeader(oFile, annotatorName);
+	}
 
+	public static void addField(File oFile, String string) throws IOException {
+		store.addField(oFile, string);
 	}
-	
-	private static void writePropertyLine(String name, String[] properties, BufferedWriter fw) throws IOException {
-		fw.write(Constants.commentStart + name + ": ");
-		for(String prop: properties) {
-			String propVal = System.getProperty(prop);
-			if(propVal != null) {
-				if(propVal.contains(Constants.propertyPairOpenBrace) || propVal.contains(Constants.propertyPairCloseBrace) || propVal.contains(Constants.annotationFileDelimiter)) {
-					System.err.println("cannot store property value: " + propVal + " because it contains a reserved character");
-					continue;
+
+	/**
+	 * Reads and writes the lines of annotation files: time, word number and text, separated by the delimiter.
+	 */
+	private static class AnnotationCodec implements TimedEventCodec<Annotation> {
+
+		public Annotation decode(FieldTokenizer fields) {
+			if(fields.hasNextDouble()) {
+				double time = fields.nextDouble();
+				if(fields.hasNextInt()) {
+					int wordNum = fields.nextInt();
+					if(fields.hasNext()) {
+						String text = fields.next().toUpperCase();
+						return new Annotation(time, wordNum, text);
+					}
 				}
 			}
-			else {
-				System.err.println("no such property: " + prop);
-				continue;
-			}
-			fw.write(Constants.propertyPairOpenBrace);
-			fw.write(prop);
-			fw.write(Constants.annotationFileDelimiter);
-			fw.write(propVal);
-			fw.write(Constants.propertyPairCloseBrace);
+			return null;
 		}
-		fw.write("\n");
-	}
 
-	public static void addField(File oFile, String string) throws IOException {
-		if(oFile.exists() == false) {
-			throw new FileNotFoundException(oFile + " not found");
-		}
-		
-		File tmpFile = new File(oFile.getAbsolutePath() + "." + Constants.deletionTempFileExtension);
-		
-		BufferedWriter fw = new BufferedWriter(new FileWriter(tmpFile));
-		
-		BufferedReader br = new BufferedReader(new FileReader(oFile));
-		String curLine;
-		boolean wroteTime = false;
-		while((curLine = br.readLine()) != null) {
-			if(curLine.startsWith("#") == false && wroteTime == false) {
-				fw.write(Constants.commentStart + string + "\n");
-				wroteTime = true;
-			}
-			fw.write(curLine + "\n");
-		}
-		br.close();
-		
-		fw.close();		
-		
-		if(oFile.delete() == false) {
-			throw new IOException("could not delete old file");
-		}
-		if(tmpFile.renameTo(oFile) == false) {
-			throw new IOException("could not rename temp deletion file to normal temp file");
+		public String encode(Annotation ann) {
+			return makeLine(ann);
 		}
 	}
 }
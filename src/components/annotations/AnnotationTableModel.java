@@ -12,168 +12,158 @@
 //    You should have received a copy of the GNU General Public License
 //    along with TotalRecall.  If not, see <http://www.gnu.org/licenses/>.
 
+
 package components.annotations;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
 
 import javax.swing.event.TableModelEvent;
-import javax.swing.event.TableModelListener;
-import javax.swing.table.TableModel;
+
+import util.TimedTableModel;
 
 /**
  * Custom <code>TableModel</code> for storing annotations of the open audio file.
  * 
+ * Adding an intrusion inserts its word into the wordpool, which moves every later word of the wordpool down one number.
+ * Rather than renumbering every annotation of such a word on each intrusion, the model keeps a sorted list of the intrusion words added so far,
+ * and remembers for each annotation how many of them preceded its word when the annotation was last numbered.
+ * An annotation's current number is its stored number plus the intrusions preceding its word since then, which two binary searches find.
+ * The new numbers are written into the annotations themselves only when annotations are handed out of the model.
+ * 
  * @author Yuvi Masory
  */
-public class AnnotationTableModel implements TableModel {
-	
-	private HashSet<TableModelListener> listeners;
+public class AnnotationTableModel extends TimedTableModel<Annotation> {
 	
-	private ArrayList<Annotation> sortedAnns;
-	
-	//editing the table layout (e.g., adding a new column, switching the order of two columns) involves more than changing the next three lines
-	//some of the methods below make assumptions about the number of columns and the Annotation methods they hook up to
-	//doing this in a perfectly programmed worled would involve storing an array of Method objects
-	private static final int columnCount = 3;
+	//editing the table layout (e.g., adding a new column, switching the order of two columns) involves more than changing the next two lines
+	//getColumnValue makes assumptions about the number of columns and the Annotation methods they hook up to
 	private static final Class<?>[] columnClasses = new Class<?>[] {Double.class, String.class, Integer.class};
 	private static final String[] columnNames = new String[] {"Time (ms)", "Word", "Word #"};
-	
-	private static final String colErr = "column index out of range";
-	private static final String rowErr = "row index out of range";
-	private static final String stateErr = "inconsistency in internal column handling";
-	
-	protected AnnotationTableModel() {
-		if(columnCount != columnClasses.length || columnCount != columnNames.length) {
-			throw new IllegalStateException(stateErr);
-		}
-		listeners = new HashSet<TableModelListener>();
-		sortedAnns = new ArrayList<Annotation>();
-	}
 
-	public int getColumnCount() {
-		return columnCount;
-	}
-
-	public int getRowCount() {
-		return sortedAnns.size();
-	}
+	private static final int wordNumColumn = 2;
 	
-	public Class<?> getColumnClass(int columnIndex) {
-		if(columnIndex > columnClasses.length || columnIndex < 0) {
-			throw new IllegalArgumentException(colErr);
-		}
-		return columnClasses[columnIndex];
-	}
+	private final ArrayList<String> intrusionWords;
+	private final IdentityHashMap<Annotation, Integer> intrusionsWhenNumbered;
 	
-	public boolean isCellEditable(int row, int col) {
-		return false;
-	}
-
-	public void addTableModelListener(TableModelListener l) {
-		listeners.add(l);
-	}
-
-	public void removeTableModelListener(TableModelListener l) {
-		listeners.remove(l);
-	}
-
-	public String getColumnName(int columnIndex) {
-		if(columnIndex > columnClasses.length || columnIndex < 0) {
-			throw new IllegalArgumentException(colErr);
-		}
-		return columnNames[columnIndex];
+	protected AnnotationTableModel() {
+		super(columnClasses, columnNames);
+		intrusionWords = new ArrayList<String>();
+		intrusionsWhenNumbered = new IdentityHashMap<Annotation, Integer>();
 	}
 
-	public Object getValueAt(int rowIndex, int columnIndex) {
-		if(rowIndex < 0 || rowIndex > sortedAnns.size()) {
-			throw new IllegalArgumentException(rowErr);
-		}
-		if(columnIndex > columnCount - 1) {
-			throw new IllegalArgumentException(colErr);
-		}
-		Annotation ann = sortedAnns.get(rowIndex);
+	@Override
+	protected Object getColumnValue(Annotation ann, int columnIndex) {
 		if(columnIndex == 0) {
 			return ann.getTime();
 		}
 		if(columnIndex == 1) {
 			return ann.getText();
 		}
-		if(columnIndex == 2) {
-			return ann.getWordNum();
+		if(columnIndex == wordNumColumn) {
+			return currentWordNum(ann);
 		}
-		throw new IllegalStateException(stateErr);
+		throw new IllegalStateException("inconsistency in internal column handling");
 	}
 
-	public void setValueAt(Object aValue, int rowIndex, int columnIndex) {
-		throw new UnsupportedOperationException("setting table values not supported, use add/remove annotation methods");
-	}
-	
 	protected Annotation getAnnotationAt(int rowIndex) {
-		if(rowIndex < 0 || rowIndex > sortedAnns.size()) {
-			throw new IllegalArgumentException(rowErr);
-		}
-		return sortedAnns.get(rowIndex);
+		return renumber(get(rowIndex));
+	}
+
+	/**
+	 * Returns the index of the first annotation at or after the provided time, found by binary search.
+	 */
+	protected int firstIndexAtOrAfter(double timeMillis) {
+		return firstAtOrAfter(timeMillis);
+	}
+
+	/**
+	 * Returns the index of the first annotation after the provided time, found by binary search.
+	 */
+	protected int firstIndexAfter(double timeMillis) {
+		return firstAfter(timeMillis);
 	}
 
 	protected Annotation[] toArray() {
-		return sortedAnns.toArray(new Annotation[sortedAnns.size()]);
+		Annotation[] anns = toArray(new Annotation[size()]);
+		for(Annotation ann: anns) {
+			renumber(ann);
+		}
+		return anns;
 	}
 	
-	
+	/**
+	 * Adds an intrusion's annotation, moving the annotations of every word after it in the wordpool down one number.
+	 * 
+	 * Fires an <code>INSERT</code> event for the new row and an <code>UPDATE</code> event for the word number column.
+	 */
 	protected void addNewWPAnn(Annotation ann, int wpLine){
-		sortedAnns.add(ann);
-		Collections.sort(sortedAnns);
 		String annText = ann.getText();
-		for(Annotation otherAnn : sortedAnns){
-			String otherAnnText = otherAnn.getText();
-			if(otherAnnText.compareTo(annText) > 0){
-				otherAnn.setWordNum((otherAnn.getWordNum() + 1));
-			}
-		}
-
-		for(TableModelListener tml: listeners) {
-			tml.tableChanged(new TableModelEvent(this));
-		}
+		int pos = Collections.binarySearch(intrusionWords, annText);
+		intrusionWords.add(pos < 0 ? -pos - 1 : pos, annText);
+		addElement(ann);
+		fireTableChanged(new TableModelEvent(this, 0, size() - 1, wordNumColumn));
 	}
 
 	//adding duplicates is prevented by annotation-over deleting first annotation, performed in annotateaction
 	protected void addElement(Annotation ann) {
-		sortedAnns.add(ann);
-		//then remove batch adding option below
-		Collections.sort(sortedAnns);
-		for(TableModelListener tml: listeners) {
-			tml.tableChanged(new TableModelEvent(this));
-		}
+		intrusionsWhenNumbered.put(ann, intrusionsBefore(ann.getText()));
+		insert(ann);
 	}
 	
 	//duplicate adds are possible with this method
 	protected void addElements(Iterable<Annotation> batch) {
-		for(Annotation el: batch) {
-			sortedAnns.add(el);
-		}
-		Collections.sort(sortedAnns);
-		for(TableModelListener tml: listeners) {
-			tml.tableChanged(new TableModelEvent(this));
+		for(Annotation ann: batch) {
+			intrusionsWhenNumbered.put(ann, intrusionsBefore(ann.getText()));
 		}
+		insertAll(batch);
 	}
 
 	protected void removeElementAt(int index) {
-		if(index < 0 || index > sortedAnns.size()) {
-			throw new IllegalArgumentException(rowErr);
-		}
-		sortedAnns.remove(index);
-		for(TableModelListener tml: listeners) {
-			tml.tableChanged(new TableModelEvent(this, Math.min(index, sortedAnns.size()), sortedAnns.size()));
-		}
+		intrusionsWhenNumbered.remove(remove(index));
 	}
 
 	protected void removeAllElements() {
-		sortedAnns.clear();
+		clear();
+		intrusionsWhenNumbered.clear();
+		intrusionWords.clear();
+	}
+
+	private int currentWordNum(Annotation ann) {
+		Integer numbered = intrusionsWhenNumbered.get(ann);
+		if(numbered == null) {
+			return ann.getWordNum();
+		}
+		return ann.getWordNum() + intrusionsBefore(ann.getText()) - numbered;
 	}
 
-	public int size() {
-		return sortedAnns.size();
+	/**
+	 * Writes an annotation's current number into it.
+	 */
+	private Annotation renumber(Annotation ann) {
+		int wordNum = currentWordNum(ann);
+		if(wordNum != ann.getWordNum()) {
+			ann.setWordNum(wordNum);
+			intrusionsWhenNumbered.put(ann, intrusionsBefore(ann.getText()));
+		}
+		return ann;
+	}
+
+	/**
+	 * Returns the number of intrusion words added so far that come strictly before the provided word.
+	 */
+	private int intrusionsBefore(String text) {
+		int low = 0;
+		int high = intrusionWords.size();
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			if(intrusionWords.get(mid).compareTo(text) < 0) {
+				low = mid + 1;
+			}
+			else {
+				high = mid;
+			}
+		}
+		return low;
 	}
 }
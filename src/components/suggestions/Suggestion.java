@@ -14,13 +14,15 @@
 
 package components.suggestions;
 
+import util.Timed;
+
 /**
  * Note: this class has a natural ordering that is inconsistent with equals.
  *  
  * @author Yuvi Masory
  *
  */
-public class Suggestion implements Comparable<Suggestion>{
+public class Suggestion implements Comparable<Suggestion>, Timed {
 
 	private double wordScore;
 	private double time;
@@ -77,6 +77,26 @@ public class SuggestionDisplay extends JScrollPane {
 		return table.getModel().toArray();
 	}
 	
+	/**
+	 * Returns one suggestion in time order, without copying the suggestions as {@link #getSuggestionsInOrder()} does.
+	 * 
+	 * @param index The suggestion's index, from <code>0</code> to <code>getNumSuggestions() - 1</code>
+	 * @return The suggestion at that index
+	 */
+	public static Suggestion getSuggestionAt(int index) {
+		return table.getModel().getSuggestionAt(index);
+	}
+	
+	/**
+	 * Finds the first suggestion at or after the provided time, by binary search.
+	 * 
+	 * @param timeMillis The time in milliseconds
+	 * @return The index of the suggestion, or <code>getNumSuggestions()</code> if there is none
+	 */
+	public static int findFirstSuggestionAtOrAfter(double timeMillis) {
+		return table.getModel().firstIndexAtOrAfter(timeMillis);
+	}
+	
 	public static void addSuggestion(Suggestion sugg) {
 		if(sugg == null) {
 			throw new IllegalArgumentException("annotation/s cannot be null");
@@ -123,4 +143,11 @@ public class SuggestionDisplay extends JScrollPane {
 	public static int getNumSuggestions() {
 		return table.getModel().size();
 	}
+
+	/**
+	 * Returns a count of the changes made to the suggestions, which increases on every addition and removal.
+	 */
+	public static int getSuggestionsVersion() {
+		return table.getModel().getVersion();
+	}
 }
@@ -0,0 +1,302 @@
+//    This file is part of Penn TotalRecall <http://memory.psych.upenn.edu/TotalRecall>.
+//
+//    TotalRecall is free software: you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation, version 3 only.
+//
+//    TotalRecall is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with TotalRecall.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package components.waveform;
+
+import info.GUIConstants;
+
+import java.awt.DisplayMode;
+import java.awt.EventQueue;
+import java.awt.GraphicsConfiguration;
+import java.awt.Toolkit;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.text.DecimalFormat;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.swing.JComponent;
+import javax.swing.RepaintManager;
+
+/**
+ * Drives an animated component at the display's refresh rate, in place of a fixed-delay <code>javax.swing.Timer</code>.
+ * 
+ * Java gives Swing components no vertical sync callback, so the clock does the nearest thing.
+ * It reads the refresh rate of the component's display and fires ticks on a fixed grid of that period, measured with <code>System.nanoTime()</code>,
+ * so a late tick doesn't push back the ones after it the way <code>Timer</code> delays do.
+ * Each tick runs the listener, paints the regions it dirtied right away, and calls <code>Toolkit.sync()</code> so the frame reaches the screen within the tick.
+ * Ticks are coalesced: if the event dispatch thread has not yet run one tick when the next is due, the next is dropped rather than queued.
+ * 
+ * Keeps frame-time and jitter statistics, along with the playhead prediction error reported by the listener, which its getters return and {@link #toString()} summarizes.
+ * Other than the count of dropped ticks, the statistics should be read on the event dispatch thread, where the ticks gather them.
+ * 
+ * @author Yuvi Masory
+ */
+public class AnimationClock {
+
+	/**
+	 * Refresh rate assumed when the display does not report one.
+	 */
+	public static final int defaultRefreshRate = 60;
+
+	private final JComponent component;
+	private final ActionListener listener;
+	private final long periodNanos;
+	private final ActionEvent tickEvent;
+	private final Runnable tick;
+
+	private final AtomicBoolean tickPending = new AtomicBoolean(false);
+	private final AtomicLong numDropped = new AtomicLong();
+	private volatile boolean running;
+	private Thread ticker;
+
+	//the rest is touched only by the event dispatch thread
+	private long lastTickNanos;
+	private long numIntervals;
+	private double sumIntervalNanos;
+	private double sumSquaredJitterNanos;
+	private long maxJitterNanos;
+
+	private long numPlayheadSamples;
+	private double sumPlayheadErrorPixels;
+	private double maxPlayheadErrorPixels;
+	private long numPlayheadWithinPixel;
+
+	/**
+	 * Creates a stopped clock ticking at the refresh rate of the display the component is on, or as near to it as {@link info.GUIConstants#maxAnimationFramesPerSecond} allows.
+	 * 
+	 * @param component The animated component, whose dirty regions are painted on each tick
+	 * @param listener Called on the event dispatch thread on each tick
+	 */
+	public AnimationClock(JComponent component, ActionListener listener) {
+		this.component = component;
+		this.listener = listener;
+		int refreshRate = detectRefreshRate(component.getGraphicsConfiguration());
+		int refreshesPerTick = Math.max(1, Math.round(refreshRate / (float)GUIConstants.maxAnimationFramesPerSecond));
+		periodNanos = 1000000000L * refreshesPerTick / refreshRate;
+		tickEvent = new ActionEvent(this, ActionEvent.ACTION_PERFORMED, null);
+		tick = new Runnable() {
+			public void run() {
+				runTick();
+			}
+		};
+	}
+
+	/**
+	 * Determines the refresh rate of a display.
+	 * 
+	 * @param gc The configuration of the display, possibly <code>null</code>
+	 * @return The refresh rate in Hz, or {@link #defaultRefreshRate} if it cannot be determined
+	 */
+	public static int detectRefreshRate(GraphicsConfiguration gc) {
+		if(gc != null) {
+			DisplayMode mode = gc.getDevice().getDisplayMode();
+			if(mode != null && mode.getRefreshRate() != DisplayMode.REFRESH_RATE_UNKNOWN && mode.getRefreshRate() > 0) {
+				return mode.getRefreshRate();
+			}
+		}
+		return defaultRefreshRate;
+	}
+
+	/**
+	 * Starts ticking, on a new daemon thread.
+	 */
+	public void start() {
+		if(running) {
+			return;
+		}
+		running = true;
+		ticker = new Thread("AnimationClock") {
+			@Override
+			public void run() {
+				tickLoop();
+			}
+		};
+		ticker.setDaemon(true);
+		ticker.setPriority(Thread.MAX_PRIORITY);
+		ticker.start();
+	}
+
+	/**
+	 * Stops ticking, keeping the statistics gathered since the clock started.
+	 * 
+	 * A tick already handed to the event dispatch thread may still run.
+	 */
+	public void stop() {
+		if(running == false) {
+			return;
+		}
+		running = false;
+		LockSupport.unpark(ticker);
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * @return Nanoseconds between ticks
+	 */
+	public long getPeriodNanos() {
+		return periodNanos;
+	}
+
+	/**
+	 * @return Mean nanoseconds between ticks as they ran, or 0 before the second tick
+	 */
+	public double getMeanFrameNanos() {
+		return numIntervals == 0 ? 0 : sumIntervalNanos / numIntervals;
+	}
+
+	/**
+	 * @return Root mean square of the difference between each interval between ticks and the period, in nanoseconds
+	 */
+	public double getRmsJitterNanos() {
+		return numIntervals == 0 ? 0 : Math.sqrt(sumSquaredJitterNanos / numIntervals);
+	}
+
+	/**
+	 * @return Largest difference between an interval between ticks and the period, in nanoseconds
+	 */
+	public long getMaxJitterNanos() {
+		return maxJitterNanos;
+	}
+
+	/**
+	 * @return The number of ticks dropped because the previous one had not yet run, or because the clock stalled
+	 */
+	public long getNumDropped() {
+		return numDropped.get();
+	}
+
+	/**
+	 * @return The number of playhead errors recorded
+	 */
+	public long getNumPlayheadSamples() {
+		return numPlayheadSamples;
+	}
+
+	/**
+	 * @return The mean playhead error, in pixels, or 0 if none were recorded
+	 */
+	public double getMeanPlayheadErrorPixels() {
+		return numPlayheadSamples == 0 ? 0 : sumPlayheadErrorPixels / numPlayheadSamples;
+	}
+
+	/**
+	 * @return The largest playhead error, in pixels
+	 */
+	public double getMaxPlayheadErrorPixels() {
+		return maxPlayheadErrorPixels;
+	}
+
+	/**
+	 * @return The fraction of recorded playhead errors of at most one pixel, or 0 if none were recorded
+	 */
+	public double getPlayheadWithinPixelFraction() {
+		return numPlayheadSamples == 0 ? 0 : numPlayheadWithinPixel / (double)numPlayheadSamples;
+	}
+
+	/**
+	 * Records how far the drawn playhead was from the hearing frame, when the listener is able to tell.
+	 * 
+	 * Must be called on the event dispatch thread.
+	 * 
+	 * @param pixels The absolute error, in pixels at the zoom level drawn
+	 */
+	public void recordPlayheadError(double pixels) {
+		numPlayheadSamples++;
+		sumPlayheadErrorPixels += pixels;
+		maxPlayheadErrorPixels = Math.max(maxPlayheadErrorPixels, pixels);
+		if(pixels <= 1) {
+			numPlayheadWithinPixel++;
+		}
+	}
+
+	private void tickLoop() {
+		long deadline = System.nanoTime() + periodNanos;
+		while(running) {
+			long wait;
+			while(running && (wait = deadline - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(wait);
+			}
+			if(running == false) {
+				break;
+			}
+			if(tickPending.compareAndSet(false, true)) {
+				EventQueue.invokeLater(tick);
+			}
+			else {
+				numDropped.incrementAndGet();
+			}
+			deadline += periodNanos;
+			long behind = System.nanoTime() - deadline;
+			if(behind > 0) {
+				//stalled for more than a whole period, e.g. by the garbage collector, skip the missed ticks but stay on the grid
+				long missed = behind / periodNanos + 1;
+				deadline += missed * periodNanos;
+				numDropped.addAndGet(missed);
+			}
+		}
+	}
+
+	private void runTick() {
+		try {
+			if(running == false) {
+				return;
+			}
+			long now = System.nanoTime();
+			if(lastTickNanos > 0) {
+				long interval = now - lastTickNanos;
+				long jitter = interval - periodNanos;
+				numIntervals++;
+				sumIntervalNanos += interval;
+				sumSquaredJitterNanos += (double)jitter * jitter;
+				maxJitterNanos = Math.max(maxJitterNanos, Math.abs(jitter));
+			}
+			lastTickNanos = now;
+
+			listener.actionPerformed(tickEvent);
+			RepaintManager.currentManager(component).paintDirtyRegions();
+			Toolkit.getDefaultToolkit().sync();
+		}
+		finally {
+			tickPending.set(false);
+		}
+	}
+
+	/**
+	 * Summarizes the frame times, jitter, dropped ticks and playhead error.
+	 */
+	@Override
+	public String toString() {
+		DecimalFormat ms = new DecimalFormat("0.00");
+		DecimalFormat px = new DecimalFormat("0.0");
+		String summary = "animation clock: period " + ms.format(periodNanos / 1e6) + " ms";
+		if(numIntervals > 0) {
+			summary += ", mean frame " + ms.format(getMeanFrameNanos() / 1e6) + " ms"
+				+ ", rms jitter " + ms.format(getRmsJitterNanos() / 1e6) + " ms"
+				+ ", max jitter " + ms.format(maxJitterNanos / 1e6) + " ms";
+		}
+		summary += ", " + numDropped.get() + " dropped ticks";
+		if(numPlayheadSamples > 0) {
+			summary += ", playhead error mean " + px.format(getMeanPlayheadErrorPixels()) + " px"
+				+ ", max " + px.format(maxPlayheadErrorPixels) + " px"
+				+ ", " + (100 * numPlayheadWithinPixel / numPlayheadSamples) + "% within 1 px";
+		}
+		return summary;
+	}
+}
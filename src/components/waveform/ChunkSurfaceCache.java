@@ -0,0 +1,166 @@
+//    This file is part of Penn TotalRecall <http://memory.psych.upenn.edu/TotalRecall>.
+//
+//    TotalRecall is free software: you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation, version 3 only.
+//
+//    TotalRecall is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with TotalRecall.  If not, see <http://www.gnu.org/licenses/>.
+
+package components.waveform;
+
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.image.VolatileImage;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import components.waveform.WaveformBuffer.WaveformChunk;
+
+/**
+ * Accelerated copies of the chunk images on screen, with the annotation and suggestion overlays already composited onto them.
+ *
+ * Chunk images are <code>BufferedImages</code> in main memory, so drawing one to the screen is a full software copy on every repaint.
+ * Each chunk shown is instead copied once into a <code>VolatileImage</code>, which pipelines with acceleration keep in video memory,
+ * and the overlays are drawn onto that copy once rather than on every repaint.
+ * A surface is redrawn only when its chunk, its height or the overlay version changes, or when the surface's contents are lost.
+ *
+ * Surfaces are used only from the event dispatch thread.
+ *
+ * @author Yuvi Masory
+ */
+public class ChunkSurfaceCache {
+
+	/**
+	 * Draws the overlays belonging to a chunk onto its surface.
+	 */
+	public static interface OverlayPainter {
+
+		/**
+		 * Draws the overlays that fall on the provided chunk.
+		 *
+		 * @param g Graphics of the surface, with x = 0 at the chunk's first pixel column
+		 * @param chunk The chunk the surface shows
+		 * @param width The width of the surface
+		 * @param height The height of the surface
+		 */
+		public void paintOverlays(Graphics2D g, WaveformChunk chunk, int width, int height);
+	}
+
+	private final OverlayPainter painter;
+	private final Map<WaveformChunk, Surface> surfaces;
+
+	/**
+	 * Creates an empty cache.
+	 *
+	 * @param painter Draws the overlays onto each surface
+	 */
+	public ChunkSurfaceCache(OverlayPainter painter) {
+		this.painter = painter;
+		surfaces = new IdentityHashMap<WaveformChunk, Surface>();
+	}
+
+	/**
+	 * Draws a chunk, with its overlays, from its surface, making or redrawing the surface first if needed.
+	 *
+	 * @param g The destination graphics
+	 * @param gc The configuration of the destination, used to make compatible surfaces
+	 * @param chunk The chunk to draw
+	 * @param xPos The x position of the chunk's first column on the destination
+	 * @param height The height to draw the chunk at, stretching the chunk image if it was made for another height
+	 * @param overlayVersion Changes whenever the overlays have changed, causing surfaces to be redrawn
+	 */
+	public void draw(Graphics g, GraphicsConfiguration gc, WaveformChunk chunk, int xPos, int height, int overlayVersion) {
+		Surface surface = surfaces.get(chunk);
+		if(surface == null) {
+			surface = new Surface();
+			surfaces.put(chunk, surface);
+		}
+		int width = chunk.getImage().getWidth(null);
+		do {
+			int status = surface.image == null ? VolatileImage.IMAGE_INCOMPATIBLE : surface.image.validate(gc);
+			if(status == VolatileImage.IMAGE_INCOMPATIBLE || surface.image.getHeight() != height) {
+				if(surface.image != null) {
+					surface.image.flush();
+				}
+				surface.image = gc.createCompatibleVolatileImage(width, height);
+				surface.rendered = false;
+			}
+			else if(status == VolatileImage.IMAGE_RESTORED) {
+				surface.rendered = false;
+			}
+			if(surface.rendered == false || surface.overlayVersion != overlayVersion) {
+				render(surface, chunk, width, height);
+				surface.overlayVersion = overlayVersion;
+				surface.rendered = true;
+			}
+			g.drawImage(surface.image, xPos, 0, null);
+		}
+		while(surface.image.contentsLost());
+	}
+
+	/**
+	 * Releases the surfaces of every chunk except the provided ones.
+	 *
+	 * @param keep The chunks still on screen, possibly <code>null</code>
+	 */
+	public void retainOnly(WaveformChunk... keep) {
+		Iterator<Map.Entry<WaveformChunk, Surface>> it = surfaces.entrySet().iterator();
+		outer:
+		while(it.hasNext()) {
+			Map.Entry<WaveformChunk, Surface> entry = it.next();
+			for(WaveformChunk chunk: keep) {
+				if(entry.getKey() == chunk) {
+					continue outer;
+				}
+			}
+			entry.getValue().flush();
+			it.remove();
+		}
+	}
+
+	/**
+	 * Releases every surface.
+	 */
+	public void clear() {
+		for(Surface surface: surfaces.values()) {
+			surface.flush();
+		}
+		surfaces.clear();
+	}
+
+	private void render(Surface surface, WaveformChunk chunk, int width, int height) {
+		Graphics2D g2d = surface.image.createGraphics();
+		Image image = chunk.getImage();
+		if(chunk.getHeight() == height) {
+			g2d.drawImage(image, 0, 0, null);
+		}
+		else {
+			g2d.drawImage(image, 0, 0, width, height, null);
+		}
+		painter.paintOverlays(g2d, chunk, width, height);
+		g2d.dispose();
+	}
+
+	private static class Surface {
+
+		private VolatileImage image;
+		private boolean rendered;
+		private int overlayVersion;
+
+		private void flush() {
+			if(image != null) {
+				image.flush();
+				image = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,288 @@
+//    This file is part of Penn TotalRecall <http://memory.psych.upenn.edu/TotalRecall>.
+//
+//    TotalRecall is free software: you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation, version 3 only.
+//
+//    TotalRecall is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with TotalRecall.  If not, see <http://www.gnu.org/licenses/>.
+
+package components.waveform;
+
+import util.SlidingWindowMax;
+import de.dfki.lt.signalproc.util.DoubleDataSource;
+
+/**
+ * Reduces a stream of samples to one set of values per pixel column, without ever holding more than a small block of samples.
+ *
+ * Samples are read in blocks and folded into the current column as they pass.
+ * Memory use is proportional to the number of columns and the smoothing window, not the number of samples, so longer chunks cost no more than shorter ones.
+ *
+ * Column <code>i</code> covers the frames from <code>skipFrames + (long)(i * framesPerColumn)</code> up to the start of column <code>i + 1</code>.
+ * Frames before <code>skipFrames</code> are read, so that filters and smoothing can settle, but belong to no column.
+ *
+ * @author Yuvi Masory
+ */
+public class EnvelopeExtractor {
+
+	/**
+	 * Number of samples read from the source at a time.
+	 */
+	public static final int blockSize = 4096;
+
+	/**
+	 * How a column's samples are reduced to the value that is drawn.
+	 */
+	public static enum Mode {
+
+		/**
+		 * Each column draws the single sample at its first frame, after an optional {@link SlidingWindowMax} smoothing pass.
+		 * Bursts shorter than a column can fall between sampled frames, which is what the smoothing hides.
+		 */
+		POINT,
+
+		/**
+		 * Each column draws the largest magnitude among all of its samples, and also records their true minimum, maximum and RMS.
+		 * Nothing can fall between columns, so no smoothing is needed.
+		 */
+		AGGREGATE
+	}
+
+	private final Mode mode;
+	private final int numColumns;
+	private final double framesPerColumn;
+	private final long skipFrames;
+
+	private final SlidingWindowMax smoother;
+
+	private final double[] points;
+	private final double[] mins;
+	private final double[] maxs;
+	private final double[] rmss;
+
+	private long numFrames;
+
+	private int column;
+	private long columnEnd;
+	private double min;
+	private double max;
+	private double sumSquares;
+	private int count;
+
+	private int pointColumn;
+	private long nextPointFrame;
+
+	/**
+	 * Creates an extractor with all columns empty.
+	 *
+	 * @param mode How columns are reduced to drawn values
+	 * @param numColumns Number of pixel columns to produce
+	 * @param framesPerColumn Number of frames, possibly fractional, covered by each column
+	 * @param skipFrames Number of leading frames that belong to no column
+	 * @param smoothingWindow The window of the sliding max applied before point sampling, or <code>0</code> for no smoothing, ignored when aggregating
+	 */
+	public EnvelopeExtractor(Mode mode, int numColumns, double framesPerColumn, long skipFrames, int smoothingWindow) {
+		this.mode = mode;
+		this.numColumns = numColumns;
+		this.framesPerColumn = framesPerColumn;
+		this.skipFrames = skipFrames;
+
+		if(mode == Mode.POINT) {
+			smoother = smoothingWindow > 0 ? new SlidingWindowMax(smoothingWindow) : null;
+			points = new double[numColumns];
+			rmss = null;
+		}
+		else {
+			smoother = null;
+			points = null;
+			rmss = new double[numColumns];
+		}
+		mins = new double[numColumns];
+		maxs = new double[numColumns];
+
+		numFrames = 0;
+		column = 0;
+		columnEnd = columnStart(1);
+		min = 0;
+		max = 0;
+		sumSquares = 0;
+		count = 0;
+		pointColumn = 0;
+		nextPointFrame = columnStart(0);
+	}
+
+	/**
+	 * Reads up to <code>maxFrames</code> frames from the source, one block at a time, then finishes the extraction.
+	 *
+	 * @param source The samples, already filtered if filtering is desired
+	 * @param maxFrames The largest number of frames to read
+	 * @return Whether the source was read to the end, <code>false</code> if the calling thread was interrupted first
+	 */
+	public boolean extract(DoubleDataSource source, long maxFrames) {
+		double[] block = new double[blockSize];
+		while(numFrames < maxFrames && source.hasMoreData()) {
+			if(Thread.currentThread().isInterrupted()) {
+				return false;
+			}
+			int numRead = source.getData(block, 0, (int)Math.min(block.length, maxFrames - numFrames));
+			if(numRead <= 0) {
+				break;
+			}
+			process(block, 0, numRead);
+		}
+		finish();
+		return true;
+	}
+
+	/**
+	 * Folds the next samples of the stream into the columns.
+	 *
+	 * @param samples Array holding the samples
+	 * @param offset Index of the first sample to use
+	 * @param length Number of samples to use
+	 */
+	public void process(double[] samples, int offset, int length) {
+		if(mode == Mode.POINT) {
+			pointProcess(samples, offset, length);
+		}
+		aggregate(samples, offset, length);
+		numFrames += length;
+	}
+
+	/**
+	 * Treats the stream as ended, completing the last column and the samples held back by smoothing.
+	 */
+	public void finish() {
+		if(smoother != null) {
+			while(smoother.numEmitted() < smoother.numPushed()) {
+				long frame = smoother.numEmitted();
+				pointSample(frame, smoother.flush());
+			}
+		}
+		if(column < numColumns && count > 0) {
+			closeColumn();
+		}
+	}
+
+	/**
+	 * Returns the value drawn for each column, columns past the end of the stream are 0.
+	 *
+	 * In point mode this is the (smoothed) sample at the column's first frame, in aggregate mode it is the column's largest magnitude.
+	 */
+	public double[] getPeaks() {
+		if(mode == Mode.POINT) {
+			return points;
+		}
+		double[] peaks = new double[numColumns];
+		for(int i = 0; i < numColumns; i++) {
+			peaks[i] = Math.max(-mins[i], maxs[i]);
+		}
+		return peaks;
+	}
+
+	/**
+	 * Returns the smallest raw sample of each column, or 0 for columns with no negative samples.
+	 */
+	public double[] getMins() {
+		return mins;
+	}
+
+	/**
+	 * Returns the largest raw sample of each column, or 0 for columns with no positive samples.
+	 */
+	public double[] getMaxs() {
+		return maxs;
+	}
+
+	/**
+	 * Returns the root mean square of each column's raw samples.
+	 *
+	 * @return The RMS values, or <code>null</code> in point mode
+	 */
+	public double[] getRmss() {
+		return rmss;
+	}
+
+	/**
+	 * Folds samples into the raw column statistics, one tight loop per column segment so the inner loop has no branches on column boundaries.
+	 */
+	private void aggregate(double[] samples, int offset, int length) {
+		int i = offset;
+		final int end = offset + length;
+		long frame = numFrames;
+		if(frame < skipFrames) {
+			int toSkip = (int)Math.min(length, skipFrames - frame);
+			i += toSkip;
+			frame += toSkip;
+		}
+		while(i < end && column < numColumns) {
+			if(frame >= columnEnd) {
+				closeColumn();
+				continue;
+			}
+			int segmentEnd = (int)Math.min(end, i + (columnEnd - frame));
+			double segMin = min;
+			double segMax = max;
+			double segSumSquares = sumSquares;
+			for(int j = i; j < segmentEnd; j++) {
+				double sample = samples[j];
+				segMin = Math.min(segMin, sample);
+				segMax = Math.max(segMax, sample);
+				segSumSquares += sample * sample;
+			}
+			min = segMin;
+			max = segMax;
+			sumSquares = segSumSquares;
+			count += segmentEnd - i;
+			frame += segmentEnd - i;
+			i = segmentEnd;
+		}
+	}
+
+	private void pointProcess(double[] samples, int offset, int length) {
+		long frame = numFrames;
+		final int end = offset + length;
+		for(int i = offset; i < end; i++, frame++) {
+			if(smoother == null) {
+				pointSample(frame, samples[i]);
+			}
+			else {
+				double smoothed = smoother.push(samples[i]);
+				if(Double.isNaN(smoothed) == false) {
+					pointSample(smoother.numEmitted() - 1, smoothed);
+				}
+			}
+		}
+	}
+
+	private void pointSample(long frame, double val) {
+		while(frame == nextPointFrame && pointColumn < numColumns) {
+			points[pointColumn] = val;
+			pointColumn++;
+			nextPointFrame = columnStart(pointColumn);
+		}
+	}
+
+	private void closeColumn() {
+		mins[column] = min;
+		maxs[column] = max;
+		if(rmss != null && count > 0) {
+			rmss[column] = Math.sqrt(sumSquares / count);
+		}
+		column++;
+		columnEnd = columnStart(column + 1);
+		min = 0;
+		max = 0;
+		sumSquares = 0;
+		count = 0;
+	}
+
+	private long columnStart(int col) {
+		return skipFrames + (long)(col * framesPerColumn);
+	}
+}
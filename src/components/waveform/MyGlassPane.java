@@ -14,7 +14,6 @@
 
 package components.waveform;
 
-import info.GUIConstants;
 import info.MyColors;
 
 import java.awt.AlphaComposite;
@@ -56,8 +55,6 @@ public class MyGlassPane extends JComponent {
 	private int flashRectangleXPos;
 	private int flashRectangleWidth;
 	
-	private final int flashWidth = (int)(GUIConstants.zoomlessPixelsPerSecond * (ReplayLast200MillisAction.duration / (double)1000));
-
 	private MyGlassPane() {
 		composite = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.25F);
 		flashMode = false;		
@@ -126,6 +123,7 @@ public class MyGlassPane extends JComponent {
 
 	public void flashRectangle() {
 		if((timer != null && timer.isRunning()) == false) {
+			int flashWidth = (int)(WaveformDisplay.pixelsPerSecond() * (ReplayLast200MillisAction.duration / (double)1000));
 			this.flashRectangleXPos = (int)SwingUtilities.convertPoint(WaveformDisplay.getInstance(), WaveformDisplay.getProgressBarXPos() - flashWidth, -1, this).getX();
 			this.flashRectangleWidth = flashWidth;
 			flashMode = true;
@@ -20,21 +20,33 @@ import info.MyShapes;
 import info.SysInfo;
 import info.UserPrefs;
 
-import java.awt.AlphaComposite;
-import java.awt.Composite;
 import java.awt.Graphics2D;
 import java.awt.Image;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.text.DecimalFormat;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 
 import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.UnsupportedAudioFileException;
 
 import control.CurAudio;
+import control.MappedPcmSource;
 import de.dfki.lt.signalproc.filter.BandPassFilter;
 import de.dfki.lt.signalproc.util.AudioDoubleDataSource;
+import de.dfki.lt.signalproc.util.DoubleDataSource;
 
 /**
  * Handler for buffered portions of the waveform image.
@@ -44,42 +56,94 @@ import de.dfki.lt.signalproc.util.AudioDoubleDataSource;
  * 
  * This class aims to keep the current chunk as well as the next/previous chunks (when available) stored in the array.
  * All other members of the array will be null, to save memory.
+ * The display requests chunks with {@link #requestChunks(int, int, int)}, and chunks are built on a small pool of threads,
+ * with {@link WaveformChunkListener WaveformChunkListeners} notified as each one becomes available.
+ * Chunks that leave the array stay in a {@link WaveformChunkCache}, whose size is set by {@link info.UserPrefs#waveformCacheMegabytes}.
+ * 
+ * Chunks are always {@link #chunkWidthInPixels()} wide, so the amount of audio in a chunk depends on the zoom level it was made for.
+ * The array is sized for the zoom level of the latest request, and is replaced when the zoom level changes.
+ * 
+ * Chunk images at zoomless resolution and below are drawn from the audio file's {@link WaveformPyramid}, whose level <code>n</code> has one bin per pixel at zoom level <code>-n</code>.
+ * The pyramid is loaded (or built and cached) in the background when the buffer starts, until it is available chunks are drawn by decoding their audio directly.
+ * Chunks zoomed in past zoomless resolution are always decoded, which reads only a few thousand frames per chunk.
  * 
  * @author Yuvi Masory
  */
 public class WaveformBuffer extends Buffer {
 
-	private final AlphaComposite antiAliasingComposite = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, /* larger is darker */ 0.5F);
+	private static final double preDataSeconds = 0.25;
 
-	private final double preDataSeconds = 0.25;
+	/**
+	 * Number of per-pixel envelopes kept for reuse, across all zoom levels.
+	 */
+	private static final int maxEnvelopes = 64;
 
-	private final int numChunks;
 	private final int chunkWidthInPixels;
 
 	private final double minBand;
 	private final double maxBand;
 
-	private final DecimalFormat secFormat = new DecimalFormat("0.00s");
-
 	private static volatile WaveformChunk[] chunkArray;
 
+	private static volatile WaveformBuffer instance;
+
+	private static final List<WaveformChunkListener> listeners = new CopyOnWriteArrayList<WaveformChunkListener>();
+
 	private volatile boolean finish;
 
-	private int bufferedChunkNum;
-	private int bufferedHeight;
+	private final Object requestLock = new Object();
+	private int requestedChunkNum;
+	private int requestedHeight;
+	private int requestedZoomLevel;
+
+	private final ExecutorService builders;
+	private final WaveformChunkCache cache;
+	private final Map<Integer, Future<?>> pendingJobs = new HashMap<Integer, Future<?>>();
+	private int scheduledHeight;
+	private int scheduledZoomLevel;
 
 	private double biggestConsecutivePixelVals;
 
+	/**
+	 * Height-independent per-pixel amplitudes of the most recently made chunks, keyed by zoom level and chunk number.
+	 * At a few kilobytes a chunk these outlive the chunk images, so changes of height only redo the rasterization.
+	 */
+	private final LinkedHashMap<Long, double[]> envelopes;
+
+	private volatile WaveformPyramid pyramid;
+	private Thread pyramidLoader;
+
 	/**
 	 * Creates a buffer thread using the audio information that <code>CurAudio</code> provides at the time the constructor runs.
 	 */
 	public WaveformBuffer() {
 		finish = false;
-		numChunks = CurAudio.lastChunkNum() + 1;
-		chunkWidthInPixels = GUIConstants.zoomlessPixelsPerSecond * SysInfo.sys.chunkSizeInSeconds;
-		chunkArray = new WaveformChunk[numChunks];
-		bufferedChunkNum = -1;
-		bufferedHeight = -1;
+		chunkWidthInPixels = chunkWidthInPixels();
+		chunkArray = new WaveformChunk[numChunks(0)];
+		envelopes = new LinkedHashMap<Long, double[]>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, double[]> eldest) {
+				return size() > maxEnvelopes;
+			}
+		};
+		requestedChunkNum = -1;
+		requestedHeight = -1;
+		requestedZoomLevel = 0;
+		scheduledHeight = -1;
+		scheduledZoomLevel = 0;
+
+		//one thread for the current chunk and one for each neighbor, when there are cores for them
+		int numBuilders = Math.max(1, Math.min(3, Runtime.getRuntime().availableProcessors()));
+		builders = Executors.newFixedThreadPool(numBuilders, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "WaveformChunkBuilder");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+		long cacheMegabytes = Math.max(0, UserPrefs.prefs.getInt(UserPrefs.waveformCacheMegabytes, UserPrefs.defaultWaveformCacheMegabytes));
+		cache = new WaveformChunkCache(cacheMegabytes * 1024 * 1024);
 
 		//bandpass filter ranges
 		double minPref = UserPrefs.prefs.getInt(UserPrefs.minBandPass,UserPrefs.defaultMinBandPass);
@@ -110,51 +174,52 @@ public class WaveformBuffer extends Buffer {
 			System.err.println(message);
 		}
 		minBand = tmpMinBand;
-		maxBand = tmpMaxBand;	
+		maxBand = tmpMaxBand;
+
+		instance = this;
 	}
 
 	/**
-	 * Monitors audio position and makes sure buffers are maintained for the current audio chunk along with the previous and next (if available).
+	 * Waits for chunk requests and schedules the building of the requested chunk along with the previous and next (if available).
+	 * 
+	 * The requested chunk is submitted first, its neighbors are built in parallel by the remaining builder threads.
+	 * Jobs for chunks that are no longer needed when a new request arrives are cancelled.
 	 */
 	@Override
 	public void run() {
-		while(finish == false) {
-			final int curChunkNum = CurAudio.lookupChunkNum((int) CurAudio.getAudioProgress());
-			final int curHeight = WaveformDisplay.height();
+		pyramidLoader = new PyramidLoader(new File(CurAudio.getCurrentAudioFileAbsolutePath()));
+		pyramidLoader.start();
 
-			if(bufferedChunkNum < 0 || bufferedHeight <= 0) {
-				//first run
-				populateChunks(curChunkNum, curHeight);
-			}
-			else if(curHeight != bufferedHeight) {
-				populateChunks(curChunkNum, curHeight);
-			}
-			else if(curChunkNum != bufferedChunkNum) {
-				if(Math.abs(curChunkNum - bufferedChunkNum) == 1) {
-					intelligentlyPopulateChunks(bufferedChunkNum, curChunkNum, curHeight);
-				}
-				else {
-					populateChunks(curChunkNum, curHeight);
+		int scheduledChunkNum = -1;
+		while(finish == false) {
+			int curChunkNum;
+			int curHeight;
+			int curZoomLevel;
+			synchronized(requestLock) {
+				while(finish == false && requestedChunkNum == scheduledChunkNum && requestedHeight == scheduledHeight && requestedZoomLevel == scheduledZoomLevel) {
+					try {
+						requestLock.wait();
+					}
+					catch(InterruptedException e) {
+						e.printStackTrace();
+					}
 				}
+				curChunkNum = requestedChunkNum;
+				curHeight = requestedHeight;
+				curZoomLevel = requestedZoomLevel;
 			}
-			else {
-				//nothing has changed, nothing to do
-			}
-
-			bufferedChunkNum = curChunkNum;
-			bufferedHeight = curHeight;
-
-			try {
-				Thread.sleep(25); 
-			}
-			catch(InterruptedException e) {
-				e.printStackTrace();
+			if(finish) {
+				break;
 			}
+			scheduleChunks(curChunkNum, curHeight, curZoomLevel);
+			scheduledChunkNum = curChunkNum;
 		}
 
+		builders.shutdownNow();
 		for (int i = 0; i < chunkArray.length; i++) {
 			chunkArray[i] = null;
 		}
+		cache.clear();
 	}
 
 	/**
@@ -169,62 +234,132 @@ public class WaveformBuffer extends Buffer {
 	}
 
 	/**
-	 * {@inheritDoc}
+	 * Returns the chunk cache of the running buffer, whose hit, miss and eviction counts show how well {@link info.UserPrefs#waveformCacheMegabytes} fits the way the audio is browsed.
+	 *
+	 * @return The running buffer's cache, or <code>null</code> if no buffer is running
 	 */
-	@Override	
-	public void finish() {
-		finish = true;
+	public static WaveformChunkCache getCache() {
+		WaveformBuffer buffer = instance;
+		return buffer == null ? null : buffer.cache;
+	}
+
+	/**
+	 * Returns the width of every chunk's image, which is the width of a chunk at zoomless resolution.
+	 * 
+	 * @return The chunk width, in pixels
+	 */
+	public static int chunkWidthInPixels() {
+		return GUIConstants.zoomlessPixelsPerSecond * SysInfo.sys.chunkSizeInSeconds;
 	}
 
 	/**
-	 * Called when there is reason to believe that some of the currently stored <code>WaveformCunks</code> will still be needed even after the chunk number update is processed.
+	 * Asks the running buffer to make the provided chunk, and its neighbors, available at the provided height and zoom level.
 	 * 
-	 * |lastChunkNum - curChunkNum| = 1
+	 * Returns immediately, and does nothing if the same request was already made.
+	 * Listeners are notified as each chunk becomes available.
 	 * 
-	 * @param lastChunkNum The chunk number for which the chunk array is already valid
-	 * @param curChunkNum The new chunk number that the chunk array needs to be updated for
-	 * @param curHeight The height of the image to be made
+	 * @param chunkNum The chunk number the display is currently showing, counted in chunks of the provided zoom level
+	 * @param height The height of the display, in pixels
+	 * @param zoomLevel The zoom level of the display, as in {@link WaveformDisplay#pixelsPerSecond(int)}
 	 */
-	private void intelligentlyPopulateChunks(int lastChunkNum, int curChunkNum, int curHeight) {
-		if(lastChunkNum < curChunkNum) {
-			if(curChunkNum - 2 >= 0) {
-				chunkArray[curChunkNum - 2] = null;
-			}
-			if(curChunkNum + 1 <= chunkArray.length - 1) {
-				chunkArray[curChunkNum + 1] = new WaveformChunk(curChunkNum + 1, curHeight);
-			}
+	public static void requestChunks(int chunkNum, int height, int zoomLevel) {
+		WaveformBuffer buffer = instance;
+		if(buffer == null || height <= 0) {
+			return;
 		}
-		else {
-			if(curChunkNum + 2 <= chunkArray.length - 1) {
-				chunkArray[curChunkNum + 2] = null;
-			}
-			if(curChunkNum - 1 >= 0) {
-				chunkArray[curChunkNum - 1] = new WaveformChunk(curChunkNum - 1, curHeight);
+		synchronized(buffer.requestLock) {
+			if(chunkNum != buffer.requestedChunkNum || height != buffer.requestedHeight || zoomLevel != buffer.requestedZoomLevel) {
+				buffer.requestedChunkNum = chunkNum;
+				buffer.requestedHeight = height;
+				buffer.requestedZoomLevel = zoomLevel;
+				buffer.requestLock.notifyAll();
 			}
 		}
 	}
 
 	/**
-	 * Called when the waveform chunk array will need to be revalidated from scratch.
+	 * Registers a listener for chunk availability.
+	 * 
+	 * Listeners stay registered across audio files.
+	 * 
+	 * @param listener The listener to be notified
+	 */
+	public static void addChunkListener(WaveformChunkListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Unregisters a listener added with {@link #addChunkListener(WaveformChunkListener)}.
+	 * 
+	 * @param listener The listener to remove
+	 */
+	public static void removeChunkListener(WaveformChunkListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override	
+	public void finish() {
+		finish = true;
+		if(instance == this) {
+			instance = null;
+		}
+		synchronized(requestLock) {
+			requestLock.notifyAll();
+		}
+		builders.shutdownNow();
+		if(pyramidLoader != null) {
+			pyramidLoader.interrupt();
+		}
+	}
+
+	/**
+	 * Makes sure the current chunk and its neighbors are built or being built, and that nothing else is.
 	 * 
-	 * Disposes of any data currently in the chunk array.
+	 * Chunks already stored at the right height are kept, so moving to an adjacent chunk only builds one new chunk.
+	 * Chunks that were viewed recently are taken from the cache rather than built again.
+	 * A change of zoom level replaces the whole array, since chunk numbers mean different audio at each level.
 	 * 
 	 * @param curChunkNum The chunk number that the chunk array needs to be updated for
 	 * @param curHeight The height of the image to be made
+	 * @param curZoomLevel The zoom level of the image to be made
 	 */
-	private void populateChunks(int curChunkNum, int curHeight) {
+	private void scheduleChunks(int curChunkNum, int curHeight, int curZoomLevel) {
+		//cancel jobs that are finished, no longer needed, or making images of the wrong height or zoom level
+		boolean zoomChanged = curZoomLevel != scheduledZoomLevel;
+		Iterator<Map.Entry<Integer, Future<?>>> it = pendingJobs.entrySet().iterator();
+		while(it.hasNext()) {
+			Map.Entry<Integer, Future<?>> entry = it.next();
+			if(entry.getValue().isDone()) {
+				it.remove();
+			}
+			else if(Math.abs(entry.getKey() - curChunkNum) > 1 || curHeight != scheduledHeight || zoomChanged) {
+				entry.getValue().cancel(true);
+				it.remove();
+			}
+		}
+		scheduledHeight = curHeight;
+		scheduledZoomLevel = curZoomLevel;
+
 		//free resources
-		for(int i = 0; i < chunkArray.length; i++) {
-			chunkArray[i] = null;
+		synchronized(requestLock) {
+			if(zoomChanged) {
+				chunkArray = new WaveformChunk[numChunks(curZoomLevel)];
+			}
+			for(int i = 0; i < chunkArray.length; i++) {
+				if(Math.abs(i - curChunkNum) > 1) {
+					chunkArray[i] = null;
+				}
+			}
 		}
-		//fill current chunk
-		chunkArray[curChunkNum] = new WaveformChunk(curChunkNum, curHeight);
 
 		int firstPriority;
 		int secondPriority;
 
-		long lastFrame = CurAudio.lastFrameOfChunk(curChunkNum - 1);
-		if(lastFrame >= 0 && WaveformDisplay.frameToDisplayXPixel(lastFrame) >= 0) {
+		long lastFrame = firstFrameOfChunk(curChunkNum, curZoomLevel) - 1;
+		if(curChunkNum > 0 && WaveformDisplay.frameToDisplayXPixel(lastFrame) >= 0) {
 			firstPriority = curChunkNum - 1;
 			secondPriority = curChunkNum + 1;
 		}
@@ -233,14 +368,203 @@ public class WaveformBuffer extends Buffer {
 			secondPriority = curChunkNum - 1;
 		}
 
-		//fill first priority chunk, if it exists
-		if(firstPriority >= 0 && firstPriority <= chunkArray.length - 1) {
-			chunkArray[firstPriority] = new WaveformChunk(firstPriority, curHeight);
+		//the current chunk goes first, so it is the first to get a thread
+		int[] wanted = {curChunkNum, firstPriority, secondPriority};
+		for(int chunkNum: wanted) {
+			if(chunkNum < 0 || chunkNum > chunkArray.length - 1) {
+				continue;
+			}
+			WaveformChunk existing = chunkArray[chunkNum];
+			if(existing != null && existing.getHeight() == curHeight) {
+				continue;
+			}
+			if(pendingJobs.containsKey(chunkNum)) {
+				continue;
+			}
+			WaveformChunk cached = cache.get(curZoomLevel, chunkNum, curHeight);
+			if(cached != null) {
+				publish(cached);
+				continue;
+			}
+			try {
+				pendingJobs.put(chunkNum, builders.submit(new ChunkJob(chunkNum, curHeight, curZoomLevel)));
+			}
+			catch(RejectedExecutionException e) {
+				//buffer is finishing
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Builds one chunk, then stores it and notifies listeners if it is still wanted.
+	 */
+	private class ChunkJob implements Runnable {
+
+		private final int chunkNum;
+		private final int height;
+		private final int zoomLevel;
+
+		private ChunkJob(int chunkNum, int height, int zoomLevel) {
+			this.chunkNum = chunkNum;
+			this.height = height;
+			this.zoomLevel = zoomLevel;
+		}
+
+		public void run() {
+			WaveformChunk chunk = new WaveformChunk(chunkNum, height, zoomLevel);
+			if(Thread.currentThread().isInterrupted()) {
+				return;
+			}
+			cache.put(chunk);
+			publish(chunk);
+		}
+	}
+
+	/**
+	 * Stores a chunk in the chunk array and notifies listeners, unless the display has moved on since the chunk was scheduled.
+	 * 
+	 * @param chunk The chunk to make available
+	 */
+	private void publish(WaveformChunk chunk) {
+		synchronized(requestLock) {
+			if(finish || Math.abs(chunk.getNum() - requestedChunkNum) > 1 || chunk.getHeight() != requestedHeight || chunk.getZoomLevel() != requestedZoomLevel) {
+				return;
+			}
+			if(chunk.getNum() >= chunkArray.length || chunk.getZoomLevel() != scheduledZoomLevel) {
+				//array has not been replaced for the new zoom level yet
+				return;
+			}
+			chunkArray[chunk.getNum()] = chunk;
+		}
+		for(WaveformChunkListener listener: listeners) {
+			listener.chunkReady(chunk);
+		}
+	}
+
+	/**
+	 * Determines the value drawn at full height, the first time a chunk is made.
+	 * 
+	 * Larger values might exist in the audio, but over intervals too short to be be visualized (0 pixels), or meaningfully visualized (1 pixel).
+	 * This technique is inappropriate unless the values we are working on have already been smoothed.
+	 * We exclude the first half second of audio data due to the loud beep that often starts psychology experiments.
+	 * 
+	 * @param valsToDraw The values of the first chunk to be made
+	 * @param pixelsPerSecond The pixels per second the values were made for
+	 * @return The largest value that 2 consecutive pixels will actually draw at
+	 */
+	private synchronized double getBiggestConsecutivePixelVals(double[] valsToDraw, double pixelsPerSecond) {
+		if(biggestConsecutivePixelVals <= 0) {
+			double consecutiveVals;
+			for(int i = (int)(pixelsPerSecond/2); i < valsToDraw.length - 1; i++) {
+				consecutiveVals = Math.min(valsToDraw[i], valsToDraw[i + 1]);
+				biggestConsecutivePixelVals = Math.max(consecutiveVals, biggestConsecutivePixelVals);
+			}
+		}
+		return biggestConsecutivePixelVals;
+	}
+
+	/**
+	 * Returns the number of audio frames covered by one pixel at the provided zoom level, possibly fractional.
+	 */
+	private static double framesPerPixel(int zoomLevel) {
+		return framesPerPixel(zoomLevel, CurAudio.getMaster().frameRate());
+	}
+
+	/**
+	 * Returns the number of audio frames covered by one pixel at the provided zoom level and frame rate, possibly fractional.
+	 */
+	public static double framesPerPixel(int zoomLevel, double frameRate) {
+		return frameRate / WaveformDisplay.pixelsPerSecond(zoomLevel);
+	}
+
+	/**
+	 * Returns the first frame drawn in the provided chunk at the provided zoom level.
+	 * 
+	 * At zoom level 0 this is <code>CurAudio.firstFrameOfChunk(chunkNum)</code>.
+	 */
+	private static long firstFrameOfChunk(int chunkNum, int zoomLevel) {
+		return firstFrameOfChunk(chunkNum, zoomLevel, CurAudio.getMaster().frameRate());
+	}
+
+	/**
+	 * Returns the first frame drawn in the provided chunk at the provided zoom level and frame rate.
+	 */
+	public static long firstFrameOfChunk(int chunkNum, int zoomLevel, double frameRate) {
+		return (long)((long)chunkNum * chunkWidthInPixels() * framesPerPixel(zoomLevel, frameRate));
+	}
+
+	/**
+	 * Returns the number of frames decoded before a chunk's first frame, so that the bandpass filter and smoothing settle before the first column.
+	 * 
+	 * The lead-in never reaches before the start of the audio, so that chunks starting less than a lead-in into the file, as many do when zoomed in, are not drawn shifted.
+	 * 
+	 * @param chunkNum The chunk
+	 * @param zoomLevel The zoom level of the chunk
+	 * @param frameRate The frame rate of the audio
+	 * @return The number of lead-in frames, <code>0</code> for the first chunk
+	 */
+	public static int leadInFrames(int chunkNum, int zoomLevel, double frameRate) {
+		if(chunkNum <= 0) {
+			return 0;
+		}
+		return (int)Math.min((long)(frameRate * preDataSeconds), firstFrameOfChunk(chunkNum, zoomLevel, frameRate));
+	}
+
+	/**
+	 * Returns the number of chunks needed to draw all of the audio at the provided zoom level.
+	 */
+	private static int numChunks(int zoomLevel) {
+		double widthInPixels = CurAudio.getMaster().durationInSeconds() * WaveformDisplay.pixelsPerSecond(zoomLevel);
+		return Math.max(1, (int)Math.ceil(widthInPixels / chunkWidthInPixels()));
+	}
+
+	/**
+	 * Loads the cached <code>WaveformPyramid</code> of the audio file, building and caching it first if necessary.
+	 *
+	 * Chunks made before the pyramid is available decode their audio directly.
+	 */
+	private class PyramidLoader extends Thread {
+
+		private final File audioFile;
+		private final MappedPcmSource pcm;
+
+		private PyramidLoader(File audioFile) {
+			this.audioFile = audioFile;
+			this.pcm = CurAudio.getMaster().getPcmSource();
+			setDaemon(true);
+			setPriority(Thread.MIN_PRIORITY);
 		}
 
-		//fill second priority chunk, if it exists
-		if(secondPriority >= 0 && secondPriority <= chunkArray.length - 1) {
-			chunkArray[secondPriority] = new WaveformChunk(secondPriority, curHeight);
+		@Override
+		public void run() {
+			WaveformPyramid loaded = WaveformPyramid.load(audioFile, minBand, maxBand, SysInfo.sys.bandpassFilter);
+			if(loaded == null) {
+				try {
+					if(pcm != null) {
+						loaded = WaveformPyramid.build(pcm, minBand, maxBand, SysInfo.sys.bandpassFilter);
+					}
+					else {
+						loaded = WaveformPyramid.build(audioFile, minBand, maxBand, SysInfo.sys.bandpassFilter);
+					}
+				}
+				catch(IOException e) {
+					e.printStackTrace();
+				}
+				catch(UnsupportedAudioFileException e) {
+					e.printStackTrace();
+				}
+				if(loaded == null) {
+					return;
+				}
+				try {
+					loaded.save(audioFile, minBand, maxBand, SysInfo.sys.bandpassFilter);
+				}
+				catch(IOException e) {
+					System.err.println("could not cache waveform: " + e.getMessage());
+				}
+			}
+			pyramid = loaded;
 		}
 	}
 
@@ -250,157 +574,111 @@ public class WaveformBuffer extends Buffer {
 	public class WaveformChunk {
 
 		private final int myNum;
+		private final int myHeight;
+		private final int myZoomLevel;
 		private final Image image;
 
 		/**
 		 * Creates the <code>Image</code> of a chunk of waveform.
 		 * 
+		 * Production has two stages: the chunk's height-independent envelope, which is reused if it was made before,
+		 * and the rasterization of that envelope at the requested height.
+		 * 
 		 * @param chunkNum The chunk number whose image will be created
 		 * @param height The height of the image
+		 * @param zoomLevel The zoom level of the image
 		 */
-		private WaveformChunk(int chunkNum, int height) {
-			myNum = chunkNum;			
-
-			double[] valsToDraw = getValsToDraw(chunkNum);
-			if(biggestConsecutivePixelVals <= 0) {
-				//determine yScale by finding largest value that 2 consecutive pixels will actually draw at
-				//larger values might exist in the audio, but over intervals too short to be be visualized (0 pixels), or meaningfully visualized (1 pixel)
-				//this technique is inappropriate unless the values we are working on have already been smoothed
-				//we exclude the first half second of audio data due to the loud beep that often starts psychology experiments
-				double consecutiveVals;
-				for(int i = GUIConstants.zoomlessPixelsPerSecond/2; i < valsToDraw.length - 1; i++) {
-					consecutiveVals = Math.min(valsToDraw[i], valsToDraw[i + 1]);
-					biggestConsecutivePixelVals = Math.max(consecutiveVals, biggestConsecutivePixelVals);
-				}
+		private WaveformChunk(int chunkNum, int height, int zoomLevel) {
+			myNum = chunkNum;
+			myHeight = height;
+			myZoomLevel = zoomLevel;
+			double pixelsPerSecond = WaveformDisplay.pixelsPerSecond(zoomLevel);
 
-			}
+			double[] valsToDraw = getEnvelope(chunkNum, zoomLevel);
 
 			//determine yScale for the current component height
-			double yScale = ((height/2) - 1)/(biggestConsecutivePixelVals);
+			double yScale = ((height/2) - 1)/(getBiggestConsecutivePixelVals(valsToDraw, pixelsPerSecond));
 			if(Double.isInfinite(yScale) || Double.isNaN(yScale)) {
 				System.err.println("yScale is infinite in magnitude, or not a number, using 0 instead");
 				yScale = 0;
 			}
 
-			image = WaveformDisplay.getInstance().createImage(chunkWidthInPixels, height);
-			Graphics2D g2d = (Graphics2D)image.getGraphics();
+			BufferedImage raster = WaveformRasterizer.createImage(chunkWidthInPixels, height);
+			WaveformRasterizer rasterizer = new WaveformRasterizer(raster);
+			rasterizer.fill(MyColors.waveformBackground);
+			rasterizer.drawHorizontalLine(height/2, MyColors.waveformReferenceLineColor); //draw reference line
 
+			//draw seconds line, with a format of our own since chunks are made in parallel
+			Graphics2D g2d = raster.createGraphics();
 			g2d.setRenderingHints(MyShapes.getRenderingHints());
-			g2d.setColor(MyColors.waveformBackground);
-			g2d.fillRect(0, 0, chunkWidthInPixels, height); //fill in background color
-			g2d.setColor(MyColors.waveformReferenceLineColor);
-			g2d.drawLine(0, height/2, chunkWidthInPixels, height/2); //draw reference line			
-
-			//draw seconds line
-			double counter = CurAudio.getMaster().framesToSec(CurAudio.firstFrameOfChunk(myNum)); //this works because buffer size is in whole seconds
-			for(int i = 0; i < chunkWidthInPixels; i+= GUIConstants.zoomlessPixelsPerSecond) {
-				g2d.setColor(MyColors.waveformScaleLineColor);
-				g2d.drawLine(i, 0, i, height - 1);
-				if(SysInfo.sys.doubleDraw) {
-					g2d.drawLine(i, 0, i, height - 1);
+			double secondsPerLine = secondsPerScaleLine(pixelsPerSecond);
+			DecimalFormat secFormat = new DecimalFormat(secondsPerLine < 0.01 ? "0.000s" : "0.00s");
+			long chunkStartX = (long)myNum * chunkWidthInPixels;
+			for(long line = (long)Math.ceil(chunkStartX / (pixelsPerSecond * secondsPerLine)); ; line++) {
+				double seconds = line * secondsPerLine;
+				int i = (int)(Math.round(seconds * pixelsPerSecond) - chunkStartX);
+				if(i >= chunkWidthInPixels) {
+					break;
 				}
+				rasterizer.drawVerticalLine(i, MyColors.waveformScaleLineColor);
 				g2d.setColor(MyColors.waveformScaleTextColor);
-				g2d.drawString(secFormat.format(counter), i + 5, height - 5);
-				counter++;
+				g2d.drawString(secFormat.format(seconds), i + 5, height - 5);
 			}
+			g2d.dispose();
 
-			//actually draw the waveform (~5ms)
-			g2d.setColor(MyColors.firstChannelWaveformColor);
-			int topY;
-			int bottomY;
-			final int refLinePos = height/2;
-			for(int i = 0; i < valsToDraw.length; i++) {
-				//apply yScale
-				double scaledSample = valsToDraw[i] * yScale;
-
-				//separately find wave position above and below reference line, in case we support stereo audio display in the future
-				topY = (int)(refLinePos - scaledSample);
-				bottomY = (int)(refLinePos + scaledSample);
-
-				if(SysInfo.sys.antiAliasWaveform) {
-					Composite originalAc = g2d.getComposite();
-					g2d.setComposite(antiAliasingComposite);
-					g2d.drawLine(i + 1, refLinePos, i + 1, topY);
-					g2d.drawLine(i + 1, refLinePos, i + 1, bottomY);
-					g2d.setComposite(originalAc);
-				}
-				g2d.drawLine(i, refLinePos, i, topY);
-				g2d.drawLine(i, refLinePos, i, bottomY);
-				if(SysInfo.sys.doubleDraw) {
-					g2d.drawLine(i, refLinePos, i, topY);
-					g2d.drawLine(i, refLinePos, i, bottomY);
+			//actually draw the waveform, straight into the image's pixels
+			rasterizer.drawWaveform(valsToDraw, yScale, MyColors.firstChannelWaveformColor, SysInfo.sys.antiAliasWaveform);
+			image = raster;
+		}
+
+		/**
+		 * Returns the spacing of the seconds lines, the shortest of 1, 2 or 5 times a power of ten seconds that leaves the lines as far apart as at zoomless resolution.
+		 */
+		private double secondsPerScaleLine(double pixelsPerSecond) {
+			double minSeconds = GUIConstants.zoomlessPixelsPerSecond / pixelsPerSecond;
+			double power = Math.pow(10, Math.floor(Math.log10(minSeconds)));
+			double[] multiples = {1, 2, 5, 10};
+			for(double multiple: multiples) {
+				//small tolerance so that exact powers of ten aren't lost to rounding
+				if(multiple * power >= minSeconds * (1 - 1e-9)) {
+					return multiple * power;
 				}
 			}
+			return 10 * power;
 		}
 
-		private double[] getValsToDraw(int chunkNum) {			
-			//get samples from audio file (~1ms)
-			AudioInputStream ais = null;
-			try {
-				ais = AudioSystem.getAudioInputStream(new File(CurAudio.getCurrentAudioFileAbsolutePath()));
-			} catch (UnsupportedAudioFileException e) {
-				e.printStackTrace();
-			} catch (IOException e) {
-				e.printStackTrace();
+		/**
+		 * Returns the per-pixel amplitudes of the chunk, making them only if no recent chunk with the same number and zoom level did.
+		 * 
+		 * The returned array is shared and must not be modified.
+		 */
+		private double[] getEnvelope(int chunkNum, int zoomLevel) {
+			Long key = ((long)zoomLevel << 32) | (chunkNum & 0xFFFFFFFFL);
+			synchronized(envelopes) {
+				double[] envelope = envelopes.get(key);
+				if(envelope != null) {
+					return envelope;
+				}
 			}
-			int preDataSizeInFrames = 0;
-			long toSkip = (long)(chunkNum * SysInfo.sys.chunkSizeInSeconds * CurAudio.getMaster().frameRate() * (CurAudio.getMaster().frameSizeInBytes()));
-			if(chunkNum > 0) {			
-				preDataSizeInFrames = (int)(CurAudio.getMaster().frameRate() * preDataSeconds);
-				toSkip -= (preDataSizeInFrames * (CurAudio.getMaster().frameSizeInBytes()));
+			double[] envelope = getValsToDraw(chunkNum, zoomLevel);
+			if(Thread.currentThread().isInterrupted()) {
+				//cancelled part way through, don't keep a partial envelope
+				return envelope;
 			}
-			long skipped = -1;
-			try {
-				skipped = ais.skip(toSkip);
-			} catch (IOException e) {
-				e.printStackTrace();
+			synchronized(envelopes) {
+				envelopes.put(key, envelope);
 			}
-			if(toSkip != skipped) {
-				System.err.println("skipped " + skipped + " instead of " + toSkip);
-			}
-			AudioDoubleDataSource adds = new AudioDoubleDataSource(ais);
+			return envelope;
+		}
 
-			//bandpass filter (~50ms)			
-			BandPassFilter filter = new BandPassFilter(minBand, maxBand);
-			double[] samples = new double[(int) (CurAudio.getMaster().frameRate() * SysInfo.sys.chunkSizeInSeconds) + preDataSizeInFrames];
-			int numSamplesLeft = adds.available();
-			
-			if(SysInfo.sys.bandpassFilter) {
-				filter.apply(adds).getData(samples);
+		private double[] getValsToDraw(int chunkNum, int zoomLevel) {
+			double[] valsToDraw;
+			WaveformPyramid curPyramid = pyramid;
+			if(curPyramid != null && zoomLevel <= 0) {
+				valsToDraw = getPyramidVals(curPyramid, chunkNum, -zoomLevel);
 			}
 			else {
-				adds.getData(samples);
-			}
-
-			//make the waveform prettier by smoothing the audio data (~60ms)
-			if(SysInfo.sys.useAudioDataSmoothingForWaveform) {
-				double[] copy = new double[samples.length];
-				System.arraycopy(samples, 0, copy, 0, copy.length);
-				final int window = 20;
-				double biggestInWindow;
-				int start;
-				int end;
-				for(int i = 0; i < samples.length; i++) {
-					biggestInWindow = 0;
-					start = Math.max(0, i - window);
-					end = Math.min(samples.length, i + window);
-					for(int j = start; j < end; j++) {
-						biggestInWindow = Math.max(biggestInWindow, Math.abs(copy[j]));
-					}
-					samples[i] = biggestInWindow;
-				}
-				copy = null;
-			}
-
-			//extract some of the samples for representation as pixels
-			double[] valsToDraw = new double[chunkWidthInPixels];
-			final double sampleIncrement = (samples.length - preDataSizeInFrames) / (double)(valsToDraw.length);
-			for(int i = 0; i < valsToDraw.length; i++) {
-				int index = (int) (i * sampleIncrement) + preDataSizeInFrames;
-				if(index > numSamplesLeft - 1) {
-					break;
-				}
-				valsToDraw[i] = samples[index];
+				valsToDraw = decodeVals(chunkNum, zoomLevel);
 			}
 
 			if(SysInfo.sys.useWaveformImageDataSmoothing) {
@@ -429,15 +707,94 @@ public class WaveformBuffer extends Buffer {
 			return valsToDraw;
 		}
 
+		/**
+		 * Reads the peak of each pixel column from the level of the pyramid with one bin per pixel at the provided zoom out level.
+		 * 
+		 * Past the pyramid's coarsest level, each column takes the largest peak of the coarsest bins it covers.
+		 */
+		private double[] getPyramidVals(WaveformPyramid curPyramid, int chunkNum, int level) {
+			double[] valsToDraw = new double[chunkWidthInPixels];
+			int coarsest = curPyramid.numLevels() - 1;
+			int pyramidLevel = Math.min(level, coarsest);
+			long binsPerColumn = 1L << (level - pyramidLevel);
+			long firstBin = (long)chunkNum * chunkWidthInPixels * binsPerColumn;
+			int numBins = curPyramid.numBins(pyramidLevel);
+			for(int i = 0; i < valsToDraw.length; i++) {
+				long start = firstBin + i * binsPerColumn;
+				long end = Math.min(numBins, start + binsPerColumn);
+				double peak = 0;
+				for(long bin = start; bin < end; bin++) {
+					peak = Math.max(peak, curPyramid.getPeak(pyramidLevel, (int)bin));
+				}
+				valsToDraw[i] = peak;
+			}
+			return valsToDraw;
+		}
 
 		/**
-		 * In keeping with the Java API's recommendation, calls <code>Graphics.dispose()</code> on the stored image's <code>Graphics</code> context.
+		 * Decodes, filters and smooths the chunk's audio, for chunks zoomed in past zoomless resolution and for use until the pyramid is available.
+		 * 
+		 * Samples are streamed through an {@link EnvelopeExtractor} a block at a time, so memory use does not grow with the chunk size.
+		 * Only zoomless chunks use the configured point sampling, whose smoothing window is sized for zoomless resolution, other zoom levels take each column's true peak.
 		 */
-		@Override
-		public void finalize() {
-			image.getGraphics().dispose();
+		private double[] decodeVals(int chunkNum, int zoomLevel) {
+			int preDataSizeInFrames = leadInFrames(chunkNum, zoomLevel, CurAudio.getMaster().frameRate());
+			final double sampleIncrement = framesPerPixel(zoomLevel);
+			long firstFrame = firstFrameOfChunk(chunkNum, zoomLevel);
+			long numFramesToRead = firstFrameOfChunk(chunkNum + 1, zoomLevel) - firstFrame + preDataSizeInFrames;
+			DoubleDataSource adds = openSamples(firstFrame - preDataSizeInFrames, numFramesToRead);
+
+			//only frames actually in the audio are drawn, not the tail the filter adds
+			int numSamplesLeft = adds.available();
+
+			//bandpass filter (~50ms)
+			if(SysInfo.sys.bandpassFilter) {
+				adds = new BandPassFilter(minBand, maxBand).apply(adds);
+			}
+
+			//stream the samples into pixel columns, either taking each column's true peak,
+			//or point sampling after smoothing to make the waveform prettier
+			EnvelopeExtractor.Mode mode = SysInfo.sys.aggregateWaveformColumns || zoomLevel != 0 ? EnvelopeExtractor.Mode.AGGREGATE : EnvelopeExtractor.Mode.POINT;
+			int smoothingWindow = SysInfo.sys.useAudioDataSmoothingForWaveform ? SysInfo.sys.audioDataSmoothingWindow : 0;
+			EnvelopeExtractor extractor = new EnvelopeExtractor(mode, chunkWidthInPixels, sampleIncrement, preDataSizeInFrames, smoothingWindow);
+			extractor.extract(adds, Math.min(numFramesToRead, numSamplesLeft));
+			double[] valsToDraw = extractor.getPeaks();
+
+			return valsToDraw;
+		}
+
+		/**
+		 * Opens the audio samples starting at the provided frame, using the memory-mapped samples when possible.
+		 */
+		private DoubleDataSource openSamples(long startFrame, long numFrames) {
+			MappedPcmSource pcm = CurAudio.getMaster().getPcmSource();
+			if(pcm != null) {
+				return pcm.asDoubleDataSource(startFrame, numFrames);
+			}
+
+			//get samples from audio file (~1ms)
+			AudioInputStream ais = null;
+			try {
+				ais = AudioSystem.getAudioInputStream(new File(CurAudio.getCurrentAudioFileAbsolutePath()));
+			} catch (UnsupportedAudioFileException e) {
+				e.printStackTrace();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			long toSkip = startFrame * CurAudio.getMaster().frameSizeInBytes();
+			long skipped = -1;
+			try {
+				skipped = ais.skip(toSkip);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			if(toSkip != skipped) {
+				System.err.println("skipped " + skipped + " instead of " + toSkip);
+			}
+			return new AudioDoubleDataSource(ais);
 		}
 
+
 		/**
 		 * Getter for the chunk number of this part of the waveform.
 		 * 
@@ -456,12 +813,30 @@ public class WaveformBuffer extends Buffer {
 			return image;
 		}
 
+		/**
+		 * Getter for the zoom level the chunk's image was made for.
+		 * 
+		 * @return The zoom level, as in {@link WaveformDisplay#pixelsPerSecond(int)}
+		 */
+		public int getZoomLevel() {
+			return myZoomLevel;
+		}
+
+		/**
+		 * Getter for the height the chunk's image was made for.
+		 * 
+		 * @return The height of the image, in pixels
+		 */
+		public int getHeight() {
+			return myHeight;
+		}
+
 		/**
 		 * {@inheritDoc}
 		 */
 		@Override
 		public String toString() {
-			return "WaveformChunk #" + myNum;
+			return "WaveformChunk #" + myNum + " at zoom level " + myZoomLevel;
 		}
 	}
 }
@@ -0,0 +1,158 @@
+//    This file is part of Penn TotalRecall <http://memory.psych.upenn.edu/TotalRecall>.
+//
+//    TotalRecall is free software: you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation, version 3 only.
+//
+//    TotalRecall is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with TotalRecall.  If not, see <http://www.gnu.org/licenses/>.
+
+package components.waveform;
+
+import java.text.DecimalFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import components.waveform.WaveformBuffer.WaveformChunk;
+
+/**
+ * Least-recently-used store of rendered <code>WaveformChunks</code>, bounded by an estimate of the memory their images use.
+ *
+ * Lets chunks that have scrolled out of the three-chunk window survive jumps, so returning to a recently viewed part of the audio does not re-render it.
+ * Chunks are keyed by zoom level as well as chunk number, so zooming back to a recent level is also served from the cache.
+ * Keeps hit, miss and eviction counts so the budget can be sized to the workstation.
+ *
+ * All methods are synchronized, since chunks are stored by the builder threads and looked up by the buffer thread.
+ *
+ * @author Yuvi Masory
+ */
+public class WaveformChunkCache {
+
+	/**
+	 * Estimated bytes per pixel of a chunk image, which is normally an int-packed RGB raster.
+	 */
+	private static final int bytesPerPixel = 4;
+
+	private final long budgetBytes;
+	private final LinkedHashMap<Long, WaveformChunk> chunks;
+
+	private long usedBytes;
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * Creates an empty cache.
+	 *
+	 * @param budgetBytes The largest number of bytes the cached images may take up, <code>0</code> to cache nothing
+	 */
+	public WaveformChunkCache(long budgetBytes) {
+		if(budgetBytes < 0) {
+			throw new IllegalArgumentException("budget cannot be negative: " + budgetBytes);
+		}
+		this.budgetBytes = budgetBytes;
+		chunks = new LinkedHashMap<Long, WaveformChunk>(16, 0.75f, true); //access order
+	}
+
+	/**
+	 * Looks up a chunk, counting a hit or miss and marking the chunk as recently used.
+	 *
+	 * A chunk made for a different height counts as a miss, and is dropped.
+	 *
+	 * @param zoomLevel The zoom level the chunk was made for
+	 * @param chunkNum The chunk number
+	 * @param height The height the chunk's image must have
+	 * @return The cached chunk, or <code>null</code> if there is none of the provided height
+	 */
+	public synchronized WaveformChunk get(int zoomLevel, int chunkNum, int height) {
+		long key = key(zoomLevel, chunkNum);
+		WaveformChunk chunk = chunks.get(key);
+		if(chunk != null && chunk.getHeight() != height) {
+			chunks.remove(key);
+			usedBytes -= sizeOf(chunk);
+			chunk = null;
+		}
+		if(chunk == null) {
+			misses++;
+		}
+		else {
+			hits++;
+		}
+		return chunk;
+	}
+
+	/**
+	 * Stores a chunk, replacing any chunk with the same number and zoom level, then evicts least recently used chunks until the cache is within budget.
+	 *
+	 * @param chunk The newly rendered chunk
+	 */
+	public synchronized void put(WaveformChunk chunk) {
+		WaveformChunk old = chunks.put(key(chunk.getZoomLevel(), chunk.getNum()), chunk);
+		if(old != null) {
+			usedBytes -= sizeOf(old);
+		}
+		usedBytes += sizeOf(chunk);
+		Iterator<Map.Entry<Long, WaveformChunk>> it = chunks.entrySet().iterator();
+		while(usedBytes > budgetBytes && it.hasNext()) {
+			WaveformChunk eldest = it.next().getValue();
+			it.remove();
+			usedBytes -= sizeOf(eldest);
+			evictions++;
+		}
+	}
+
+	/**
+	 * Drops every chunk, without counting evictions.
+	 */
+	public synchronized void clear() {
+		chunks.clear();
+		usedBytes = 0;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	public synchronized long getUsedBytes() {
+		return usedBytes;
+	}
+
+	public long getBudgetBytes() {
+		return budgetBytes;
+	}
+
+	private static long key(int zoomLevel, int chunkNum) {
+		return ((long)zoomLevel << 32) | (chunkNum & 0xFFFFFFFFL);
+	}
+
+	private static long sizeOf(WaveformChunk chunk) {
+		return (long)chunk.getImage().getWidth(null) * chunk.getHeight() * bytesPerPixel;
+	}
+
+	/**
+	 * Summarizes the cache's size and counters, for sizing the budget.
+	 */
+	@Override
+	public synchronized String toString() {
+		DecimalFormat mb = new DecimalFormat("0.0");
+		long lookups = hits + misses;
+		String hitRate = lookups == 0 ? "n/a" : (100 * hits / lookups) + "%";
+		return "waveform cache: " + chunks.size() + " chunks, "
+			+ mb.format(usedBytes / 1048576.0) + "/" + mb.format(budgetBytes / 1048576.0) + " MB, "
+			+ hits + " hits, " + misses + " misses (" + hitRate + " hit rate), " + evictions + " evictions";
+	}
+}
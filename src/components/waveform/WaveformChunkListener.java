@@ -0,0 +1,35 @@
+//    This file is part of Penn TotalRecall <http://memory.psych.upenn.edu/TotalRecall>.
+//
+//    TotalRecall is free software: you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation, version 3 only.
+//
+//    TotalRecall is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with TotalRecall.  If not, see <http://www.gnu.org/licenses/>.
+
+package components.waveform;
+
+import components.waveform.WaveformBuffer.WaveformChunk;
+
+/**
+ * Specification for the listener of <code>WaveformBuffer</code> notifications.
+ *
+ * @author Yuvi Masory
+ */
+public interface WaveformChunkListener {
+
+	/**
+	 * Indicates that a chunk has been stored in the array returned by {@link WaveformBuffer#getWaveformChunks()}.
+	 *
+	 * <p>This notification is given in one of the buffer's threads, not the event dispatch thread.
+	 * Handlers should return quickly, since other chunks may be waiting for the same thread.
+	 *
+	 * @param chunk The chunk that is now available
+	 */
+	public void chunkReady(WaveformChunk chunk);
+}
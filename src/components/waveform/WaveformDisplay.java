@@ -1,425 +1,724 @@
-//    This file is part of Penn TotalRecall <http://memory.psych.upenn.edu/TotalRecall>.
-//
-//    TotalRecall is free software: you can redistribute it and/or modify
-//    it under the terms of the GNU General Public License as published by
-//    the Free Software Foundation, version 3 only.
-//
-//    TotalRecall is distributed in the hope that it will be useful,
-//    but WITHOUT ANY WARRANTY; without even the implied warranty of
-//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
-//    GNU General Public License for more details.
-//
-//    You should have received a copy of the GNU General Public License
-//    along with TotalRecall.  If not, see <http://www.gnu.org/licenses/>.
-
-package components.waveform;
-
-import info.GUIConstants;
-import info.MyColors;
-import info.MyShapes;
-import info.SysInfo;
-
-import java.awt.Graphics;
-import java.awt.Graphics2D;
-import java.awt.Stroke;
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
-import java.awt.event.MouseAdapter;
-import java.awt.event.MouseEvent;
-import java.text.DecimalFormat;
-
-import javax.swing.JComponent;
-import javax.swing.Timer;
-import javax.swing.plaf.ComponentUI;
-
-import components.MyFrame;
-import components.annotations.Annotation;
-import components.annotations.AnnotationDisplay;
-
-import components.suggestions.Suggestion;
-import components.suggestions.SuggestionDisplay;
-
-import components.waveform.WaveformBuffer.WaveformChunk;
-
-import control.CurAudio;
-import edu.upenn.psych.memory.precisionplayer.PrecisionPlayer;
-
-/**
- * This WaveformDisplay is totally autonomous except for changes of zoom factor.
- * 
- * Keep in mind that events other than the repaint timer going off can cause repaints.
- * 
- * @author Yuvi Masory
- */
-public class WaveformDisplay extends JComponent {
-
-	private final DecimalFormat secFormat = new DecimalFormat("0.000s");
-
-	private final int REFRESH_DELAY = 20; //people prefer 20 over 30
-
-	private Timer refreshTimer;
-
-	private int pixelsPerSecond;
-	
-	private volatile boolean chunkInProgress;
-	
-	private static volatile int progressBarXPos;
-	
-	private long refreshFrame;
-	private int refreshWidth;
-	private int refreshHeight;
-	private WaveformChunk previousRefreshChunk;
-	private WaveformChunk curRefreshChunk;
-	private WaveformChunk nextRefreshChunk;
-	
-	private static WaveformDisplay instance;
-
-	private WaveformDisplay() {
-		setOpaque(true);
-		setBackground(MyColors.waveformBackground);
-		setUI(new ComponentUI() {}); //a little bit of magic so the JComponent will draw the background color without subclassing to a JPanel
-		pixelsPerSecond = GUIConstants.zoomlessPixelsPerSecond;
-		refreshFrame = -1;
-		addMouseListener(new MouseAdapter(){
-			@Override
-			public void mousePressed(MouseEvent e) {
-				MyFrame.getInstance().requestFocusInWindow();
-			}
-		});
-		if(SysInfo.sys.mouseMode) {
-			addMouseListener(new WaveformMouseAdapter(this));
-			addMouseMotionListener(new WaveformMouseAdapter(this));
-		}
-	}
-
-	public static WaveformDisplay getInstance() {
-		if (instance == null) {
-			instance = new WaveformDisplay();
-		}
-		return instance;
-	}
-
-	public static int height() {
-		return instance.getHeight();
-	}
-
-	public static void zoomX(boolean in) {
-		if(in) {
-			instance.pixelsPerSecond += GUIConstants.xZoomAmount;
-		}
-		else {
-			if(instance.pixelsPerSecond >= GUIConstants.xZoomAmount + 1) {
-				instance.pixelsPerSecond -= GUIConstants.xZoomAmount;
-			}
-		}
-	}
-	
-	public void startRefreshes() {
-		ActionListener refresher = new RefreshListener();
-		refreshTimer = new Timer(REFRESH_DELAY, refresher);
-		refreshTimer.start();
-	}
-
-	public void stopRefreshes() {
-		if(refreshTimer != null) {
-			refreshTimer.stop();
-			curRefreshChunk = null;
-			previousRefreshChunk = null;
-			nextRefreshChunk = null;
-			repaint();
-		}
-	}
-
-
-	@Override
-	public void update(Graphics g) {
-		paint(g);
-	}
-	
-	
-	
-	
-
-	@Override
-	public void paintComponent(Graphics g) {
-		super.paintComponent(g); //just so the default background color is painted
-		
-		if(refreshTimer == null || curRefreshChunk == null || refreshTimer.isRunning() == false) {
-			//draw reference line
-			g.setColor(MyColors.waveformReferenceLineColor);
-			g.drawLine(0, getHeight()/2, getWidth() - 1, getHeight()/2);
-			
-			//draw bottom border
-			g.setColor(MyColors.unfocusedColor);
-			g.drawLine(0, getHeight() - 1, getWidth() - 1, getHeight() - 1);
-			return;
-		}
-		chunkInProgress = false;
-		
-		//draw buffered waveform image
-		int curChunkXPos = frameToComponentX(CurAudio.firstFrameOfChunk(curRefreshChunk.getNum()));
-		g.drawImage(curRefreshChunk.getImage(), curChunkXPos, 0, null);
-		
-		if(previousRefreshChunk != null) {
-			g.drawImage(previousRefreshChunk.getImage(), curChunkXPos - curRefreshChunk.getImage().getWidth(null), 0, null);
-		}
-		else {
-			if(curRefreshChunk.getNum() != 0) {
-				chunkInProgress = true;
-			}
-		}
-		if(nextRefreshChunk != null) {
-			g.drawImage(nextRefreshChunk.getImage(), curChunkXPos + curRefreshChunk.getImage().getWidth(null), 0, null);
-		}
-		else {
-			if(curRefreshChunk.getNum() != CurAudio.lastChunkNum()) {
-				chunkInProgress = true;
-			}
-		}
-
-		
-		Graphics2D g2d = (Graphics2D)g;
-		g2d.setRenderingHints(MyShapes.getRenderingHints());
-		
-		//draw current time
-		g2d.drawString(secFormat.format(CurAudio.getMaster().framesToSec(refreshFrame)), 10, 20);
-		
-		//draw annotations
-		Annotation[] anns = AnnotationDisplay.getAnnotationsInOrder();
-		for(int i = 0; i < anns.length; i++) {
-			double time = anns[i].getTime();
-			int xPos = frameToComponentX(CurAudio.getMaster().millisToFrames(time));
-			if(xPos < 0) {
-				continue;
-			}
-			if(xPos > refreshWidth) {
-				break;
-			}
-			String text = anns[i].getText();
-			g2d.setColor(MyColors.annotationLineColor);
-			g2d.drawLine(xPos, 0, xPos, getHeight() - 1);
-			g2d.setColor(MyColors.annotationTextColor);
-			g2d.drawString(text, xPos + 5, 40);
-		}
-
-		//draw suggestions
-		Suggestion[] suggs = SuggestionDisplay.getSuggestionsInOrder();
-		for(int i = 0; i < suggs.length; i++) {
-			double time = suggs[i].getTime();
-			int xPos = frameToComponentX(CurAudio.getMaster().millisToFrames(time));
-			if(xPos < 0) {
-				continue;
-			}
-			if(xPos > refreshWidth) {
-				break;
-			}
-			String text = suggs[i].getText();
-			g2d.setColor(MyColors.suggestionLineColor);
-			g2d.drawLine(xPos, 0, xPos, getHeight() - 1);
-			g2d.setColor(MyColors.suggestionTextColor);
-			g2d.drawString(text, xPos + 5, 40);
-		}
-
-		
-		//find progress bar position
-		progressBarXPos = frameToComponentX(refreshFrame);
-		if(progressBarXPos < 0) {
-			System.err.println("bad val " + progressBarXPos + "/" + (getWidth() - 1));
-		}
-		else if(progressBarXPos > getWidth() - 1) {
-			if(refreshWidth == getWidth()) {
-				if(SysInfo.sys.interpolateFrames == false || Math.abs(refreshFrame - CurAudio.getMaster().durationInFrames()) > CurAudio.getMaster().secondsToFrames(SysInfo.sys.interplationToleratedErrorZoneInSec)) {
-					System.err.println("bad val " + progressBarXPos + "/" + (getWidth() - 1));
-				}
-			}
-			progressBarXPos = getWidth() - 1;
-		}
-
-		//accent selected annotation
-		boolean foundOverlap = false;
-		if(CurAudio.getPlayer().getStatus() != PrecisionPlayer.Status.PLAYING) {
-			for(int i = 0; i < anns.length; i++) {
-				int annX = WaveformDisplay.frameToDisplayXPixel(CurAudio.getMaster().millisToFrames(anns[i].getTime()));
-				if(progressBarXPos == annX) {
-					foundOverlap = true;
-					g2d.setPaintMode();
-					g2d.setColor(MyColors.annotationAccentColor);
-					g2d.drawLine(progressBarXPos, 0, progressBarXPos, refreshHeight - 1);
-					int[] xCoordinates = {progressBarXPos - 20, progressBarXPos - 1, progressBarXPos + 2, progressBarXPos + 20};
-					int[] yCoordinates = {0, 20, 20, 0};
-					g2d.fillPolygon(xCoordinates, yCoordinates, xCoordinates.length);
-					yCoordinates = new int[] {refreshHeight - 1, refreshHeight - 21, refreshHeight - 21, refreshHeight - 1};
-					g2d.fillPolygon(xCoordinates, yCoordinates, xCoordinates.length);
-					break;
-				}					
-			}
-		}
-		
-		//draw progress bar
-		if(foundOverlap == false) {
-			Stroke originalStroke = g2d.getStroke();
-			g2d.setStroke(MyShapes.getProgressBarStroke());
-			g2d.setXORMode(MyColors.waveformBackground);
-			
-			g2d.setColor(MyColors.progressBarColor);
-			g2d.drawLine(progressBarXPos, 0, progressBarXPos, getHeight() - 1);
-			
-			g2d.setPaintMode();
-			g2d.setStroke(originalStroke);
-		}
-		
-		//draw bottom border
-		g2d.setColor(MyColors.unfocusedColor);
-		g2d.drawLine(0, getHeight() - 1, getWidth() - 1, getHeight() - 1);
-
-	}
-
-	
-	private int frameToComponentX(long frame) {
-		int absoluteX = absoluteX(frame);
-		int absoluteCurX = absoluteX(refreshFrame);
-		
-		int offset = refreshWidth/2 - absoluteCurX;
-		if(offset > 0) { //first half window of audio is adjusted
-			offset = 0; 
-		}
-		else { //last half window of audio is adjusted
-			int absoluteLength = -1 * (int)Math.ceil(GUIConstants.zoomlessPixelsPerSecond * CurAudio.getMaster().durationInSeconds());
-			if((-absoluteLength) <= refreshWidth) {
-				offset = 0;
-			}
-			else {
-				offset = Math.max(offset, absoluteLength + refreshWidth);
-			}
-		}
-		return absoluteX + offset;
-	}
-	
-	private int absoluteX(long frame) {
-		return (int) (GUIConstants.zoomlessPixelsPerSecond * CurAudio.getMaster().framesToSec(frame));
-	}
-	
-	public static int frameToAbsoluteXPixel(long frame) {
-		if(CurAudio.audioOpen()) {
-			return instance.absoluteX(frame);
-		}
-		throw new IllegalStateException("audio not open");
-	}
-	
-	public static int frameToDisplayXPixel(long frame) {
-		if(CurAudio.audioOpen()) {
-			return instance.frameToComponentX(frame);
-		}
-		throw new IllegalStateException("audio not open");
-	}
-	
-	public static int displayXPixelToFrame(int xPix) {
-		if(CurAudio.audioOpen()) {
-			return (int) (instance.refreshFrame + (xPix - progressBarXPos) * ((1./GUIConstants.zoomlessPixelsPerSecond) * CurAudio.getMaster().frameRate()));
-		}
-		throw new IllegalStateException("audio not open");
-	}
-
-	public static int getProgressBarXPos() {
-		return progressBarXPos;
-	}
-
-
-	//one RefreshListener per file, guaranteed
-	protected final class RefreshListener implements ActionListener {
-		private final long maxFramesError;
-		private final long lastFrame;
-		
-		private long bufferedFrame;
-		private int bufferedWidth;
-		private int bufferedHeight;
-		private int bufferedNumAnns;
-		
-		private boolean wasPlaying;
-		private long lastTime;
-
-		protected RefreshListener() {
-			lastFrame = CurAudio.getMaster().durationInFrames() - 1;
-			maxFramesError = CurAudio.getMaster().secondsToFrames(1) / GUIConstants.zoomlessPixelsPerSecond * SysInfo.sys.maxInterpolatedPixels;
-			bufferedFrame = -1;
-			bufferedWidth = -1;
-			bufferedHeight = -1;
-			bufferedNumAnns = -1;
-			wasPlaying = false;
-			lastTime = 0;
-		}
-
-		
-		public final void actionPerformed(ActionEvent evt) {
-			long realRefreshFrame = CurAudio.getAudioProgress();	
-			refreshWidth = getWidth();
-			refreshHeight = getHeight();		
-			int chunkNum = CurAudio.lookupChunkNum(realRefreshFrame);
-			int numAnns = AnnotationDisplay.getNumAnnotations();
-			boolean isPlaying = CurAudio.getPlayer().getStatus() == PrecisionPlayer.Status.PLAYING;
-			
-			if(SysInfo.sys.interpolateFrames) {
-				long curTime;
-				if(SysInfo.sys.nanoInterplation) {
-					curTime = System.nanoTime();	
-				}
-				else {
-					curTime = System.currentTimeMillis();
-				}
-				if(isPlaying && wasPlaying) {
-					long changeMillis = curTime - lastTime;
-					if(SysInfo.sys.nanoInterplation) {
-						refreshFrame += CurAudio.getMaster().nanosToFrames(changeMillis);
-					}
-					else {
-						refreshFrame += CurAudio.getMaster().millisToFrames(changeMillis);
-					}
-					if(refreshFrame > lastFrame) {
-						refreshFrame = lastFrame;
-					}
-					if(Math.abs(refreshFrame - realRefreshFrame) > maxFramesError) {
-						if(SysInfo.sys.interpolateFrames == false || Math.abs(refreshFrame - lastFrame) > CurAudio.getMaster().secondsToFrames(SysInfo.sys.interplationToleratedErrorZoneInSec)) {
-							System.err.println("interpolation error greater than " + SysInfo.sys.maxInterpolatedPixels + " pixels: " + Math.abs(refreshFrame - realRefreshFrame) + " (frames)");
-							refreshFrame = realRefreshFrame;
-						}
-					}				
-				}
-				else {
-					refreshFrame = realRefreshFrame;
-				}
-				lastTime = curTime;
-			}
-			else {
-				refreshFrame = realRefreshFrame;
-			}
-
-			if(chunkInProgress == false && refreshFrame == bufferedFrame && bufferedWidth == refreshWidth && bufferedHeight == refreshHeight && bufferedNumAnns == numAnns) {
-				return;
-			}
-
-			WaveformChunk[] chunks = WaveformBuffer.getWaveformChunks();
-			if(chunks == null) { //occurs only while WaveformBuffer's constructor is being run
-				return;
-			}
-			if(chunks[chunkNum] == null) {
-				return;
-			}			
-			curRefreshChunk = chunks[chunkNum];			
-			if(chunkNum > 0) {
-				previousRefreshChunk = chunks[chunkNum - 1];				
-			}
-			if(chunkNum < chunks.length - 1) {
-				nextRefreshChunk = chunks[chunkNum + 1];				
-			}
-			
-
-			wasPlaying = isPlaying;
-			bufferedFrame = realRefreshFrame;
-			bufferedWidth = refreshWidth;
-			bufferedHeight = curRefreshChunk.getImage().getHeight(null);
-			bufferedNumAnns = AnnotationDisplay.getNumAnnotations();
-			
-			repaint();
-		}
-	};
-}
+//    This file is part of Penn TotalRecall <http://memory.psych.upenn.edu/TotalRecall>.
+//
+//    TotalRecall is free software: you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation, version 3 only.
+//
+//    TotalRecall is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with TotalRecall.  If not, see <http://www.gnu.org/licenses/>.
+
+package components.waveform;
+
+import info.GUIConstants;
+import info.MyColors;
+import info.MyShapes;
+import info.SysInfo;
+
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Stroke;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.image.VolatileImage;
+import java.text.DecimalFormat;
+
+import javax.swing.JComponent;
+import javax.swing.plaf.ComponentUI;
+
+import components.MyFrame;
+import components.annotations.Annotation;
+import components.annotations.AnnotationDisplay;
+
+import components.suggestions.Suggestion;
+import components.suggestions.SuggestionDisplay;
+
+import components.waveform.WaveformBuffer.WaveformChunk;
+
+import control.CurAudio;
+import edu.upenn.psych.memory.precisionplayer.PlaybackAnchor;
+import edu.upenn.psych.memory.precisionplayer.PositionSource;
+import edu.upenn.psych.memory.precisionplayer.PrecisionPlayer;
+
+/**
+ * This WaveformDisplay is totally autonomous except for changes of zoom factor.
+ * 
+ * Zoom factors are powers of two, see {@link #zoomX(boolean)}. Each level has its own set of chunks in <code>WaveformBuffer</code>.
+ * 
+ * Keep in mind that events other than the {@link AnimationClock} ticking can cause repaints.
+ * 
+ * @author Yuvi Masory
+ */
+public class WaveformDisplay extends JComponent {
+
+	private final DecimalFormat secFormat = new DecimalFormat("0.000s");
+
+	private AnimationClock refreshClock;
+
+	private volatile int zoomLevel;
+	
+	private volatile boolean chunksChanged;
+	
+	private static volatile int progressBarXPos;
+	
+	private long refreshFrame;
+	private volatile int refreshZoomLevel;
+	private volatile double refreshPixelsPerSecond;
+	private int refreshWidth;
+	private int refreshHeight;
+	private WaveformChunk previousRefreshChunk;
+	private WaveformChunk curRefreshChunk;
+	private WaveformChunk nextRefreshChunk;
+	
+	private final ChunkSurfaceCache surfaces;
+	
+	/**
+	 * Half the width of the columns repainted when only the progress bar moves, wide enough for the selected annotation accent.
+	 */
+	private static final int progressBarDirtyHalfWidth = 21;
+	
+	private VolatileImage backBuffer;
+	private int backBufferOffset;
+	private int backBufferOverlayVersion;
+	private final WaveformChunk[] backBufferChunks = new WaveformChunk[3];
+	
+	private int timeTextRight;
+	private int timeTextBottom;
+	
+	private final int[] accentXs = new int[4];
+	private final int[] accentYs = new int[4];
+	
+	private static WaveformDisplay instance;
+
+	private WaveformDisplay() {
+		setOpaque(true);
+		setBackground(MyColors.waveformBackground);
+		setUI(new ComponentUI() {}); //a little bit of magic so the JComponent will draw the background color without subclassing to a JPanel
+		zoomLevel = 0;
+		refreshZoomLevel = 0;
+		refreshPixelsPerSecond = GUIConstants.zoomlessPixelsPerSecond;
+		refreshFrame = -1;
+		surfaces = new ChunkSurfaceCache(new ChunkSurfaceCache.OverlayPainter() {
+			public void paintOverlays(Graphics2D g, WaveformChunk chunk, int width, int height) {
+				g.setRenderingHints(MyShapes.getRenderingHints());
+				int chunkStart = chunk.getNum() * WaveformBuffer.chunkWidthInPixels();
+				WaveformDisplay.this.paintOverlays(g, chunkStart, width, height, pixelsPerSecond(chunk.getZoomLevel()), width);
+			}
+		});
+		addMouseListener(new MouseAdapter(){
+			@Override
+			public void mousePressed(MouseEvent e) {
+				MyFrame.getInstance().requestFocusInWindow();
+			}
+		});
+		if(SysInfo.sys.mouseMode) {
+			addMouseListener(new WaveformMouseAdapter(this));
+			addMouseMotionListener(new WaveformMouseAdapter(this));
+		}
+		WaveformBuffer.addChunkListener(new WaveformChunkListener() {
+			public void chunkReady(WaveformChunk chunk) {
+				chunksChanged = true;
+			}
+		});
+	}
+
+	public static WaveformDisplay getInstance() {
+		if (instance == null) {
+			instance = new WaveformDisplay();
+		}
+		return instance;
+	}
+
+	public static int height() {
+		return instance.getHeight();
+	}
+
+	/**
+	 * Doubles or halves the pixels per second, taking effect on the next refresh.
+	 * 
+	 * Does nothing if {@link #canZoomX(boolean)} is <code>false</code>.
+	 * 
+	 * @param in <code>true</code> to zoom in, <code>false</code> to zoom out
+	 */
+	public static void zoomX(boolean in) {
+		if(canZoomX(in)) {
+			instance.zoomLevel += in ? 1 : -1;
+		}
+	}
+
+	/**
+	 * Determines whether there is another zoom level in the provided direction.
+	 * 
+	 * Zooming out stops at {@link info.GUIConstants#maxZoomOutLevels}, zooming in stops at {@link info.GUIConstants#maxZoomInLevels}
+	 * or when a pixel would be narrower than one frame of the open audio.
+	 * 
+	 * @param in <code>true</code> to ask about zooming in, <code>false</code> to ask about zooming out
+	 * @return Whether <code>zoomX(in)</code> would change the zoom level
+	 */
+	public static boolean canZoomX(boolean in) {
+		int level = instance.zoomLevel;
+		if(in) {
+			if(level >= GUIConstants.maxZoomInLevels) {
+				return false;
+			}
+			return CurAudio.audioOpen() == false || pixelsPerSecond(level + 1) <= CurAudio.getMaster().frameRate();
+		}
+		return level > -GUIConstants.maxZoomOutLevels;
+	}
+
+	/**
+	 * Returns the pixels per second of a zoom level, which is {@link info.GUIConstants#zoomlessPixelsPerSecond} doubled once for every level above 0 and halved once for every level below.
+	 * 
+	 * @param zoomLevel The zoom level, 0 being no zoom
+	 * @return The width of one second of audio, in pixels
+	 */
+	public static double pixelsPerSecond(int zoomLevel) {
+		return Math.scalb((double)GUIConstants.zoomlessPixelsPerSecond, zoomLevel);
+	}
+
+	/**
+	 * Returns the pixels per second the waveform is currently drawn at.
+	 * 
+	 * @return The width of one second of audio, in pixels
+	 */
+	public static double pixelsPerSecond() {
+		return instance.refreshPixelsPerSecond;
+	}
+
+	/**
+	 * Returns the zoom level the waveform is currently drawn at.
+	 * 
+	 * @return The zoom level, 0 being no zoom
+	 */
+	public static int zoomLevel() {
+		return instance.refreshZoomLevel;
+	}
+
+	/**
+	 * Returns the clock driving the refreshes, whose frame-time, jitter and playhead statistics are kept after refreshes stop.
+	 * 
+	 * @return The clock of the latest refreshes, or <code>null</code> if refreshes have never started
+	 */
+	public static AnimationClock getRefreshClock() {
+		return instance == null ? null : instance.refreshClock;
+	}
+	
+	public void startRefreshes() {
+		ActionListener refresher = new RefreshListener();
+		refreshClock = new AnimationClock(this, refresher);
+		refreshClock.start();
+	}
+
+	public void stopRefreshes() {
+		if(refreshClock != null) {
+			refreshClock.stop();
+			curRefreshChunk = null;
+			previousRefreshChunk = null;
+			nextRefreshChunk = null;
+			surfaces.clear();
+			if(backBuffer != null) {
+				backBuffer.flush();
+				backBuffer = null;
+			}
+			for(int i = 0; i < backBufferChunks.length; i++) {
+				backBufferChunks[i] = null;
+			}
+			repaint();
+		}
+	}
+
+
+	@Override
+	public void update(Graphics g) {
+		paint(g);
+	}
+	
+	
+	
+	
+
+	@Override
+	public void paintComponent(Graphics g) {
+		super.paintComponent(g); //just so the default background color is painted
+		
+		if(refreshClock == null || curRefreshChunk == null || refreshClock.isRunning() == false) {
+			//draw reference line
+			g.setColor(MyColors.waveformReferenceLineColor);
+			g.drawLine(0, getHeight()/2, getWidth() - 1, getHeight()/2);
+			
+			//draw bottom border
+			g.setColor(MyColors.unfocusedColor);
+			g.drawLine(0, getHeight() - 1, getWidth() - 1, getHeight() - 1);
+			return;
+		}
+		//draw buffered waveform image, along with the annotations and suggestions
+		Graphics2D g2d = (Graphics2D)g;
+		int chunkWidth = curRefreshChunk.getImage().getWidth(null);
+		int curChunkXPos = absoluteToComponentX(curRefreshChunk.getNum() * WaveformBuffer.chunkWidthInPixels());
+		GraphicsConfiguration gc = getGraphicsConfiguration();
+		if(SysInfo.sys.acceleratedWaveform && gc != null) {
+			surfaces.retainOnly(previousRefreshChunk, curRefreshChunk, nextRefreshChunk);
+			drawBackBuffer(g, gc, curChunkXPos, chunkWidth, overlayVersion());
+		}
+		else {
+			drawChunk(g, curRefreshChunk, curChunkXPos);
+			if(previousRefreshChunk != null) {
+				drawChunk(g, previousRefreshChunk, curChunkXPos - chunkWidth);
+			}
+			if(nextRefreshChunk != null) {
+				drawChunk(g, nextRefreshChunk, curChunkXPos + chunkWidth);
+			}
+			g2d.setRenderingHints(MyShapes.getRenderingHints());
+			paintOverlays(g2d, -absoluteToComponentX(0), refreshWidth, getHeight(), refreshPixelsPerSecond, 0);
+		}
+		
+		g2d.setRenderingHints(MyShapes.getRenderingHints());
+		
+		//draw current time, remembering where so the listener can repaint just the text
+		g2d.setColor(getForeground());
+		String timeText = secFormat.format(CurAudio.getMaster().framesToSec(refreshFrame));
+		g2d.drawString(timeText, 10, 20);
+		timeTextRight = Math.max(timeTextRight, 10 + g2d.getFontMetrics().stringWidth(timeText) + 2);
+		timeTextBottom = Math.max(timeTextBottom, 20 + g2d.getFontMetrics().getDescent() + 1);
+		
+		//find progress bar position
+		progressBarXPos = frameToComponentX(refreshFrame);
+		if(progressBarXPos < 0) {
+			System.err.println("bad val " + progressBarXPos + "/" + (getWidth() - 1));
+		}
+		else if(progressBarXPos > getWidth() - 1) {
+			if(refreshWidth == getWidth()) {
+				if(SysInfo.sys.interpolateFrames == false || Math.abs(refreshFrame - CurAudio.getMaster().durationInFrames()) > CurAudio.getMaster().secondsToFrames(SysInfo.sys.interplationToleratedErrorZoneInSec)) {
+					System.err.println("bad val " + progressBarXPos + "/" + (getWidth() - 1));
+				}
+			}
+			progressBarXPos = getWidth() - 1;
+		}
+
+		//accent selected annotation
+		boolean foundOverlap = false;
+		if(CurAudio.getPlayer().getStatus() != PrecisionPlayer.Status.PLAYING) {
+			if(findAnnotationAtAbsoluteXPixel(progressBarXPos - absoluteToComponentX(0)) >= 0) {
+				foundOverlap = true;
+				g2d.setPaintMode();
+				g2d.setColor(MyColors.annotationAccentColor);
+				g2d.drawLine(progressBarXPos, 0, progressBarXPos, refreshHeight - 1);
+				accentXs[0] = progressBarXPos - 20;
+				accentXs[1] = progressBarXPos - 1;
+				accentXs[2] = progressBarXPos + 2;
+				accentXs[3] = progressBarXPos + 20;
+				accentYs[0] = 0;
+				accentYs[1] = 20;
+				accentYs[2] = 20;
+				accentYs[3] = 0;
+				g2d.fillPolygon(accentXs, accentYs, accentXs.length);
+				accentYs[0] = refreshHeight - 1;
+				accentYs[1] = refreshHeight - 21;
+				accentYs[2] = refreshHeight - 21;
+				accentYs[3] = refreshHeight - 1;
+				g2d.fillPolygon(accentXs, accentYs, accentXs.length);
+			}
+		}
+		
+		//draw progress bar
+		if(foundOverlap == false) {
+			Stroke originalStroke = g2d.getStroke();
+			g2d.setStroke(MyShapes.getProgressBarStroke());
+			g2d.setXORMode(MyColors.waveformBackground);
+			
+			g2d.setColor(MyColors.progressBarColor);
+			g2d.drawLine(progressBarXPos, 0, progressBarXPos, getHeight() - 1);
+			
+			g2d.setPaintMode();
+			g2d.setStroke(originalStroke);
+		}
+		
+		//draw bottom border
+		g2d.setColor(MyColors.unfocusedColor);
+		g2d.drawLine(0, getHeight() - 1, getWidth() - 1, getHeight() - 1);
+
+	}
+
+	/**
+	 * Draws the chunks and their overlays from a component-sized back buffer.
+	 * 
+	 * The back buffer is redrawn from the chunk surfaces only when the view has scrolled, the chunks or overlays have changed, or its contents were lost.
+	 * Otherwise a repaint of a few columns, as the listener requests while only the progress bar moves, copies just those columns.
+	 */
+	private void drawBackBuffer(Graphics g, GraphicsConfiguration gc, int curChunkXPos, int chunkWidth, int overlayVersion) {
+		int width = getWidth();
+		int height = getHeight();
+		if(width <= 0 || height <= 0) {
+			return;
+		}
+		int offset = absoluteToComponentX(0);
+		do {
+			int status = backBuffer == null ? VolatileImage.IMAGE_INCOMPATIBLE : backBuffer.validate(gc);
+			boolean stale = status != VolatileImage.IMAGE_OK;
+			if(status == VolatileImage.IMAGE_INCOMPATIBLE || backBuffer.getWidth() != width || backBuffer.getHeight() != height) {
+				if(backBuffer != null) {
+					backBuffer.flush();
+				}
+				backBuffer = gc.createCompatibleVolatileImage(width, height);
+				stale = true;
+			}
+			if(stale || offset != backBufferOffset || overlayVersion != backBufferOverlayVersion
+					|| backBufferChunks[0] != previousRefreshChunk || backBufferChunks[1] != curRefreshChunk || backBufferChunks[2] != nextRefreshChunk) {
+				Graphics2D bg = backBuffer.createGraphics();
+				bg.setColor(getBackground());
+				bg.fillRect(0, 0, width, height);
+				surfaces.draw(bg, gc, curRefreshChunk, curChunkXPos, height, overlayVersion);
+				if(previousRefreshChunk != null) {
+					surfaces.draw(bg, gc, previousRefreshChunk, curChunkXPos - chunkWidth, height, overlayVersion);
+				}
+				if(nextRefreshChunk != null) {
+					surfaces.draw(bg, gc, nextRefreshChunk, curChunkXPos + chunkWidth, height, overlayVersion);
+				}
+				bg.dispose();
+				backBufferOffset = offset;
+				backBufferOverlayVersion = overlayVersion;
+				backBufferChunks[0] = previousRefreshChunk;
+				backBufferChunks[1] = curRefreshChunk;
+				backBufferChunks[2] = nextRefreshChunk;
+			}
+			g.drawImage(backBuffer, 0, 0, null);
+		}
+		while(backBuffer.contentsLost());
+	}
+
+	/**
+	 * Draws the lines and text of the annotations and suggestions that fall in a span of the waveform.
+	 * 
+	 * @param g2d The graphics to draw with, with x = 0 at the span's first pixel column
+	 * @param absoluteStart The first pixel column of the span, as in {@link #absoluteX(long)}
+	 * @param width The width of the span
+	 * @param height The height of the lines
+	 * @param pixelsPerSecond The zoom of the span
+	 * @param margin How far before the span to look for annotations and suggestions whose text may reach into it
+	 */
+	private void paintOverlays(Graphics2D g2d, int absoluteStart, int width, int height, double pixelsPerSecond, int margin) {
+		//skip straight to the first annotation or suggestion that can be visible, then stop at the first one past the span
+		double firstMillis = absoluteXToMillis(absoluteStart - margin - 1, pixelsPerSecond);
+
+		//draw annotations
+		int numAnns = AnnotationDisplay.getNumAnnotations();
+		for(int i = AnnotationDisplay.findFirstAnnotationAtOrAfter(firstMillis); i < numAnns; i++) {
+			Annotation ann = AnnotationDisplay.getAnnotationAt(i);
+			double time = ann.getTime();
+			int xPos = (int)(pixelsPerSecond * CurAudio.getMaster().framesToSec(CurAudio.getMaster().millisToFrames(time))) - absoluteStart;
+			if(xPos < -margin) {
+				continue;
+			}
+			if(xPos > width) {
+				break;
+			}
+			String text = ann.getText();
+			g2d.setColor(MyColors.annotationLineColor);
+			g2d.drawLine(xPos, 0, xPos, height - 1);
+			g2d.setColor(MyColors.annotationTextColor);
+			g2d.drawString(text, xPos + 5, 40);
+		}
+
+		//draw suggestions
+		int numSuggs = SuggestionDisplay.getNumSuggestions();
+		for(int i = SuggestionDisplay.findFirstSuggestionAtOrAfter(firstMillis); i < numSuggs; i++) {
+			Suggestion sugg = SuggestionDisplay.getSuggestionAt(i);
+			double time = sugg.getTime();
+			int xPos = (int)(pixelsPerSecond * CurAudio.getMaster().framesToSec(CurAudio.getMaster().millisToFrames(time))) - absoluteStart;
+			if(xPos < -margin) {
+				continue;
+			}
+			if(xPos > width) {
+				break;
+			}
+			String text = sugg.getText();
+			g2d.setColor(MyColors.suggestionLineColor);
+			g2d.drawLine(xPos, 0, xPos, height - 1);
+			g2d.setColor(MyColors.suggestionTextColor);
+			g2d.drawString(text, xPos + 5, 40);
+		}
+	}
+
+	/**
+	 * Draws a chunk's image, stretching it vertically if it was made for a different height.
+	 * 
+	 * While the component is being resized the buffer re-rasterizes chunks at the new height, until they arrive the old images are scaled to fit.
+	 */
+	private void drawChunk(Graphics g, WaveformChunk chunk, int xPos) {
+		Image image = chunk.getImage();
+		if(chunk.getHeight() == getHeight()) {
+			g.drawImage(image, xPos, 0, null);
+		}
+		else {
+			g.drawImage(image, xPos, 0, image.getWidth(null), getHeight(), null);
+		}
+	}
+
+	/**
+	 * Returns a version of the annotation and suggestion overlays, which increases whenever either is added to or removed from.
+	 * 
+	 * The number of annotations is not enough, since replacing an annotation, or editing only suggestions, leaves it unchanged.
+	 */
+	private static int overlayVersion() {
+		return AnnotationDisplay.getAnnotationsVersion() + SuggestionDisplay.getSuggestionsVersion();
+	}
+
+	private static boolean isCurrent(WaveformChunk chunk, int zoomLevel) {
+		return chunk != null && chunk.getZoomLevel() == zoomLevel;
+	}
+
+	private int frameToComponentX(long frame) {
+		return absoluteToComponentX(absoluteX(frame));
+	}
+
+	private int absoluteToComponentX(int absoluteX) {
+		int absoluteCurX = absoluteX(refreshFrame);
+		
+		int offset = refreshWidth/2 - absoluteCurX;
+		if(offset > 0) { //first half window of audio is adjusted
+			offset = 0; 
+		}
+		else { //last half window of audio is adjusted
+			int absoluteLength = -1 * (int)Math.ceil(refreshPixelsPerSecond * CurAudio.getMaster().durationInSeconds());
+			if((-absoluteLength) <= refreshWidth) {
+				offset = 0;
+			}
+			else {
+				offset = Math.max(offset, absoluteLength + refreshWidth);
+			}
+		}
+		return absoluteX + offset;
+	}
+	
+	private int absoluteX(long frame) {
+		return (int) (refreshPixelsPerSecond * CurAudio.getMaster().framesToSec(frame));
+	}
+	
+	public static int frameToAbsoluteXPixel(long frame) {
+		if(CurAudio.audioOpen()) {
+			return instance.absoluteX(frame);
+		}
+		throw new IllegalStateException("audio not open");
+	}
+	
+	public static int frameToDisplayXPixel(long frame) {
+		if(CurAudio.audioOpen()) {
+			return instance.frameToComponentX(frame);
+		}
+		throw new IllegalStateException("audio not open");
+	}
+	
+	public static int displayXPixelToFrame(int xPix) {
+		if(CurAudio.audioOpen()) {
+			return (int) (instance.refreshFrame + (xPix - progressBarXPos) * ((1./instance.refreshPixelsPerSecond) * CurAudio.getMaster().frameRate()));
+		}
+		throw new IllegalStateException("audio not open");
+	}
+
+	public static int getProgressBarXPos() {
+		return progressBarXPos;
+	}
+
+	/**
+	 * Finds the annotation drawn at the provided pixel column, which is the annotation selected when the progress bar sits on that column.
+	 * 
+	 * Uses a binary search of the annotations, so it is fast enough for every repaint and allocates nothing.
+	 * 
+	 * @param absoluteX A pixel column, as in {@link #frameToAbsoluteXPixel(long)}
+	 * @return The annotation's index in time order, as in {@link AnnotationDisplay#getAnnotationAt(int)}, or <code>-1</code> if none is drawn there
+	 */
+	public static int findAnnotationAtAbsoluteXPixel(int absoluteX) {
+		double pixelsPerSecond = instance.refreshPixelsPerSecond;
+		int numAnns = AnnotationDisplay.getNumAnnotations();
+		for(int i = AnnotationDisplay.findFirstAnnotationAtOrAfter(absoluteXToMillis(absoluteX - 1, pixelsPerSecond)); i < numAnns; i++) {
+			int annX = instance.absoluteX(CurAudio.getMaster().millisToFrames(AnnotationDisplay.getAnnotationAt(i).getTime()));
+			if(annX == absoluteX) {
+				return i;
+			}
+			if(annX > absoluteX) {
+				break;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns a time no later than the earliest time drawn at the provided pixel column, allowing a millisecond for the rounding of times to frames.
+	 */
+	private static double absoluteXToMillis(int absoluteX, double pixelsPerSecond) {
+		return absoluteX / pixelsPerSecond * 1000 - 1;
+	}
+
+
+	//one RefreshListener per file, guaranteed
+	protected final class RefreshListener implements ActionListener {
+		//anchors older than this are stale, e.g. the player has stalled, so the polled progress is used instead
+		private static final long maxAnchorAgeNanos = 200000000L;
+
+		private final long lastFrame;
+		
+		private long bufferedFrame;
+		private int bufferedWidth;
+		private int bufferedHeight;
+		private int bufferedOverlayVersion;
+		private int bufferedZoomLevel;
+		private int bufferedRefreshHeight;
+		private int bufferedOffset;
+		
+		private boolean wasPlaying;
+		private long lastTime;
+		private PlaybackAnchor lastAnchor;
+
+		protected RefreshListener() {
+			lastFrame = CurAudio.getMaster().durationInFrames() - 1;
+			bufferedFrame = -1;
+			bufferedWidth = -1;
+			bufferedHeight = -1;
+			bufferedOverlayVersion = -1;
+			bufferedZoomLevel = zoomLevel;
+			bufferedRefreshHeight = -1;
+			bufferedOffset = Integer.MIN_VALUE;
+			wasPlaying = false;
+			lastTime = 0;
+			lastAnchor = null;
+		}
+
+		
+		public final void actionPerformed(ActionEvent evt) {
+			long realRefreshFrame = CurAudio.getAudioProgress();	
+			refreshWidth = getWidth();
+			refreshHeight = getHeight();
+			int zoom = zoomLevel;
+			double pixelsPerSecond = pixelsPerSecond(zoom);
+			long maxFramesError = (long)(CurAudio.getMaster().frameRate() / pixelsPerSecond * SysInfo.sys.maxInterpolatedPixels);
+			int chunkNum = (int)(pixelsPerSecond * CurAudio.getMaster().framesToSec(realRefreshFrame)) / WaveformBuffer.chunkWidthInPixels();
+			int overlayVersion = overlayVersion();
+			boolean isPlaying = CurAudio.getPlayer().getStatus() == PrecisionPlayer.Status.PLAYING;
+			long now = System.nanoTime();
+			//players that can be read directly give a position as of this tick, others only their latest progress report
+			PlaybackAnchor anchor = null;
+			if(CurAudio.getPlayer() instanceof PositionSource) {
+				anchor = ((PositionSource)CurAudio.getPlayer()).currentPosition();
+			}
+			if(anchor == null) {
+				anchor = CurAudio.getListener().getAnchor();
+			}
+			
+			if(isPlaying && anchor != null && anchor.age(now) < maxAnchorAgeNanos) {
+				//extrapolate the playhead to this tick from the last (frame, time) pair the player reported
+				double frameRate = CurAudio.getMaster().frameRate();
+				if(lastAnchor != null && anchor.getNanoTime() != lastAnchor.getNanoTime()) {
+					long predictedFrame = lastAnchor.extrapolate(anchor.getNanoTime(), frameRate);
+					refreshClock.recordPlayheadError(Math.abs(anchor.getFrame() - predictedFrame) * pixelsPerSecond / frameRate);
+				}
+				lastAnchor = anchor;
+				long extrapolatedFrame = Math.min(anchor.extrapolate(now, frameRate), lastFrame);
+				//a new anchor can put the playhead slightly behind where it was drawn, don't let it jitter backwards by less than a pixel
+				long framesPerPixel = (long)(frameRate / pixelsPerSecond);
+				if(wasPlaying == false || extrapolatedFrame >= refreshFrame || refreshFrame - extrapolatedFrame > framesPerPixel) {
+					refreshFrame = extrapolatedFrame;
+				}
+				lastTime = SysInfo.sys.nanoInterplation ? now : System.currentTimeMillis();
+			}
+			else if(SysInfo.sys.interpolateFrames) {
+				lastAnchor = null;
+				long curTime;
+				if(SysInfo.sys.nanoInterplation) {
+					curTime = now;
+				}
+				else {
+					curTime = System.currentTimeMillis();
+				}
+				if(isPlaying && wasPlaying) {
+					long changeMillis = curTime - lastTime;
+					if(SysInfo.sys.nanoInterplation) {
+						refreshFrame += CurAudio.getMaster().nanosToFrames(changeMillis);
+					}
+					else {
+						refreshFrame += CurAudio.getMaster().millisToFrames(changeMillis);
+					}
+					if(refreshFrame > lastFrame) {
+						refreshFrame = lastFrame;
+					}
+					if(Math.abs(refreshFrame - realRefreshFrame) > maxFramesError) {
+						if(SysInfo.sys.interpolateFrames == false || Math.abs(refreshFrame - lastFrame) > CurAudio.getMaster().secondsToFrames(SysInfo.sys.interplationToleratedErrorZoneInSec)) {
+							System.err.println("interpolation error greater than " + SysInfo.sys.maxInterpolatedPixels + " pixels: " + Math.abs(refreshFrame - realRefreshFrame) + " (frames)");
+							refreshFrame = realRefreshFrame;
+						}
+					}				
+				}
+				else {
+					refreshFrame = realRefreshFrame;
+				}
+				lastTime = curTime;
+			}
+			else {
+				lastAnchor = null;
+				refreshFrame = realRefreshFrame;
+			}
+
+			//missing chunks arrive by way of WaveformChunkListener, no need to look for them on every tick
+			WaveformBuffer.requestChunks(chunkNum, refreshHeight, zoom);
+			if(chunksChanged == false && refreshFrame == bufferedFrame && bufferedWidth == refreshWidth && bufferedHeight == refreshHeight && bufferedOverlayVersion == overlayVersion && bufferedZoomLevel == zoom) {
+				return;
+			}
+
+			boolean newChunks = chunksChanged;
+			chunksChanged = false;
+			WaveformChunk[] chunks = WaveformBuffer.getWaveformChunks();
+			if(chunks == null) { //occurs only while WaveformBuffer's constructor is being run
+				return;
+			}
+			if(chunkNum >= chunks.length || isCurrent(chunks[chunkNum], zoom) == false) { //array is still sized for the previous zoom level
+				return;
+			}			
+			//the zoom level only takes effect once there is a chunk to show it with
+			refreshZoomLevel = zoom;
+			refreshPixelsPerSecond = pixelsPerSecond;
+			curRefreshChunk = chunks[chunkNum];			
+			if(chunkNum > 0) {
+				previousRefreshChunk = isCurrent(chunks[chunkNum - 1], zoom) ? chunks[chunkNum - 1] : null;				
+			}
+			if(chunkNum < chunks.length - 1) {
+				nextRefreshChunk = isCurrent(chunks[chunkNum + 1], zoom) ? chunks[chunkNum + 1] : null;				
+			}
+			
+
+			//while the view holds still only the progress bar and time move, so only their pixels are repainted
+			int offset = absoluteToComponentX(0);
+			boolean viewChanged = newChunks || offset != bufferedOffset || bufferedWidth != refreshWidth || bufferedRefreshHeight != refreshHeight
+				|| bufferedOverlayVersion != overlayVersion || bufferedZoomLevel != zoom;
+
+			wasPlaying = isPlaying;
+			bufferedFrame = realRefreshFrame;
+			bufferedWidth = refreshWidth;
+			bufferedHeight = curRefreshChunk.getImage().getHeight(null);
+			bufferedOverlayVersion = overlayVersion;
+			bufferedZoomLevel = zoom;
+			bufferedRefreshHeight = refreshHeight;
+			bufferedOffset = offset;
+			
+			if(viewChanged) {
+				repaint();
+			}
+			else {
+				int newProgressBarXPos = Math.max(0, Math.min(refreshWidth - 1, frameToComponentX(refreshFrame)));
+				repaintProgressBarColumns(progressBarXPos);
+				repaintProgressBarColumns(newProgressBarXPos);
+				repaint(0, 0, timeTextRight, timeTextBottom);
+			}
+		}
+
+		private void repaintProgressBarColumns(int xPos) {
+			repaint(xPos - progressBarDirtyHalfWidth, 0, 2 * progressBarDirtyHalfWidth + 1, refreshHeight);
+		}
+	};
+}
@@ -0,0 +1,359 @@
+//    This file is part of Penn TotalRecall <http://memory.psych.upenn.edu/TotalRecall>.
+//
+//    TotalRecall is free software: you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation, version 3 only.
+//
+//    TotalRecall is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with TotalRecall.  If not, see <http://www.gnu.org/licenses/>.
+
+package components.waveform;
+
+import info.Constants;
+import info.GUIConstants;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import util.OSPath;
+
+import control.MappedPcmSource;
+
+import de.dfki.lt.signalproc.filter.BandPassFilter;
+import de.dfki.lt.signalproc.util.AudioDoubleDataSource;
+import de.dfki.lt.signalproc.util.DoubleDataSource;
+
+/**
+ * Multi-resolution summary of an audio file's samples, from which the waveform can be drawn without decoding audio.
+ *
+ * Level 0 holds one bin per pixel at {@link info.GUIConstants#zoomlessPixelsPerSecond}, each bin storing the minimum, maximum and RMS
+ * of the (optionally band-pass filtered) samples it covers. Every further level halves the resolution of the level before it.
+ *
+ * A pyramid is built once per audio file and stored next to it, keyed by the audio file's size and modification time and by the filter settings it was made with.
+ * Cache files that don't match are ignored, and rebuilt by whoever asked for them.
+ *
+ * @author Yuvi Masory
+ */
+public class WaveformPyramid {
+
+	private static final int magicNumber = 0x54525059;
+	private static final int formatVersion = 1;
+
+	private static final int maxLevels = 16;
+	private static final double shortScale = Short.MAX_VALUE;
+
+	private final short[][] mins;
+	private final short[][] maxs;
+	private final short[][] rmss;
+
+	private WaveformPyramid(short[][] mins, short[][] maxs, short[][] rmss) {
+		this.mins = mins;
+		this.maxs = maxs;
+		this.rmss = rmss;
+	}
+
+	/**
+	 * Returns the number of resolution levels, level 0 being the finest.
+	 */
+	public int numLevels() {
+		return mins.length;
+	}
+
+	/**
+	 * Returns the number of bins stored at the provided level.
+	 */
+	public int numBins(int level) {
+		return mins[level].length;
+	}
+
+	/**
+	 * Returns how many bins of the provided level cover one second of audio.
+	 */
+	public double binsPerSecond(int level) {
+		return GUIConstants.zoomlessPixelsPerSecond / (double)(1 << level);
+	}
+
+	public double getMin(int level, int bin) {
+		return mins[level][bin] / shortScale;
+	}
+
+	public double getMax(int level, int bin) {
+		return maxs[level][bin] / shortScale;
+	}
+
+	public double getRms(int level, int bin) {
+		return rmss[level][bin] / shortScale;
+	}
+
+	/**
+	 * Returns the largest absolute sample value in the bin.
+	 */
+	public double getPeak(int level, int bin) {
+		return Math.max(-mins[level][bin], maxs[level][bin]) / shortScale;
+	}
+
+	/**
+	 * Finds the sidecar file in which the pyramid of the provided audio file is cached.
+	 *
+	 * @param audioFile The audio file
+	 * @return The cache file, which may not exist
+	 */
+	public static File cacheFileFor(File audioFile) {
+		return new File(OSPath.basename(audioFile.getAbsolutePath()) + "." + Constants.peakPyramidFileExtension);
+	}
+
+	/**
+	 * Reads the cached pyramid for the provided audio file and filter settings.
+	 *
+	 * @param audioFile The audio file whose pyramid is wanted
+	 * @param minBand The normalized lower band of the filter the pyramid must have been made with
+	 * @param maxBand The normalized upper band of the filter the pyramid must have been made with
+	 * @param bandpass Whether the pyramid must have been made from filtered samples
+	 * @return The cached pyramid, or <code>null</code> if there is no usable cache file
+	 */
+	public static WaveformPyramid load(File audioFile, double minBand, double maxBand, boolean bandpass) {
+		File cacheFile = cacheFileFor(audioFile);
+		if(cacheFile.exists() == false) {
+			return null;
+		}
+		FileInputStream fis = null;
+		try {
+			fis = new FileInputStream(cacheFile);
+			FileChannel channel = fis.getChannel();
+			ByteBuffer buf = ByteBuffer.allocate((int)channel.size());
+			while(buf.hasRemaining()) {
+				if(channel.read(buf) < 0) {
+					break;
+				}
+			}
+			buf.flip();
+
+			if(buf.getInt() != magicNumber || buf.getInt() != formatVersion) {
+				return null;
+			}
+			if(buf.getLong() != audioFile.length() || buf.getLong() != audioFile.lastModified()) {
+				return null;
+			}
+			if(buf.getDouble() != minBand || buf.getDouble() != maxBand || (buf.get() != 0) != bandpass) {
+				return null;
+			}
+			if(buf.getInt() != GUIConstants.zoomlessPixelsPerSecond) {
+				return null;
+			}
+			int numLevels = buf.getInt();
+			if(numLevels <= 0 || numLevels > maxLevels) {
+				return null;
+			}
+			short[][] mins = new short[numLevels][];
+			short[][] maxs = new short[numLevels][];
+			short[][] rmss = new short[numLevels][];
+			for(int level = 0; level < numLevels; level++) {
+				int numBins = buf.getInt();
+				mins[level] = readShorts(buf, numBins);
+				maxs[level] = readShorts(buf, numBins);
+				rmss[level] = readShorts(buf, numBins);
+			}
+			return new WaveformPyramid(mins, maxs, rmss);
+		}
+		catch(IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+		catch(BufferUnderflowException e) {
+			System.err.println("truncated waveform cache: " + cacheFile);
+			return null;
+		}
+		finally {
+			if(fis != null) {
+				try {
+					fis.close();
+				}
+				catch(IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes this pyramid to the cache file of the provided audio file, keyed by the provided filter settings.
+	 *
+	 * The cache is first written to a temporary file and then moved into place, so an interrupted save never leaves a partial cache behind.
+	 *
+	 * @param audioFile The audio file this pyramid was made from
+	 * @param minBand The normalized lower band of the filter this pyramid was made with
+	 * @param maxBand The normalized upper band of the filter this pyramid was made with
+	 * @param bandpass Whether this pyramid was made from filtered samples
+	 * @throws IOException If the cache file cannot be written
+	 */
+	public void save(File audioFile, double minBand, double maxBand, boolean bandpass) throws IOException {
+		int size = 4 + 4 + 8 + 8 + 8 + 8 + 1 + 4 + 4;
+		for(int level = 0; level < numLevels(); level++) {
+			size += 4 + 3 * 2 * numBins(level);
+		}
+		ByteBuffer buf = ByteBuffer.allocate(size);
+		buf.putInt(magicNumber);
+		buf.putInt(formatVersion);
+		buf.putLong(audioFile.length());
+		buf.putLong(audioFile.lastModified());
+		buf.putDouble(minBand);
+		buf.putDouble(maxBand);
+		buf.put(bandpass ? (byte)1 : (byte)0);
+		buf.putInt(GUIConstants.zoomlessPixelsPerSecond);
+		buf.putInt(numLevels());
+		for(int level = 0; level < numLevels(); level++) {
+			buf.putInt(numBins(level));
+			buf.asShortBuffer().put(mins[level]);
+			buf.position(buf.position() + 2 * numBins(level));
+			buf.asShortBuffer().put(maxs[level]);
+			buf.position(buf.position() + 2 * numBins(level));
+			buf.asShortBuffer().put(rmss[level]);
+			buf.position(buf.position() + 2 * numBins(level));
+		}
+		buf.flip();
+
+		File cacheFile = cacheFileFor(audioFile);
+		File tmpFile = new File(cacheFile.getAbsolutePath() + "." + Constants.deletionTempFileExtension);
+		FileOutputStream fos = new FileOutputStream(tmpFile);
+		try {
+			FileChannel channel = fos.getChannel();
+			while(buf.hasRemaining()) {
+				channel.write(buf);
+			}
+		}
+		finally {
+			fos.close();
+		}
+		if(cacheFile.exists() && cacheFile.delete() == false) {
+			throw new IOException("could not delete old waveform cache");
+		}
+		if(tmpFile.renameTo(cacheFile) == false) {
+			throw new IOException("could not rename temporary waveform cache");
+		}
+	}
+
+	/**
+	 * Decodes the entire audio file once and summarizes it into a pyramid.
+	 *
+	 * Samples are streamed through an {@link EnvelopeExtractor}, so only a small block of them is held in memory at a time.
+	 * Building checks for interruption of the calling thread between blocks, and gives up if interrupted.
+	 *
+	 * @param audioFile The audio file to summarize
+	 * @param minBand The normalized lower band of the band-pass filter
+	 * @param maxBand The normalized upper band of the band-pass filter
+	 * @param bandpass Whether to filter the samples before summarizing them
+	 * @return The new pyramid, or <code>null</code> if the calling thread was interrupted
+	 * @throws IOException If the audio file cannot be read
+	 * @throws UnsupportedAudioFileException If Java Sound cannot decode the audio file
+	 */
+	public static WaveformPyramid build(File audioFile, double minBand, double maxBand, boolean bandpass) throws IOException, UnsupportedAudioFileException {
+		AudioInputStream ais = AudioSystem.getAudioInputStream(audioFile);
+		try {
+			return summarize(new AudioDoubleDataSource(ais), ais.getFormat().getFrameRate(), ais.getFrameLength(), minBand, maxBand, bandpass);
+		}
+		finally {
+			ais.close();
+		}
+	}
+
+	/**
+	 * Summarizes memory-mapped samples into a pyramid, exactly as {@link #build(File, double, double, boolean)} does for a decoded file.
+	 *
+	 * @param pcm The samples to summarize
+	 * @param minBand The normalized lower band of the band-pass filter
+	 * @param maxBand The normalized upper band of the band-pass filter
+	 * @param bandpass Whether to filter the samples before summarizing them
+	 * @return The new pyramid, or <code>null</code> if the calling thread was interrupted
+	 */
+	public static WaveformPyramid build(MappedPcmSource pcm, double minBand, double maxBand, boolean bandpass) {
+		return summarize(pcm.asDoubleDataSource(0, pcm.numFrames()), pcm.frameRate(), pcm.numFrames(), minBand, maxBand, bandpass);
+	}
+
+	private static WaveformPyramid summarize(DoubleDataSource source, double frameRate, long numFrames, double minBand, double maxBand, boolean bandpass) {
+		final double framesPerBin = frameRate / GUIConstants.zoomlessPixelsPerSecond;
+		final int numBins = (int)Math.ceil(numFrames / framesPerBin);
+
+		if(bandpass) {
+			source = new BandPassFilter(minBand, maxBand).apply(source);
+		}
+
+		//level 0 has one bin per zoomless pixel, the same reduction as an aggregating chunk
+		EnvelopeExtractor extractor = new EnvelopeExtractor(EnvelopeExtractor.Mode.AGGREGATE, numBins, framesPerBin, 0, 0);
+		if(extractor.extract(source, Long.MAX_VALUE) == false) {
+			return null;
+		}
+		short[] levelMins = quantize(extractor.getMins());
+		short[] levelMaxs = quantize(extractor.getMaxs());
+		short[] levelRmss = quantize(extractor.getRmss());
+
+		int numLevels = 1;
+		for(int n = numBins; n > 1 && numLevels < maxLevels; n = (n + 1) / 2) {
+			numLevels++;
+		}
+		short[][] mins = new short[numLevels][];
+		short[][] maxs = new short[numLevels][];
+		short[][] rmss = new short[numLevels][];
+		mins[0] = levelMins;
+		maxs[0] = levelMaxs;
+		rmss[0] = levelRmss;
+		for(int level = 1; level < numLevels; level++) {
+			short[] fineMins = mins[level - 1];
+			short[] fineMaxs = maxs[level - 1];
+			short[] fineRmss = rmss[level - 1];
+			int n = (fineMins.length + 1) / 2;
+			mins[level] = new short[n];
+			maxs[level] = new short[n];
+			rmss[level] = new short[n];
+			for(int i = 0; i < n; i++) {
+				int left = 2 * i;
+				int right = Math.min(left + 1, fineMins.length - 1);
+				mins[level][i] = (short)Math.min(fineMins[left], fineMins[right]);
+				maxs[level][i] = (short)Math.max(fineMaxs[left], fineMaxs[right]);
+				double leftRms = fineRmss[left];
+				double rightRms = fineRmss[right];
+				rmss[level][i] = (short)Math.sqrt((leftRms * leftRms + rightRms * rightRms) / 2);
+			}
+		}
+		return new WaveformPyramid(mins, maxs, rmss);
+	}
+
+	private static short[] quantize(double[] vals) {
+		short[] quantized = new short[vals.length];
+		for(int i = 0; i < vals.length; i++) {
+			quantized[i] = quantize(vals[i]);
+		}
+		return quantized;
+	}
+
+	private static short quantize(double val) {
+		double scaled = val * shortScale;
+		if(scaled > Short.MAX_VALUE) {
+			return Short.MAX_VALUE;
+		}
+		if(scaled < -Short.MAX_VALUE) {
+			return -Short.MAX_VALUE;
+		}
+		return (short)Math.round(scaled);
+	}
+
+	private static short[] readShorts(ByteBuffer buf, int num) {
+		short[] arr = new short[num];
+		buf.asShortBuffer().get(arr);
+		buf.position(buf.position() + 2 * num);
+		return arr;
+	}
+}
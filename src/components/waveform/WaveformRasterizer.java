@@ -0,0 +1,140 @@
+//    This file is part of Penn TotalRecall <http://memory.psych.upenn.edu/TotalRecall>.
+//
+//    TotalRecall is free software: you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation, version 3 only.
+//
+//    TotalRecall is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with TotalRecall.  If not, see <http://www.gnu.org/licenses/>.
+
+package components.waveform;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * Paints waveform images by writing pixels straight into the <code>int[]</code> raster of a <code>TYPE_INT_RGB</code> <code>BufferedImage</code>.
+ *
+ * A waveform is one vertical span per pixel column, which Java2D draws with a pair of <code>drawLine</code> calls (plus composite swaps when anti-aliasing).
+ * Filling the spans directly avoids the per-call pipeline validation and makes a chunk's waveform a single pass over its columns.
+ *
+ * Text is still drawn with the image's <code>Graphics</code>, which writes to the same raster.
+ *
+ * @author Yuvi Masory
+ */
+public class WaveformRasterizer {
+
+	private final int[] pixels;
+	private final int width;
+	private final int height;
+
+	/**
+	 * Creates an image the rasterizer can paint on.
+	 *
+	 * @param width The width of the image
+	 * @param height The height of the image
+	 * @return A new <code>TYPE_INT_RGB</code> image
+	 */
+	public static BufferedImage createImage(int width, int height) {
+		return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+	}
+
+	/**
+	 * Creates a rasterizer that paints on the provided image.
+	 *
+	 * @param image An image made by {@link #createImage(int, int)}
+	 */
+	public WaveformRasterizer(BufferedImage image) {
+		if(image.getType() != BufferedImage.TYPE_INT_RGB) {
+			throw new IllegalArgumentException("image must be TYPE_INT_RGB");
+		}
+		pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+		width = image.getWidth();
+		height = image.getHeight();
+	}
+
+	/**
+	 * Fills the whole image with one color.
+	 */
+	public void fill(Color color) {
+		Arrays.fill(pixels, color.getRGB() & 0xFFFFFF);
+	}
+
+	/**
+	 * Draws a one pixel horizontal line across the whole image.
+	 */
+	public void drawHorizontalLine(int y, Color color) {
+		if(y < 0 || y >= height) {
+			return;
+		}
+		int offset = y * width;
+		Arrays.fill(pixels, offset, offset + width, color.getRGB() & 0xFFFFFF);
+	}
+
+	/**
+	 * Draws a one pixel vertical line down the whole image.
+	 */
+	public void drawVerticalLine(int x, Color color) {
+		fillSpan(x, 0, height - 1, color.getRGB() & 0xFFFFFF);
+	}
+
+	/**
+	 * Draws a waveform as one vertical span per column, centered on the reference line at <code>height/2</code>.
+	 *
+	 * Column <code>i</code> spans from <code>(int)(height/2 - vals[i] * yScale)</code> to <code>(int)(height/2 + vals[i] * yScale)</code>, clipped to the image.
+	 * With anti-aliasing each span is also blended at half strength into the next column, so that the edges where the waveform shrinks are softened.
+	 *
+	 * @param vals The value of each column, columns beyond the image are ignored
+	 * @param yScale Pixels per unit of value
+	 * @param color The waveform color
+	 * @param antiAlias Whether to blend span edges into the next column
+	 */
+	public void drawWaveform(double[] vals, double yScale, Color color, boolean antiAlias) {
+		final int rgb = color.getRGB() & 0xFFFFFF;
+		final int refLinePos = height/2;
+		final int numColumns = Math.min(vals.length, width);
+		for(int i = 0; i < numColumns; i++) {
+			double scaledSample = vals[i] * yScale;
+			int topY = (int)(refLinePos - scaledSample);
+			int bottomY = (int)(refLinePos + scaledSample);
+			int y0 = Math.min(topY, bottomY);
+			int y1 = Math.max(topY, bottomY);
+			if(antiAlias && i + 1 < width) {
+				//the next column's own span is filled over this on the next iteration, leaving only the edge blended
+				blendSpan(i + 1, y0, y1, rgb);
+			}
+			fillSpan(i, y0, y1, rgb);
+		}
+	}
+
+	private void fillSpan(int x, int y0, int y1, int rgb) {
+		if(x < 0 || x >= width) {
+			return;
+		}
+		y0 = Math.max(0, y0);
+		y1 = Math.min(height - 1, y1);
+		for(int index = y0 * width + x, end = y1 * width + x; index <= end; index += width) {
+			pixels[index] = rgb;
+		}
+	}
+
+	/**
+	 * Averages the provided color into each pixel of the span, which is <code>SRC_OVER</code> compositing at alpha 0.5.
+	 */
+	private void blendSpan(int x, int y0, int y1, int rgb) {
+		y0 = Math.max(0, y0);
+		y1 = Math.min(height - 1, y1);
+		for(int index = y0 * width + x, end = y1 * width + x; index <= end; index += width) {
+			int dst = pixels[index];
+			//per-channel average without carries between channels
+			pixels[index] = ((dst & 0xFEFEFE) >>> 1) + ((rgb & 0xFEFEFE) >>> 1) + (dst & rgb & 0x010101);
+		}
+	}
+}
@@ -70,6 +70,9 @@ public class AudioMaster {
 	// computed
 	private double durationInSeconds;
 
+	// memory-mapped samples, or null if the file can only be read through Java Sound
+	private MappedPcmSource pcmSource;
+
 	/**
 	 * Incompatible file types are rejected, forcing error handling on whoever is instantiating the class.
 	 * 
@@ -120,6 +123,20 @@ public class AudioMaster {
 			throw new UnsupportedAudioFileException("Frame rate doesn't equal sample rate. Unsupported.");
 		}
 
+		try {
+			pcmSource = new MappedPcmSource(audioFile);
+			if(pcmSource.numFrames() != numSampleFrames) {
+				System.err.println("mapped " + pcmSource.numFrames() + " frames but Java Sound reports " + numSampleFrames);
+			}
+		}
+		catch(UnsupportedAudioFileException e) {
+			System.err.println("cannot map audio samples, falling back on Java Sound: " + e.getMessage());
+			pcmSource = null;
+		}
+		catch(IOException e) {
+			System.err.println("cannot map audio samples, falling back on Java Sound: " + e.getMessage());
+			pcmSource = null;
+		}
 	}
 
 
@@ -207,4 +224,13 @@ public class AudioMaster {
 	public AudioFile getAudioFile() {
 		return audioFile;
 	}
+
+	/**
+	 * Returns random access to the audio file's samples.
+	 * 
+	 * @return The memory-mapped samples, or <code>null</code> if the file isn't a plain PCM WAV file, in which case callers must decode the file with Java Sound
+	 */
+	public MappedPcmSource getPcmSource() {
+		return pcmSource;
+	}
 }
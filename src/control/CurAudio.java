@@ -44,6 +44,7 @@ import components.waveform.WaveformDisplay;
 import components.wordpool.WordpoolDisplay;
 import components.wordpool.WordpoolFileParser;
 
+import edu.upenn.psych.memory.javasoundplayer.JavaSoundPlayer;
 import edu.upenn.psych.memory.nativestatelessplayer.NativeStatelessPlayer;
 import edu.upenn.psych.memory.precisionplayer.PrecisionPlayer;
 
@@ -144,13 +145,17 @@ public class CurAudio {
 
 			// prepare playback			
 			PrecisionPlayer pp = null;
-			try {
-				pp = new NativeStatelessPlayer();
-			} 
-			catch (Throwable e1) {
-				e1.printStackTrace();
-				GiveMessage.errorMessage("Cannot load audio system.\nYou may need to reinstall " + Constants.programName + ".");
-				reset();
+			if(SysInfo.sys.javaSoundPlayback == false) {
+				try {
+					pp = new NativeStatelessPlayer();
+				} 
+				catch (Throwable e1) {
+					e1.printStackTrace();
+					System.err.println("cannot load native audio system, falling back on Java Sound");
+				}
+			}
+			if(pp == null) {
+				pp = new JavaSoundPlayer();
 			}
 			precisionListener = new MyPrecisionListener();
 			pp.addListener(precisionListener);
@@ -232,13 +237,23 @@ public class CurAudio {
 	 */
 	private static void reset() {		
 		AnnotationDisplay.removeAllAnnotations();
+
+		//write pending annotation and suggestion changes into the files being closed
+		try {
+			AnnotationFileParser.closeJournal();
+			SuggestionFileParser.closeJournal();
+		}
+		catch(IOException e) {
+			e.printStackTrace();
+			GiveMessage.errorMessage("Error saving annotations! Check files for damage.");
+		}
 		
 		//stop waveform display
 		WaveformDisplay.getInstance().stopRefreshes();
 		
-		//stop audio playback
+		//stop audio playback and release the audio device
 		if(player != null) {
-			player.stop();
+			player.kill();
 		}
 		
 		//try to terminate buffer
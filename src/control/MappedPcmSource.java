@@ -0,0 +1,233 @@
+//    This file is part of Penn TotalRecall <http://memory.psych.upenn.edu/TotalRecall>.
+//
+//    TotalRecall is free software: you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation, version 3 only.
+//
+//    TotalRecall is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with TotalRecall.  If not, see <http://www.gnu.org/licenses/>.
+
+package control;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import de.dfki.lt.signalproc.util.BaseDoubleDataSource;
+import de.dfki.lt.signalproc.util.DoubleDataSource;
+
+/**
+ * Random access to the samples of a 16-bit mono PCM WAV file, by way of a memory-mapped view of the file's data chunk.
+ *
+ * <p>The RIFF header is parsed once, when the source is created. After that any frame can be read in constant time,
+ * without opening, decoding or skipping through an <code>AudioInputStream</code>.
+ *
+ * <p>All reads use absolute indices into the shared buffer, so one source can be read from many threads at once.
+ *
+ * @author Yuvi Masory
+ */
+public class MappedPcmSource {
+
+	private static final int WAVE_FORMAT_PCM = 1;
+	private static final int WAVE_FORMAT_EXTENSIBLE = 0xFFFE;
+
+	/**
+	 * Divisor that maps 16-bit samples onto [-1, 1), as Java Sound based sources do.
+	 */
+	private static final double sampleScale = 32768.0;
+
+	private final ShortBuffer samples;
+	private final long numFrames;
+	private final float frameRate;
+
+	/**
+	 * Parses the header of the provided WAV file and maps its sample data into memory.
+	 *
+	 * @param file The WAV file
+	 * @throws IOException If the file cannot be read or mapped
+	 * @throws UnsupportedAudioFileException If the file is not a 16-bit mono PCM WAV file
+	 */
+	public MappedPcmSource(File file) throws IOException, UnsupportedAudioFileException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(channel, header, 0);
+			if(header.getInt(0) != fourCC("RIFF") || header.getInt(8) != fourCC("WAVE")) {
+				throw new UnsupportedAudioFileException("not a RIFF/WAVE file");
+			}
+
+			long pos = 12;
+			long dataOffset = -1;
+			long dataLength = -1;
+			int channels = -1;
+			int bitsPerSample = -1;
+			int sampleRate = -1;
+			ByteBuffer chunkHeader = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+			while(pos + 8 <= channel.size()) {
+				chunkHeader.clear();
+				readFully(channel, chunkHeader, pos);
+				int chunkId = chunkHeader.getInt(0);
+				long chunkSize = chunkHeader.getInt(4) & 0xFFFFFFFFL;
+				long chunkStart = pos + 8;
+				if(chunkId == fourCC("fmt ")) {
+					ByteBuffer fmt = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+					readFully(channel, fmt, chunkStart);
+					int formatTag = fmt.getShort(0) & 0xFFFF;
+					if(formatTag != WAVE_FORMAT_PCM && formatTag != WAVE_FORMAT_EXTENSIBLE) {
+						throw new UnsupportedAudioFileException("only linear PCM is supported");
+					}
+					channels = fmt.getShort(2);
+					sampleRate = fmt.getInt(4);
+					bitsPerSample = fmt.getShort(14);
+				}
+				else if(chunkId == fourCC("data")) {
+					dataOffset = chunkStart;
+					dataLength = Math.min(chunkSize, channel.size() - chunkStart);
+					break;
+				}
+				pos = chunkStart + chunkSize + (chunkSize % 2); //chunks are padded to even lengths
+			}
+
+			if(channels < 0 || dataOffset < 0) {
+				throw new UnsupportedAudioFileException("missing fmt or data chunk");
+			}
+			if(channels != 1) {
+				throw new UnsupportedAudioFileException("only mono audio is supported");
+			}
+			if(bitsPerSample != 16) {
+				throw new UnsupportedAudioFileException("only 16-bit audio is supported");
+			}
+			if(dataLength > Integer.MAX_VALUE) {
+				throw new UnsupportedAudioFileException("audio data too large to map");
+			}
+
+			MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset, dataLength);
+			data.order(ByteOrder.LITTLE_ENDIAN);
+			samples = data.asShortBuffer();
+			numFrames = samples.capacity();
+			frameRate = sampleRate;
+		}
+		finally {
+			raf.close(); //the mapping stays valid after the channel is closed
+		}
+	}
+
+	public long numFrames() {
+		return numFrames;
+	}
+
+	public float frameRate() {
+		return frameRate;
+	}
+
+	/**
+	 * Returns the raw sample of the provided frame.
+	 */
+	public short getSample(long frame) {
+		return samples.get((int)frame);
+	}
+
+	/**
+	 * Copies raw samples into the provided array, stopping early at the end of the audio.
+	 *
+	 * @param startFrame The first frame to copy
+	 * @param dest The destination array
+	 * @param offset The first index of <code>dest</code> to write
+	 * @param length The maximum number of frames to copy
+	 * @return The number of frames copied
+	 */
+	public int getSamples(long startFrame, short[] dest, int offset, int length) {
+		int num = (int)Math.max(0, Math.min(length, numFrames - startFrame));
+		if(num > 0) {
+			ShortBuffer view = samples.duplicate();
+			view.position((int)startFrame);
+			view.get(dest, offset, num);
+		}
+		return num;
+	}
+
+	/**
+	 * Returns a read-only view of the provided frames that shares memory with this source.
+	 *
+	 * @param startFrame The first frame of the view
+	 * @param length The maximum number of frames in the view
+	 * @return A <code>ShortBuffer</code> whose index 0 is <code>startFrame</code>
+	 */
+	public ShortBuffer slice(long startFrame, int length) {
+		int start = (int)Math.max(0, Math.min(startFrame, numFrames));
+		int end = (int)Math.min(numFrames, (long)start + length);
+		ShortBuffer view = samples.asReadOnlyBuffer();
+		view.position(start);
+		view.limit(end);
+		return view.slice();
+	}
+
+	/**
+	 * Returns a <code>DoubleDataSource</code> reading the provided frames, scaled into [-1, 1) the way <code>AudioDoubleDataSource</code> scales them.
+	 *
+	 * @param startFrame The first frame the source will return
+	 * @param length The maximum number of frames the source will return
+	 * @return A new data source, which should be used by only one thread
+	 */
+	public DoubleDataSource asDoubleDataSource(long startFrame, long length) {
+		return new MappedDoubleDataSource(startFrame, length);
+	}
+
+	private static int fourCC(String id) {
+		return (id.charAt(0)) | (id.charAt(1) << 8) | (id.charAt(2) << 16) | (id.charAt(3) << 24);
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buf, long pos) throws IOException {
+		while(buf.hasRemaining()) {
+			int numRead = channel.read(buf, pos + buf.position());
+			if(numRead < 0) {
+				throw new IOException("unexpected end of file");
+			}
+		}
+	}
+
+	private class MappedDoubleDataSource extends BaseDoubleDataSource {
+
+		private long nextFrame;
+		private final long endFrame;
+
+		private MappedDoubleDataSource(long startFrame, long length) {
+			this.nextFrame = Math.max(0, startFrame);
+			this.endFrame = Math.min(numFrames, nextFrame + length);
+			this.dataLength = endFrame - nextFrame;
+		}
+
+		@Override
+		public int getData(double[] target, int targetPos, int length) {
+			int num = (int)Math.min(length, endFrame - nextFrame);
+			for(int i = 0; i < num; i++) {
+				target[targetPos + i] = samples.get((int)(nextFrame + i)) / sampleScale;
+			}
+			nextFrame += num;
+			return num;
+		}
+
+		@Override
+		public boolean hasMoreData() {
+			return nextFrame < endFrame;
+		}
+
+		@Override
+		public int available() {
+			return (int)(endFrame - nextFrame);
+		}
+	}
+}
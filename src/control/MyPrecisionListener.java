@@ -18,18 +18,21 @@ import util.GiveMessage;
 import components.MyMenu;
 import components.MySplitPane;
 
+import edu.upenn.psych.memory.precisionplayer.PlaybackAnchor;
 import edu.upenn.psych.memory.precisionplayer.PrecisionEvent;
-import edu.upenn.psych.memory.precisionplayer.PrecisionListener;
+import edu.upenn.psych.memory.precisionplayer.TimestampedPrecisionListener;
 
 /**
  * Keeps display and actions up to date with audio playback.
  * 
  * @author Yuvi Masory
  */
-public class MyPrecisionListener implements PrecisionListener {
+public class MyPrecisionListener implements TimestampedPrecisionListener {
 	
 	private long greatestProgress;
 	private long lastProgress = -1;
+	
+	private volatile PlaybackAnchor anchor;
 
 	public MyPrecisionListener() {
 		greatestProgress = -1;
@@ -43,6 +46,20 @@ public class MyPrecisionListener implements PrecisionListener {
 		CurAudio.setAudioProgressWithoutUpdatingActions(frame);
 	}
 
+	public void progress(long frame, long nanoTime) {
+		anchor = new PlaybackAnchor(frame, nanoTime);
+		progress(frame);
+	}
+	
+	/**
+	 * Returns the latest timestamped progress report of the current main playback.
+	 * 
+	 * @return The latest anchor, or <code>null</code> if the player has not given one since playback started or stopped
+	 */
+	public PlaybackAnchor getAnchor() {
+		return anchor;
+	}
+
 	public void stateUpdated(PrecisionEvent pe) {
 		PrecisionEvent.EventCode code = pe.getCode();
 		switch(code) {
@@ -51,17 +68,20 @@ public class MyPrecisionListener implements PrecisionListener {
 				MySplitPane.getInstance().setContinuousLayout(false);
 				break;
 			case PLAYING:
+				anchor = null;
 				MyMenu.updateActions();
 				break;
 			case STOPPED:
 				//this may be a "pause" or a StopAction, no way to tell here
 				//handle stops in StopAction
+				anchor = null;
 				if(lastProgress > pe.getFrame()) {
 					System.err.println("last progress " + lastProgress + " comes after the current pause/stop " + pe.getFrame() + ". isn't that odd?");
 				}
 				MyMenu.updateActions();
 				break;
 			case EOM:
+				anchor = null;
 				offerGreatestProgress(pe.getFrame());
 				CurAudio.setAudioProgressAndUpdateActions(pe.getFrame());
 				if(CurAudio.getAudioProgress() != CurAudio.getMaster().durationInFrames() - 1) {
@@ -0,0 +1,229 @@
+//    This file is part of Penn TotalRecall <http://memory.psych.upenn.edu/TotalRecall>.
+//
+//    TotalRecall is free software: you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation, version 3 only.
+//
+//    TotalRecall is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with TotalRecall.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package edu.upenn.psych.memory.javasoundplayer;
+
+import info.SysInfo;
+
+import java.util.List;
+
+import javax.sound.sampled.SourceDataLine;
+
+import behaviors.UpdatingAction;
+
+import control.MappedPcmSource;
+import edu.upenn.psych.memory.precisionplayer.PlaybackAnchor;
+import edu.upenn.psych.memory.precisionplayer.PlaybackThread;
+import edu.upenn.psych.memory.precisionplayer.PrecisionEvent;
+import edu.upenn.psych.memory.precisionplayer.PrecisionListener;
+import edu.upenn.psych.memory.precisionplayer.PrecisionPlayer;
+import edu.upenn.psych.memory.precisionplayer.TimestampedPrecisionListener;
+
+/**
+ * Plays one interval of a <code>JavaSoundPlayer</code>'s file, writing it to the player's line block by block and reporting progress after each block.
+ * 
+ * @author Yuvi Masory
+ */
+public class JavaSoundPlaybackThread extends PlaybackThread {
+	
+	/**
+	 * Milliseconds between progress reports once every block has been written and the line is draining, and between reports when playing silently.
+	 */
+	private static final int pollMillis = 10;
+	
+	private final long startFrame;
+	private final long endFrame;
+	private final List<PrecisionListener> listeners;
+	private final MappedPcmSource pcm;
+	private final SourceDataLine line;
+	
+	private volatile boolean finish;
+	private volatile long basePosition;
+	private volatile long silentStartNanos;
+	
+	protected JavaSoundPlaybackThread(JavaSoundPlayer player, MappedPcmSource pcm, SourceDataLine line, long startFrame, long endFrame, List<PrecisionListener> listeners) {
+		super(player);
+		this.pcm = pcm;
+		this.line = line;
+		this.startFrame = startFrame;
+		this.endFrame = endFrame;
+		this.listeners = listeners;
+		this.finish = false;
+		this.basePosition = -1;
+		this.silentStartNanos = -1;
+	}
+
+	@Override
+	public void run() {
+		try {
+			play();
+		}
+		finally {
+			playbackFinished();
+		}
+	}
+	
+	private void play() {
+		try {
+			if(line == null) {
+				playSilently();
+			}
+			else {
+				playOnLine();
+			}
+			if(finish == false) {
+				if(line != null) {
+					line.stop();
+				}
+				if(listeners != null) {
+					//as with native playback, EOM is reported at the final frame
+					setPlayerStatus(PrecisionPlayer.Status.READY);
+					notifyEvent(PrecisionEvent.EventCode.EOM, endFrame, null);
+				}
+			}
+		}
+		catch(Throwable t) {
+			if(line != null) {
+				line.stop();
+				line.flush();
+			}
+			if(listeners != null) {
+				setPlayerStatus(PrecisionPlayer.Status.READY);
+				notifyEvent(PrecisionEvent.EventCode.ERROR, -1, t.getMessage());
+				t.printStackTrace();
+			}
+		}
+	}
+	
+	private void playOnLine() {
+		int blockFrames = Math.max(1, SysInfo.sys.jsExternalBufferSize / 2);
+		short[] samples = new short[blockFrames];
+		byte[] bytes = new byte[blockFrames * 2];
+		long numFrames = endFrame - startFrame;
+
+		//the line counts frames since it was opened, so progress is measured from where it stands now
+		line.flush();
+		basePosition = line.getLongFramePosition();
+		line.start();
+		long nextFrame = startFrame;
+		while(finish == false && nextFrame < endFrame) {
+			int numRead = pcm.getSamples(nextFrame, samples, 0, (int)Math.min(blockFrames, endFrame - nextFrame));
+			if(numRead <= 0) {
+				break;
+			}
+			for(int i = 0; i < numRead; i++) {
+				bytes[2 * i] = (byte)samples[i];
+				bytes[2 * i + 1] = (byte)(samples[i] >> 8);
+			}
+			//blocks while the line's buffer is full, returns early if the line is stopped
+			line.write(bytes, 0, numRead * 2);
+			nextFrame += numRead;
+			reportProgress(Math.min(numFrames, line.getLongFramePosition() - basePosition));
+		}
+		while(finish == false) {
+			long framesPlayed = line.getLongFramePosition() - basePosition;
+			if(framesPlayed >= numFrames || line.isActive() == false && line.available() == line.getBufferSize()) {
+				break;
+			}
+			reportProgress(framesPlayed);
+			sleepQuietly(pollMillis);
+		}
+	}
+	
+	private void playSilently() {
+		long numFrames = endFrame - startFrame;
+		silentStartNanos = System.nanoTime();
+		while(finish == false) {
+			long framesPlayed = silentFramesPlayed();
+			if(framesPlayed >= numFrames) {
+				break;
+			}
+			reportProgress(framesPlayed);
+			sleepQuietly(pollMillis);
+		}
+	}
+	
+	private long silentFramesPlayed() {
+		return (long)((System.nanoTime() - silentStartNanos) * (double)pcm.frameRate() / 1000000000L);
+	}
+	
+	private void reportProgress(long framesPlayed) {
+		long nanoTime = System.nanoTime();
+		UpdatingAction.getStamps().add(System.currentTimeMillis());
+		if(listeners == null || framesPlayed <= 0) {
+			return;
+		}
+		long curFrame = startFrame + framesPlayed;
+		for(PrecisionListener ppl: listeners) {
+			if(ppl instanceof TimestampedPrecisionListener) {
+				((TimestampedPrecisionListener)ppl).progress(curFrame, nanoTime);
+			}
+			else {
+				ppl.progress(curFrame);
+			}
+		}
+	}
+	
+	private static void sleepQuietly(long millis) {
+		try {
+			Thread.sleep(millis);
+		}
+		catch(InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Reads the hearing frame from the line, or from the clock when playing silently.
+	 * 
+	 * @return The position, or <code>null</code> if playback has not started or has been stopped
+	 */
+	protected PlaybackAnchor currentPosition() {
+		if(finish) {
+			return null;
+		}
+		long nanoTime = System.nanoTime();
+		long framesPlayed;
+		if(line == null) {
+			if(silentStartNanos < 0) {
+				return null;
+			}
+			framesPlayed = silentFramesPlayed();
+		}
+		else {
+			if(basePosition < 0) {
+				return null;
+			}
+			framesPlayed = line.getLongFramePosition() - basePosition;
+		}
+		return new PlaybackAnchor(startFrame + Math.max(0, Math.min(endFrame - startFrame, framesPlayed)), nanoTime);
+	}
+	
+	/**
+	 * Stops playback immediately, discarding the audio still buffered in the line.
+	 * 
+	 * @return The hearing frame, relative to start frame
+	 */
+	protected long stopPlayback() {
+		finish = true;
+		if(line == null) {
+			return silentStartNanos < 0 ? 0 : Math.min(endFrame - startFrame, silentFramesPlayed());
+		}
+		line.stop();
+		long framesPlayed = basePosition < 0 ? 0 : line.getLongFramePosition() - basePosition;
+		line.flush();
+		return Math.max(0, framesPlayed);
+	}
+}
@@ -0,0 +1,129 @@
+//    This file is part of Penn TotalRecall <http://memory.psych.upenn.edu/TotalRecall>.
+//
+//    TotalRecall is free software: you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation, version 3 only.
+//
+//    TotalRecall is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with TotalRecall.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package edu.upenn.psych.memory.javasoundplayer;
+
+import info.SysInfo;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.List;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.Mixer;
+import javax.sound.sampled.SourceDataLine;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import control.MappedPcmSource;
+import edu.upenn.psych.memory.precisionplayer.AbstractPrecisionPlayer;
+import edu.upenn.psych.memory.precisionplayer.PlaybackThread;
+import edu.upenn.psych.memory.precisionplayer.PrecisionListener;
+
+/**
+ * <code>PrecisionPlayer</code> that renders audio through a Java Sound <code>SourceDataLine</code>, needing no native libraries.
+ * 
+ * Samples are read straight from a memory-mapped view of the file, see <code>MappedPcmSource</code>, and written to the line in small blocks.
+ * The line is opened once per file with a small buffer, {@link info.SysInfo#jsInternalBufferSize}, and kept open between playbacks,
+ * so starting playback is only a matter of writing the first block.
+ * Progress is the line's own count of frames rendered, <code>getLongFramePosition()</code>, so it is exact to the frame, less whatever latency the mixer adds below the line.
+ * 
+ * If no line is available, e.g. on a headless machine with no mixers, playback proceeds silently in real time so the rest of the program still works.
+ * 
+ * @author Yuvi Masory
+ */
+public class JavaSoundPlayer extends AbstractPrecisionPlayer {
+	
+	private MappedPcmSource pcm;
+	private SourceDataLine line;
+	
+
+	/**
+	 * Creates an new player, with status <code>BUSY</code>.
+	 */
+	public JavaSoundPlayer() {
+		super(SysInfo.sys.playerEventsOnEventDispatchThread);
+	}
+	
+
+	protected long openDevice(File audioFile) throws FileNotFoundException,	IOException, UnsupportedAudioFileException {
+		if(audioFile.exists() == false) {
+			throw new FileNotFoundException(audioFile.getPath());
+		}
+		pcm = new MappedPcmSource(audioFile);
+		line = openLine(new AudioFormat(pcm.frameRate(), 16, 1, true, false));
+		return pcm.numFrames();
+	}
+	
+	protected PlaybackThread createPlaybackThread(long startFrame, long endFrame, List<PrecisionListener> listeners) {
+		return new JavaSoundPlaybackThread(this, pcm, line, startFrame, endFrame, listeners);
+	}
+	
+	protected void closeDevice() {
+		if(line != null) {
+			line.close();
+			line = null;
+		}
+	}
+	
+	
+	/* custom methods */
+	
+	
+	/**
+	 * Opens a line for the provided format, from the default mixer or the first mixer that supports it, according to {@link info.SysInfo#preferDefaultJSMixerLine}.
+	 * 
+	 * @param format The format of the samples to be written
+	 * @return The open line, or <code>null</code> if no mixer can provide one
+	 */
+	private static SourceDataLine openLine(AudioFormat format) {
+		DataLine.Info info = new DataLine.Info(SourceDataLine.class, format);
+		try {
+			SourceDataLine line = null;
+			if(SysInfo.sys.preferDefaultJSMixerLine) {
+				line = (SourceDataLine) AudioSystem.getLine(info);
+			}
+			else {
+				for(Mixer.Info mixerInfo: AudioSystem.getMixerInfo()) {
+					Mixer mixer = AudioSystem.getMixer(mixerInfo);
+					if(mixer.isLineSupported(info)) {
+						line = (SourceDataLine) mixer.getLine(info);
+						break;
+					}
+				}
+				if(line == null) {
+					throw new LineUnavailableException("no mixer supports " + format);
+				}
+			}
+			if(SysInfo.sys.jsInternalBufferSize > 0) {
+				line.open(format, SysInfo.sys.jsInternalBufferSize);
+			}
+			else {
+				line.open(format);
+			}
+			return line;
+		}
+		catch(LineUnavailableException e) {
+			System.err.println("no Java Sound line available, playback will be silent: " + e.getMessage());
+		}
+		catch(IllegalArgumentException e) {
+			System.err.println("no Java Sound line available, playback will be silent: " + e.getMessage());
+		}
+		return null;
+	}
+}
@@ -14,6 +14,8 @@
 
 package edu.upenn.psych.memory.nativestatelessplayer;
 
+import java.nio.ByteBuffer;
+
 import com.sun.jna.Native;
 
 
@@ -81,6 +83,61 @@ public final class LibPennTotalRecall {
 	 */
 	public native boolean playbackInProgress();
 	
+	/**
+	 * Opens the output device and the audio file once, so that many playbacks of the file can follow without reopening either.
+	 * 
+	 * While the engine is open, use <code>enginePlay()</code> and <code>engineStop()</code> in place of <code>startPlayback()</code> and <code>stopPlayback()</code>.
+	 * <code>streamPosition()</code> and <code>playbackInProgress()</code> work as usual.
+	 * 
+	 * 0 return value indicates the engine is open.
+	 * Negative return values indicate an error, with the same codes as <code>startPlayback()</code>.
+	 * 
+	 * @param canonicalPath File path
+	 * @return Return-code, see above
+	 */
+	public native int openEngine(String canonicalPath);
+	
+	/**
+	 * Tells the open engine to playback audio immediately, stopping any playback already in progress.
+	 * 
+	 * Only seeks and schedules the already open stream, so starts with much less latency than <code>startPlayback()</code>.
+	 * 
+	 * @param startFrame First frame of audio in the file to render
+	 * @param endFrame Last frame of audio in the file to render
+	 * @return Return-code, see <code>startPlayback()</code>, and -5 if the file cannot be seeked
+	 */
+	public native int enginePlay(long startFrame, long endFrame);
+	
+	/**
+	 * Tells the open engine to stop audio playback immediately, leaving the device and file open.
+	 * 
+	 * @return The hearing frame, relative to start frame, or -1 if audio not playing
+	 */
+	public native long engineStop();
+	
+	/**
+	 * Releases the output device and audio file held by <code>openEngine()</code>.
+	 * 
+	 * Safe to call when the engine is not open.
+	 */
+	public native void closeEngine();
+	
+	/**
+	 * Hands the open engine a direct buffer to publish its mixer position in, see <code>PositionBuffer</code>.
+	 * 
+	 * The buffer must stay reachable until <code>closeEngine()</code> is called.
+	 * 
+	 * @param buffer A direct, native-order buffer
+	 * @param size The size of the buffer in bytes
+	 * @return 0 if the buffer is attached, negative if the engine is not open or cannot count its mixed frames
+	 */
+	public native int attachPositionBuffer(ByteBuffer buffer, int size);
+	
+	/**
+	 * Returns the mixer count, as published in the position buffer, at which the latest <code>enginePlay()</code> is scheduled to be heard.
+	 */
+	public native long engineStartClock();
+	
 	/**
 	 * Returns the version of the native library being used.
 	 */
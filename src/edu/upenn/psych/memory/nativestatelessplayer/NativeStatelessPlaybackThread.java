@@ -22,40 +22,71 @@ import java.util.List;
 
 import behaviors.UpdatingAction;
 
+import edu.upenn.psych.memory.precisionplayer.PlaybackAnchor;
+import edu.upenn.psych.memory.precisionplayer.PlaybackThread;
 import edu.upenn.psych.memory.precisionplayer.PrecisionEvent;
-import edu.upenn.psych.memory.precisionplayer.PrecisionEventLauncher;
 import edu.upenn.psych.memory.precisionplayer.PrecisionListener;
 import edu.upenn.psych.memory.precisionplayer.PrecisionPlayer;
+import edu.upenn.psych.memory.precisionplayer.TimestampedPrecisionListener;
 
-public class NativeStatelessPlaybackThread extends Thread {
+public class NativeStatelessPlaybackThread extends PlaybackThread {
+	
+	/**
+	 * Milliseconds between progress reports when positions are read from a <code>PositionBuffer</code>.
+	 * Displays read the buffer themselves, so these reports only need to keep FMOD updating and catch the end of playback.
+	 */
+	private static final int bufferedPollMillis = 100;
 	
 	private final long startFrame;
 	private final long endFrame;
 	private final List<PrecisionListener> listeners;
-	private final NativeStatelessPlayer myPlayer;
 	private final File audioFile;
 	private LibPennTotalRecall myLib;
+	private final boolean useEngine;
+	private final PositionBuffer positionBuffer;
 	
 	private volatile boolean finish;
+	private volatile long startClock;
 	
-	protected NativeStatelessPlaybackThread(LibPennTotalRecall lib, NativeStatelessPlayer player, File file, long startFrame, long endFrame, List<PrecisionListener> listeners) {
+	protected NativeStatelessPlaybackThread(LibPennTotalRecall lib, NativeStatelessPlayer player, File file, long startFrame, long endFrame, List<PrecisionListener> listeners, boolean useEngine, PositionBuffer positionBuffer) {
+		super(player);
 		this.audioFile = file;
 		this.listeners = listeners;
 		this.startFrame = startFrame;
 		this.endFrame = endFrame;
-		this.myPlayer = player;
 		this.myLib = lib;
+		this.useEngine = useEngine;
+		this.positionBuffer = useEngine ? positionBuffer : null;
 		this.finish = false;
+		this.startClock = Long.MAX_VALUE;
 	}
 
 	@Override
 	public void run() {
 		try {
+			play();
+		}
+		finally {
+			playbackFinished();
+		}
+	}
+	
+	private void play() {
+		try {
 //			System.out.println(getClass().getName() + ": " + startFrame + " to " + endFrame);
-			int returnCode = myLib.startPlayback(audioFile.getAbsolutePath(), startFrame, endFrame);
+			int returnCode;
+			if(useEngine) {
+				returnCode = myLib.enginePlay(startFrame, endFrame);
+				if(positionBuffer != null) {
+					startClock = myLib.engineStartClock();
+				}
+			}
+			else {
+				returnCode = myLib.startPlayback(audioFile.getAbsolutePath(), startFrame, endFrame);
+			}
 
 			if(returnCode < 0) {
-				myLib.stopPlayback();
+				stopNative();
 				String message = "Unable to start playback.\n";
 				switch(returnCode) {
 				case(-2): 
@@ -82,9 +113,8 @@ public class NativeStatelessPlaybackThread extends Thread {
 					break;
 				}
 				if(listeners != null) {
-					myPlayer.setStatus(PrecisionPlayer.Status.READY);
-					PrecisionEventLauncher trigger = new PrecisionEventLauncher(PrecisionEvent.EventCode.ERROR, -1, message, listeners);
-					trigger.start();
+					setPlayerStatus(PrecisionPlayer.Status.READY);
+					notifyEvent(PrecisionEvent.EventCode.ERROR, -1, message);
 					return;
 				}
 			}
@@ -92,9 +122,23 @@ public class NativeStatelessPlaybackThread extends Thread {
 
 
 			while(finish == false) {
-				long framesElapsed = myLib.streamPosition();				
+				long framesElapsed;
+				long positionNanos;
+				if(positionBuffer != null) {
+					myLib.streamPosition(); //only to keep FMOD's system updating, the position comes from the buffer
+					PlaybackAnchor anchor = currentPosition();
+					framesElapsed = anchor == null ? 0 : anchor.getFrame() - startFrame;
+					positionNanos = anchor == null ? System.nanoTime() : anchor.getNanoTime();
+				}
+				else {
+					//timestamp the position at the middle of the native call
+					long beforeNanos = System.nanoTime();
+					framesElapsed = myLib.streamPosition();				
+					positionNanos = beforeNanos + (System.nanoTime() - beforeNanos) / 2;
+				}
 				long curFrame = framesElapsed + startFrame;				
-				if(curFrame >= endFrame) {
+				//buffered positions stop at endFrame, and FMOD ends the channel itself at its scheduled end
+				if(curFrame >= endFrame && positionBuffer == null) {
 					if(curFrame > Integer.MAX_VALUE) {
 						//apparently this is a result of FMOD code currently not self-stopping, Issue 11
 						System.err.println("applying FMOD last-frame-is-huge workaround");
@@ -108,7 +152,12 @@ public class NativeStatelessPlaybackThread extends Thread {
 				if(listeners != null) {
 					if(framesElapsed > 0) {
 						for(PrecisionListener ppl: listeners) {
-							ppl.progress(curFrame);
+							if(ppl instanceof TimestampedPrecisionListener) {
+								((TimestampedPrecisionListener)ppl).progress(curFrame, positionNanos);
+							}
+							else {
+								ppl.progress(curFrame);
+							}
 						}
 					}
 				}
@@ -125,36 +174,40 @@ public class NativeStatelessPlaybackThread extends Thread {
 				}
 				try {
 					UpdatingAction.getStamps().add(System.currentTimeMillis());
-					Thread.sleep(30);
+					if(positionBuffer != null) {
+						long millisLeft = (long)((endFrame - curFrame) * 1000 / positionBuffer.getInputRate());
+						Thread.sleep(Math.max(1, Math.min(bufferedPollMillis, millisLeft)));
+					}
+					else {
+						Thread.sleep(30);
+					}
 				}
 				catch(InterruptedException e) {
 					e.printStackTrace();
 				}
 			}
 			if(finish == false) {
-				myLib.stopPlayback(); //this is EOM. we must still call stopPlayback() to close the native stream 
+				stopNative(); //this is EOM. we must still call stopPlayback() to close the native stream 
 				if(listeners != null) {					
 					//there is no way to guarantee the hearing frame at this line is actually the final frame
 					//however, PrecisionPlayer requires EOM events report that they occur at the final frame, so we oblige
-					myPlayer.setStatus(PrecisionPlayer.Status.READY);
-					PrecisionEventLauncher trigger = new PrecisionEventLauncher(PrecisionEvent.EventCode.EOM, endFrame, null, listeners);
-					trigger.start();
+					setPlayerStatus(PrecisionPlayer.Status.READY);
+					notifyEvent(PrecisionEvent.EventCode.EOM, endFrame, null);
 				}
 			}
 		}
 		catch(Throwable t) {
 
 			try {
-				myLib.stopPlayback();
+				stopNative();
 			}
 			catch(Throwable t2) {
 				t2.printStackTrace();
 			}
 
 			if(listeners != null) {
-				myPlayer.setStatus(PrecisionPlayer.Status.READY);
-				PrecisionEventLauncher trigger = new PrecisionEventLauncher(PrecisionEvent.EventCode.ERROR, -1, t.getMessage(), listeners);
-				trigger.start();
+				setPlayerStatus(PrecisionPlayer.Status.READY);
+				notifyEvent(PrecisionEvent.EventCode.ERROR, -1, t.getMessage());
 				t.printStackTrace();
 			}
 		}
@@ -171,7 +224,29 @@ public class NativeStatelessPlaybackThread extends Thread {
 	
 	protected long stopPlayback() {
 		finish = true;		
-		long stopFrame = myLib.stopPlayback();
+		long stopFrame = stopNative();
 		return stopFrame;
 	}
+	
+	/**
+	 * Reads the hearing frame from the position buffer, without calling into the native library.
+	 * 
+	 * @return The position, or <code>null</code> if this thread reads no buffer or playback has not yet been heard
+	 */
+	protected PlaybackAnchor currentPosition() {
+		if(positionBuffer == null || finish) {
+			return null;
+		}
+		return positionBuffer.anchor(startClock, startFrame, endFrame);
+	}
+	
+	/**
+	 * Stops native playback, closing the native stream unless it belongs to the player's open engine.
+	 */
+	private long stopNative() {
+		if(useEngine) {
+			return myLib.engineStop();
+		}
+		return myLib.stopPlayback();
+	}
 }
@@ -0,0 +1,121 @@
+//    This file is part of Penn TotalRecall <http://memory.psych.upenn.edu/TotalRecall>.
+//
+//    TotalRecall is free software: you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation, version 3 only.
+//
+//    TotalRecall is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with TotalRecall.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package edu.upenn.psych.memory.nativestatelessplayer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import edu.upenn.psych.memory.precisionplayer.PlaybackAnchor;
+
+/**
+ * Direct memory shared with libpenntotalrecall, through which the native mixer publishes how many frames it has mixed.
+ * 
+ * Once attached with <code>LibPennTotalRecall.attachPositionBuffer()</code>, the native library updates the buffer on its own mixer thread once per mix block,
+ * so the playback position can be read here at any rate without a native call.
+ * 
+ * The layout is three native-order <code>long</code> slots:
+ * a sequence number, odd while the native side is writing, the number of output frames mixed since the engine opened, and the output frame rate.
+ * Reads retry until they see the same even sequence number on both sides of the frame count.
+ * 
+ * @author Yuvi Masory
+ */
+public class PositionBuffer {
+
+	/**
+	 * Size of the buffer in bytes.
+	 */
+	public static final int size = 64;
+
+	private static final int sequenceOffset = 0;
+	private static final int mixedFramesOffset = 8;
+	private static final int outputRateOffset = 16;
+
+	private final ByteBuffer buffer;
+	private final double inputRate;
+
+	private long lastMixedFrames;
+	private long lastChangeNanos;
+
+	/**
+	 * Allocates an unattached buffer.
+	 * 
+	 * @param inputRate The frame rate of the audio file
+	 */
+	public PositionBuffer(double inputRate) {
+		this.inputRate = inputRate;
+		buffer = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+		lastMixedFrames = -1;
+		lastChangeNanos = 0;
+	}
+
+	/**
+	 * @return The direct buffer to hand to the native library
+	 */
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * @return The frame rate of the audio file
+	 */
+	public double getInputRate() {
+		return inputRate;
+	}
+
+	/**
+	 * Reads the native mixer's frame count.
+	 * 
+	 * @return Output frames mixed since the engine opened
+	 */
+	public long readMixedFrames() {
+		while(true) {
+			long before = buffer.getLong(sequenceOffset);
+			if((before & 1) == 0) {
+				long mixedFrames = buffer.getLong(mixedFramesOffset);
+				if(buffer.getLong(sequenceOffset) == before) {
+					return mixedFrames;
+				}
+			}
+			Thread.yield();
+		}
+	}
+
+	/**
+	 * Computes the hearing frame of a playback.
+	 * 
+	 * The count only moves once per mix block, so the anchor is timed at the moment the count was first seen to change,
+	 * and can be extrapolated from there between blocks.
+	 * 
+	 * @param startClock The mixer count at which the playback was scheduled to start, from <code>LibPennTotalRecall.engineStartClock()</code>
+	 * @param startFrame The first frame of the playback
+	 * @param endFrame The frame at which the playback ends
+	 * @return The hearing frame, or <code>null</code> if the playback has not started yet
+	 */
+	public synchronized PlaybackAnchor anchor(long startClock, long startFrame, long endFrame) {
+		long mixedFrames = readMixedFrames();
+		long now = System.nanoTime();
+		if(mixedFrames != lastMixedFrames) {
+			lastMixedFrames = mixedFrames;
+			lastChangeNanos = now;
+		}
+		if(mixedFrames < startClock) {
+			return null;
+		}
+		long outputRate = buffer.getLong(outputRateOffset);
+		long framesPlayed = (long)((mixedFrames - startClock) * inputRate / outputRate);
+		return new PlaybackAnchor(Math.min(endFrame, startFrame + framesPlayed), lastChangeNanos);
+	}
+}
@@ -0,0 +1,350 @@
+//    This file is part of Penn TotalRecall <http://memory.psych.upenn.edu/TotalRecall>.
+//
+//    TotalRecall is free software: you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation, version 3 only.
+//
+//    TotalRecall is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with TotalRecall.  If not, see <http://www.gnu.org/licenses/>.
+
+package edu.upenn.psych.memory.precisionplayer;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * <code>PrecisionPlayer</code> that plays each interval on its own {@link PlaybackThread}, on an audio device held open between playbacks.
+ *
+ * Keeps track of main and short-interval playback, queues requests that arrive while an earlier playback is finishing in a {@link PlaybackQueue},
+ * and notifies listeners in order through a {@link PrecisionEventDispatcher}.
+ * Subclasses only open and close the device, and create the threads that play on it.
+ *
+ * @author Yuvi Masory
+ */
+public abstract class AbstractPrecisionPlayer implements PrecisionPlayer, PositionSource {
+
+	private volatile PrecisionPlayer.Status status;
+
+	private final List<PrecisionListener> listeners;
+
+	private volatile boolean opened;
+	private long lastFrame;
+	private long previousStartFrame;
+
+	private volatile PlaybackThread mainThread;
+	private PlaybackThread shortThread;
+	private final PlaybackQueue queue = new PlaybackQueue();
+	private final PrecisionEventDispatcher dispatcher;
+
+
+	/**
+	 * Creates an new player, with status <code>BUSY</code>.
+	 *
+	 * @param eventsOnEventDispatchThread Whether listeners are notified on the AWT event dispatch thread, see {@link PrecisionEventDispatcher}
+	 */
+	protected AbstractPrecisionPlayer(boolean eventsOnEventDispatchThread) {
+		status = PrecisionPlayer.Status.BUSY;
+		listeners = new ArrayList<PrecisionListener>();
+		dispatcher = new PrecisionEventDispatcher(eventsOnEventDispatchThread);
+	}
+
+
+	/**
+	 * Opens the device for the provided file, closing the device of any file opened earlier.
+	 *
+	 * @param audioFile The audio file
+	 * @return The number of frames in the file
+	 */
+	protected abstract long openDevice(File audioFile) throws FileNotFoundException, IOException, UnsupportedAudioFileException;
+
+	/**
+	 * Releases the device, if it is open. No playback thread is running when this is called.
+	 */
+	protected abstract void closeDevice();
+
+	/**
+	 * Creates, but does not start, a thread to play the provided interval on the open device.
+	 *
+	 * @param startFrame The first frame to play
+	 * @param endFrame The frame after the last one to play
+	 * @param listeners The listeners to report progress to, or <code>null</code> for a short interval
+	 * @return The new thread
+	 */
+	protected abstract PlaybackThread createPlaybackThread(long startFrame, long endFrame, List<PrecisionListener> listeners);
+
+
+	public void open(String fileName) throws FileNotFoundException,	IOException, UnsupportedAudioFileException {
+		opened = false;
+		waitForPlayback();
+		closeDevice();
+		lastFrame = openDevice(new File(fileName)) - 1;
+		opened = true;
+		status = PrecisionPlayer.Status.READY;
+		notifyEvent(PrecisionEvent.EventCode.OPENED, -1, null);
+	}
+
+
+	private synchronized void playAt(long startFrame, long endFrame, List<PrecisionListener> players) {
+		try {
+			if(startFrame < 0) {
+				startFrame = 0;
+			}
+			if(endFrame > lastFrame + 1) {
+				endFrame = lastFrame + 1;
+			}
+			if(endFrame <= startFrame) {
+				System.err.println("endFrame cannot be <= startFrame (" + endFrame + ", " + startFrame + ")");
+				return;
+			}
+			if(opened) {
+				if((mainThread == null || mainThread.isAlive() == false) && (shortThread == null || shortThread.isAlive() == false)) {
+
+					PlaybackThread thread = createPlaybackThread(startFrame, endFrame, players);
+
+					if(players != null) {
+						previousStartFrame = startFrame;
+						mainThread = thread;
+						status = PrecisionPlayer.Status.PLAYING;
+						mainThread.start();
+						notifyEvent(PrecisionEvent.EventCode.PLAYING, startFrame, null);
+					}
+					else {
+						shortThread = thread;
+						shortThread.start();
+					}
+				}
+				else if(status == PrecisionPlayer.Status.PLAYING) {
+					System.err.println("I won't start another playback when main playback is in progress");
+				}
+				else {
+					//a short interval is still playing, or a stopped playback is winding down, so play once it ends on the same open device
+					queue.offer(new PlaybackQueue.Request(startFrame, endFrame, players != null));
+				}
+			}
+			else {
+				System.err.println("you must open() a player before calling a play function");
+			}
+		}
+		catch(Throwable t) {
+			notifyEvent(PrecisionEvent.EventCode.ERROR, -1, t.getMessage());
+		}
+	}
+
+
+	public long stop() {
+		try {
+			if(opened && status == PrecisionPlayer.Status.PLAYING) {
+				if(mainThread != null) {
+					//whatever was waiting on this playback is no longer wanted
+					queue.clear();
+					long framesPlayed = mainThread.stopPlayback();
+					long absoluteFrame = previousStartFrame + framesPlayed;
+					status = PrecisionPlayer.Status.READY;
+					notifyEvent(PrecisionEvent.EventCode.STOPPED, absoluteFrame, null);
+					return absoluteFrame;
+				}
+				else {
+					return -1;
+				}
+			}
+			else {
+				return -1;
+			}
+		}
+		catch(Throwable t) {
+			t.printStackTrace();
+		}
+		return -1;
+	}
+
+	public void kill() {
+		queue.clear();
+		stop();
+		waitForPlayback();
+		closeDevice();
+		dispatcher.shutdown();
+	}
+
+
+
+	/* simple overridable functions */
+
+
+	public void playAt(long frame) throws IllegalArgumentException {
+		playAt(frame, lastFrame);
+	}
+
+	public void playAt(long startFrame, long endFrame) throws IllegalArgumentException {
+		playAt(startFrame, endFrame, listeners);
+	}
+
+	public void playShortInterval(long startFrame, long endFrame) throws IllegalArgumentException {
+		playAt(startFrame, endFrame, null);
+	}
+
+	public PrecisionPlayer.Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * Adds a new listener to receive updates from this player.
+	 *
+	 * @param listener The listener to receive events
+	 */
+	public void addListener(PrecisionListener listener) {
+		listeners.add(listener);
+	}
+
+	/* default/empty but overridable implementations */
+
+
+	/**
+	 * Program currently has no volume slider, so just return false.
+	 */
+	public boolean isLoudnessControlSupported() {
+		return false;
+	}
+
+	public int getLoudness() {
+		return 100;
+	}
+
+	public void setLoudness(int loudness) {}
+	public void queueShortInterval(long startFrame, long endFrame) {}
+	public void queuePlayAt(long frame) {}
+
+
+	/* custom methods */
+
+
+	/**
+	 * Waits for any playback thread to finish with the device, e.g. after a stop, before it is closed.
+	 */
+	private void waitForPlayback() {
+		try {
+			PlaybackThread thread = mainThread;
+			if(thread != null) {
+				thread.join(1000);
+			}
+			thread = shortThread;
+			if(thread != null) {
+				thread.join(1000);
+			}
+		}
+		catch(InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Reads the hearing frame of main playback from its thread.
+	 *
+	 * @return The position, or <code>null</code> if main playback is not in progress or its thread cannot tell
+	 */
+	public PlaybackAnchor currentPosition() {
+		PlaybackThread thread = mainThread;
+		if(status != PrecisionPlayer.Status.PLAYING || thread == null) {
+			return null;
+		}
+		return thread.currentPosition();
+	}
+
+	/**
+	 * @return The number of playback requests queued behind an earlier playback, as in {@link PlaybackQueue#getNumQueued()}
+	 */
+	public long getNumQueued() {
+		return queue.getNumQueued();
+	}
+
+	/**
+	 * @return The number of playback requests merged into a queued request, as in {@link PlaybackQueue#getNumMerged()}
+	 */
+	public long getNumMerged() {
+		return queue.getNumMerged();
+	}
+
+	/**
+	 * @return The number of queued playback requests dropped because the queue was full, as in {@link PlaybackQueue#getNumDropped()}
+	 */
+	public long getNumDropped() {
+		return queue.getNumDropped();
+	}
+
+	/**
+	 * @return The number of events waiting to be delivered to listeners, as in {@link PrecisionEventDispatcher#getQueueDepth()}
+	 */
+	public int getEventQueueDepth() {
+		return dispatcher.getQueueDepth();
+	}
+
+	/**
+	 * @return The largest number of events that have been waiting at once, as in {@link PrecisionEventDispatcher#getMaxQueueDepth()}
+	 */
+	public int getMaxEventQueueDepth() {
+		return dispatcher.getMaxQueueDepth();
+	}
+
+	/**
+	 * @return The number of events delivered to listeners, as in {@link PrecisionEventDispatcher#getNumDelivered()}
+	 */
+	public long getNumEventsDelivered() {
+		return dispatcher.getNumDelivered();
+	}
+
+	/**
+	 * @return The mean nanoseconds from an event being raised to its delivery, as in {@link PrecisionEventDispatcher#getMeanLatencyNanos()}
+	 */
+	public long getMeanEventLatencyNanos() {
+		return dispatcher.getMeanLatencyNanos();
+	}
+
+	/**
+	 * @return The longest nanoseconds from an event being raised to its delivery, as in {@link PrecisionEventDispatcher#getMaxLatencyNanos()}
+	 */
+	public long getMaxEventLatencyNanos() {
+		return dispatcher.getMaxLatencyNanos();
+	}
+
+	/**
+	 * Called by a playback thread as it ends, to start the next queued request.
+	 *
+	 * @param thread The thread that is ending
+	 */
+	synchronized void playbackFinished(PlaybackThread thread) {
+		if(thread == mainThread) {
+			mainThread = null;
+		}
+		if(thread == shortThread) {
+			shortThread = null;
+		}
+		PlaybackQueue.Request next = queue.poll();
+		if(next != null) {
+			playAt(next.getStartFrame(), next.getEndFrame(), next.isMain() ? listeners : null);
+		}
+	}
+
+	/**
+	 * Queues notification of listeners, which happens in order on the dispatcher's thread.
+	 *
+	 * @param code The event code
+	 * @param frame The audio frame of the event
+	 */
+	protected void notifyEvent(PrecisionEvent.EventCode code, long frame, String errorMessage) {
+		dispatcher.dispatch(code, frame, errorMessage, listeners);
+	}
+
+
+	public void setStatus(Status status) {
+		this.status = status;
+	}
+}
@@ -0,0 +1,75 @@
+//    This file is part of Penn TotalRecall <http://memory.psych.upenn.edu/TotalRecall>.
+//
+//    TotalRecall is free software: you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation, version 3 only.
+//
+//    TotalRecall is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with TotalRecall.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package edu.upenn.psych.memory.precisionplayer;
+
+/**
+ * A frame of main playback paired with the <code>System.nanoTime()</code> at which it was heard.
+ * 
+ * Since playback proceeds at the audio's frame rate, the hearing frame at any later moment can be extrapolated from one anchor,
+ * without polling the player. Anchors are immutable, so they can be handed between threads through a volatile field.
+ * 
+ * @author Yuvi Masory
+ */
+public final class PlaybackAnchor {
+
+	private final long frame;
+	private final long nanoTime;
+
+	/**
+	 * Creates an anchor.
+	 * 
+	 * @param frame The hearing frame
+	 * @param nanoTime The <code>System.nanoTime()</code> at which <code>frame</code> was the hearing frame
+	 */
+	public PlaybackAnchor(long frame, long nanoTime) {
+		this.frame = frame;
+		this.nanoTime = nanoTime;
+	}
+
+	public long getFrame() {
+		return frame;
+	}
+
+	public long getNanoTime() {
+		return nanoTime;
+	}
+
+	/**
+	 * Predicts the hearing frame at another moment, assuming playback has continued uninterrupted since the anchor.
+	 * 
+	 * @param atNanoTime The moment, from <code>System.nanoTime()</code>
+	 * @param frameRate The audio's frames per second
+	 * @return The predicted hearing frame
+	 */
+	public long extrapolate(long atNanoTime, double frameRate) {
+		return frame + (long)((atNanoTime - nanoTime) * frameRate / 1000000000L);
+	}
+
+	/**
+	 * @return Nanoseconds from the anchor to the provided moment
+	 */
+	public long age(long atNanoTime) {
+		return atNanoTime - nanoTime;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return "PlaybackAnchor: frame " + frame + " at " + nanoTime + " ns";
+	}
+}
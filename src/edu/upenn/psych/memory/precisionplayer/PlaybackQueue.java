@@ -0,0 +1,193 @@
+//    This file is part of Penn TotalRecall <http://memory.psych.upenn.edu/TotalRecall>.
+//
+//    TotalRecall is free software: you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation, version 3 only.
+//
+//    TotalRecall is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with TotalRecall.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package edu.upenn.psych.memory.precisionplayer;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Bounded queue of playback requests that arrive while a <code>PrecisionPlayer</code> is still busy with an earlier one.
+ * 
+ * Players take the next request as soon as the current playback ends, so queued intervals follow each other on the already open device.
+ * Requests that would only repeat what is already queued are merged rather than queued again:
+ * a main playback request replaces one already waiting, and a short interval overlapping or touching the last queued interval is merged into it.
+ * When the queue is full the oldest request is dropped, since the latest request is the one the user is waiting to hear.
+ * 
+ * Counts of requests queued, merged and dropped are kept for the life of the queue.
+ * 
+ * @author Yuvi Masory
+ */
+public class PlaybackQueue {
+
+	/**
+	 * Number of requests a queue holds unless constructed otherwise.
+	 */
+	public static final int defaultCapacity = 8;
+
+	/**
+	 * One queued call to <code>playAt()</code> or <code>playShortInterval()</code>.
+	 */
+	public static final class Request {
+
+		private final long startFrame;
+		private final long endFrame;
+		private final boolean main;
+
+		/**
+		 * Creates a request.
+		 * 
+		 * @param startFrame First frame to play
+		 * @param endFrame Frame at which to stop playing
+		 * @param main Whether this is main playback, as opposed to short interval playback
+		 */
+		public Request(long startFrame, long endFrame, boolean main) {
+			this.startFrame = startFrame;
+			this.endFrame = endFrame;
+			this.main = main;
+		}
+
+		public long getStartFrame() {
+			return startFrame;
+		}
+
+		public long getEndFrame() {
+			return endFrame;
+		}
+
+		public boolean isMain() {
+			return main;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public String toString() {
+			return (main ? "main " : "short ") + startFrame + "-" + endFrame;
+		}
+	}
+
+	private final int capacity;
+	private final LinkedList<Request> requests;
+
+	private long numQueued;
+	private long numMerged;
+	private long numDropped;
+
+	/**
+	 * Creates a queue holding {@link #defaultCapacity} requests.
+	 */
+	public PlaybackQueue() {
+		this(defaultCapacity);
+	}
+
+	/**
+	 * Creates an empty queue.
+	 * 
+	 * @param capacity Most requests the queue holds, must be positive
+	 */
+	public PlaybackQueue(int capacity) {
+		if(capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive: " + capacity);
+		}
+		this.capacity = capacity;
+		requests = new LinkedList<Request>();
+	}
+
+	/**
+	 * Adds a request to the end of the queue, merging it into a queued request or dropping the oldest request as described above.
+	 * 
+	 * @param request The request to add
+	 */
+	public synchronized void offer(Request request) {
+		if(request.isMain()) {
+			for(Iterator<Request> it = requests.iterator(); it.hasNext();) {
+				if(it.next().isMain()) {
+					it.remove();
+					numMerged++;
+					requests.addLast(request);
+					return;
+				}
+			}
+		}
+		else if(requests.isEmpty() == false && requests.getLast().isMain() == false) {
+			Request last = requests.getLast();
+			if(request.getStartFrame() <= last.getEndFrame() && request.getEndFrame() >= last.getStartFrame()) {
+				requests.removeLast();
+				requests.addLast(new Request(Math.min(last.getStartFrame(), request.getStartFrame()), Math.max(last.getEndFrame(), request.getEndFrame()), false));
+				numMerged++;
+				return;
+			}
+		}
+		if(requests.size() >= capacity) {
+			requests.removeFirst();
+			numDropped++;
+		}
+		requests.addLast(request);
+		numQueued++;
+	}
+
+	/**
+	 * Removes the request at the front of the queue.
+	 * 
+	 * @return The next request to play, or <code>null</code> if there is none
+	 */
+	public synchronized Request poll() {
+		return requests.poll();
+	}
+
+	/**
+	 * Discards every queued request, e.g. when the user stops playback.
+	 * 
+	 * Discarded requests are not counted as dropped.
+	 */
+	public synchronized void clear() {
+		requests.clear();
+	}
+
+	public synchronized int size() {
+		return requests.size();
+	}
+
+	/**
+	 * @return The number of requests added to the queue without being merged
+	 */
+	public synchronized long getNumQueued() {
+		return numQueued;
+	}
+
+	/**
+	 * @return The number of requests merged into a request already queued
+	 */
+	public synchronized long getNumMerged() {
+		return numMerged;
+	}
+
+	/**
+	 * @return The number of queued requests dropped because the queue was full
+	 */
+	public synchronized long getNumDropped() {
+		return numDropped;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized String toString() {
+		return "playback queue: " + numQueued + " queued, " + numMerged + " merged, " + numDropped + " dropped";
+	}
+}
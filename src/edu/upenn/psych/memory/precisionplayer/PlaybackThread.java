@@ -0,0 +1,68 @@
+//    This file is part of Penn TotalRecall <http://memory.psych.upenn.edu/TotalRecall>.
+//
+//    TotalRecall is free software: you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation, version 3 only.
+//
+//    TotalRecall is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with TotalRecall.  If not, see <http://www.gnu.org/licenses/>.
+
+package edu.upenn.psych.memory.precisionplayer;
+
+/**
+ * Plays one interval for an {@link AbstractPrecisionPlayer}.
+ *
+ * Subclasses play in <code>run()</code>, and must call {@link #playbackFinished()} as <code>run()</code> ends, however it ends, so the player can start the next queued request.
+ *
+ * @author Yuvi Masory
+ */
+public abstract class PlaybackThread extends Thread {
+
+	private final AbstractPrecisionPlayer player;
+
+	protected PlaybackThread(AbstractPrecisionPlayer player) {
+		this.player = player;
+	}
+
+	/**
+	 * Stops playback immediately.
+	 *
+	 * @return The hearing frame, relative to start frame
+	 */
+	protected abstract long stopPlayback();
+
+	/**
+	 * Returns the hearing frame of this playback, as in {@link PositionSource#currentPosition()}.
+	 *
+	 * @return The position, or <code>null</code> if it is not known
+	 */
+	protected abstract PlaybackAnchor currentPosition();
+
+	/**
+	 * Tells the player this thread is ending.
+	 */
+	protected void playbackFinished() {
+		player.playbackFinished(this);
+	}
+
+	/**
+	 * Sets the player's status, e.g. back to <code>READY</code> when main playback reaches its end.
+	 *
+	 * @param status The player's new status
+	 */
+	protected void setPlayerStatus(PrecisionPlayer.Status status) {
+		player.setStatus(status);
+	}
+
+	/**
+	 * Notifies the player's listeners, as in {@link AbstractPrecisionPlayer#notifyEvent(PrecisionEvent.EventCode, long, String)}.
+	 */
+	protected void notifyEvent(PrecisionEvent.EventCode code, long frame, String errorMessage) {
+		player.notifyEvent(code, frame, errorMessage);
+	}
+}
@@ -0,0 +1,35 @@
+//    This file is part of Penn TotalRecall <http://memory.psych.upenn.edu/TotalRecall>.
+//
+//    TotalRecall is free software: you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation, version 3 only.
+//
+//    TotalRecall is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with TotalRecall.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package edu.upenn.psych.memory.precisionplayer;
+
+/**
+ * A <code>PrecisionPlayer</code> that can tell the hearing frame whenever asked, cheaply enough to be asked on every animation frame.
+ * 
+ * Lets displays pull the playback position on their own schedule, instead of waiting for the next {@link PrecisionListener#progress(long)} report.
+ * 
+ * @author Yuvi Masory
+ */
+public interface PositionSource {
+
+	/**
+	 * Returns the latest known hearing frame of main playback, and when it was heard.
+	 * 
+	 * <p>Must return quickly and may be called from any thread.
+	 * 
+	 * @return The position, or <code>null</code> if main playback is not in progress or its position is not yet known
+	 */
+	public PlaybackAnchor currentPosition();
+}
@@ -0,0 +1,197 @@
+//    This file is part of Penn TotalRecall <http://memory.psych.upenn.edu/TotalRecall>.
+//
+//    TotalRecall is free software: you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation, version 3 only.
+//
+//    TotalRecall is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with TotalRecall.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package edu.upenn.psych.memory.precisionplayer;
+
+import java.awt.EventQueue;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Delivers a player's <code>PrecisionEvents</code> in order, from one long-lived thread, since the spec requires they be sent in a different thread than audio playback.
+ * 
+ * Events are put on a lock-free queue by whichever thread raises them and taken off by a single consumer thread, so they reach listeners in the order they were raised,
+ * and raising one costs no thread creation.
+ * The consumer can instead hand each event to the event dispatch thread, still in order, for listeners that update Swing components.
+ * 
+ * Keeps counts of events delivered, the queue depth, and the time from raising an event to its delivery.
+ * 
+ * @author Yuvi Masory
+ */
+public class PrecisionEventDispatcher {
+
+	private final boolean onEventDispatchThread;
+	private final ConcurrentLinkedQueue<PendingEvent> queue;
+	private final Thread consumer;
+	private volatile boolean running;
+
+	private final AtomicInteger depth = new AtomicInteger();
+	private final AtomicInteger maxDepth = new AtomicInteger();
+	private final AtomicLong numDelivered = new AtomicLong();
+	private final AtomicLong sumLatencyNanos = new AtomicLong();
+	private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+	/**
+	 * Creates a dispatcher and starts its consumer thread.
+	 * 
+	 * @param onEventDispatchThread Whether listeners are called on the event dispatch thread, rather than on the consumer thread
+	 */
+	public PrecisionEventDispatcher(boolean onEventDispatchThread) {
+		this.onEventDispatchThread = onEventDispatchThread;
+		queue = new ConcurrentLinkedQueue<PendingEvent>();
+		running = true;
+		consumer = new Thread("PrecisionEventDispatcher") {
+			@Override
+			public void run() {
+				consume();
+			}
+		};
+		consumer.setDaemon(true);
+		consumer.start();
+	}
+
+	/**
+	 * Queues an event for delivery, returning immediately.
+	 * 
+	 * @param code The code of the <code>PrecisionEvent</code>
+	 * @param position The frame at which the event occurs
+	 * @param errorMessage The error message, or <code>null</code> if the event is not an error
+	 * @param listeners The listeners to be notified of the event
+	 */
+	public void dispatch(PrecisionEvent.EventCode code, long position, String errorMessage, List<PrecisionListener> listeners) {
+		if(running == false) {
+			System.err.println("event raised after dispatcher shut down: " + code);
+			return;
+		}
+		queue.offer(new PendingEvent(new PrecisionEvent(code, position, errorMessage), listeners, System.nanoTime()));
+		int curDepth = depth.incrementAndGet();
+		int prevMax;
+		while(curDepth > (prevMax = maxDepth.get()) && maxDepth.compareAndSet(prevMax, curDepth) == false);
+		LockSupport.unpark(consumer);
+	}
+
+	/**
+	 * Delivers the events already queued, then stops the consumer thread.
+	 */
+	public void shutdown() {
+		running = false;
+		LockSupport.unpark(consumer);
+	}
+
+	/**
+	 * @return The number of events waiting to be delivered
+	 */
+	public int getQueueDepth() {
+		return depth.get();
+	}
+
+	/**
+	 * @return The largest number of events that have been waiting at once
+	 */
+	public int getMaxQueueDepth() {
+		return maxDepth.get();
+	}
+
+	/**
+	 * @return The number of events delivered to their listeners
+	 */
+	public long getNumDelivered() {
+		return numDelivered.get();
+	}
+
+	/**
+	 * @return The mean nanoseconds from an event being raised to its delivery, or 0 if none have been delivered
+	 */
+	public long getMeanLatencyNanos() {
+		long num = numDelivered.get();
+		return num == 0 ? 0 : sumLatencyNanos.get() / num;
+	}
+
+	/**
+	 * @return The longest nanoseconds from an event being raised to its delivery
+	 */
+	public long getMaxLatencyNanos() {
+		return maxLatencyNanos.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return "precision event dispatcher: " + getNumDelivered() + " delivered, mean latency " + getMeanLatencyNanos() / 1000 + " us, max latency "
+			+ getMaxLatencyNanos() / 1000 + " us, max queue depth " + getMaxQueueDepth();
+	}
+
+	private void consume() {
+		while(true) {
+			final PendingEvent pending = queue.poll();
+			if(pending == null) {
+				if(running == false) {
+					return;
+				}
+				LockSupport.park(this);
+				continue;
+			}
+			depth.decrementAndGet();
+			if(onEventDispatchThread) {
+				//the event queue is FIFO, so events still reach listeners in order
+				EventQueue.invokeLater(new Runnable() {
+					public void run() {
+						deliver(pending);
+					}
+				});
+			}
+			else {
+				deliver(pending);
+			}
+		}
+	}
+
+	private void deliver(PendingEvent pending) {
+		long latency = System.nanoTime() - pending.raisedNanos;
+		numDelivered.incrementAndGet();
+		sumLatencyNanos.addAndGet(latency);
+		long prevMax;
+		while(latency > (prevMax = maxLatencyNanos.get()) && maxLatencyNanos.compareAndSet(prevMax, latency) == false);
+		if(pending.listeners != null) {
+			for(PrecisionListener lis: pending.listeners) {
+				try {
+					lis.stateUpdated(pending.event);
+				}
+				catch(Throwable t) {
+					//one bad listener must not stop delivery of later events
+					t.printStackTrace();
+				}
+			}
+		}
+	}
+
+	private static final class PendingEvent {
+
+		private final PrecisionEvent event;
+		private final List<PrecisionListener> listeners;
+		private final long raisedNanos;
+
+		private PendingEvent(PrecisionEvent event, List<PrecisionListener> listeners, long raisedNanos) {
+			this.event = event;
+			this.listeners = listeners;
+			this.raisedNanos = raisedNanos;
+		}
+	}
+}
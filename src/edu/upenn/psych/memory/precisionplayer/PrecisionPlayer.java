@@ -100,6 +100,7 @@ public interface PrecisionPlayer {
 	 * Has no effect if main playback is already in progress, i.e. if status is <code>PLAYINGK/code>, or if <code>open()</code> has not yet been called.
 	 * 
 	 * <p>Implementations should seek to reduce latency to a minimum.
+	 * If a short interval is still playing, implementations may queue the request to start as soon as it ends, see <code>PlaybackQueue</code>.
 	 * 
 	 * <p>Must be implemented concurrently, i.e. method must return as soon as possible, not waiting for playback to finish.
 	 * 
@@ -120,7 +121,8 @@ public interface PrecisionPlayer {
 	 * 
 	 * <p>The <code>stop()</code> method should have no impact on short-interval playback. <code>setLoudness()</code> is not guaranteed to have any effect 
 	 * on short-interval playback once started. That is an implementation-specific decision.
-	 * Implementations should also consider that users will often play the same short interval many times consecutively.
+	 * Implementations should also consider that users will often play the same short interval many times consecutively,
+	 * possibly faster than the intervals play, in which case they may queue the requests, see <code>PlaybackQueue</code>.
 	 * 
 	 * <p>To assist implementations using Sun's implementation of Java Sound, the difference between startFrame and endFrame
 	 * must be less than or equal to 1048576, the limit imposed by <code>com.sun.media.sound.MixerClip</code>.
@@ -154,6 +156,13 @@ public interface PrecisionPlayer {
 	 */
 	public long stop();
 	
+	/**
+	 * Stops main playback, as <code>stop()</code> does, and releases any audio devices or files held since <code>open()</code>.
+	 * 
+	 * The player should not be used again afterwards.
+	 */
+	public void kill();
+	
 	
 	/**
 	 * Gives warning that <code>playAt(int)</code> may soon be called.
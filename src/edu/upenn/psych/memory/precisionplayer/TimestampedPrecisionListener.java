@@ -0,0 +1,38 @@
+//    This file is part of Penn TotalRecall <http://memory.psych.upenn.edu/TotalRecall>.
+//
+//    TotalRecall is free software: you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation, version 3 only.
+//
+//    TotalRecall is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with TotalRecall.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package edu.upenn.psych.memory.precisionplayer;
+
+/**
+ * A <code>PrecisionListener</code> that also wants to know when each progress frame was reached.
+ * 
+ * Players that can timestamp their progress reports call {@link #progress(long, long)} on listeners implementing this interface,
+ * instead of {@link PrecisionListener#progress(long)}.
+ * Listeners can then extrapolate the hearing frame between reports, see {@link PlaybackAnchor}.
+ * 
+ * @author Yuvi Masory
+ */
+public interface TimestampedPrecisionListener extends PrecisionListener {
+
+	/**
+	 * Indicates that main playback reached the provided frame at the provided moment.
+	 * 
+	 * <p>Given in the same thread, and with the same caveats, as {@link PrecisionListener#progress(long)}.
+	 * 
+	 * @param frame The hearing frame
+	 * @param nanoTime The <code>System.nanoTime()</code> at which <code>frame</code> was the hearing frame
+	 */
+	public void progress(long frame, long nanoTime);
+}
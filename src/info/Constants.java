@@ -120,6 +120,21 @@ public class Constants {
 	 */
 	public static final String deletionTempFileExtension = "del";
 
+	/**
+	 * Extension appended to an incomplete annotation or suggestion file's name to name the journal of its pending additions and deletions.
+	 */
+	public static final String eventJournalFileExtension = "jnl";
+
+	/**
+	 * Number of records a journal may hold before it is compacted into its annotation or suggestion file.
+	 */
+	public static final int eventJournalCompactionThreshold = 64;
+
+	/**
+	 * Extension appended to an incomplete annotation file's name to name the commit record of a transaction replacing it and other files.
+	 */
+	public static final String transactionFileExtension = "txn";
+
 	/**
 	 * Extension of incomplete suggestion files.
 	 */
@@ -130,6 +145,10 @@ public class Constants {
 	 */
 	public static final String deletionSuggestionTempFileExtension = "tmmw";
 
+	/**
+	 * Extension of the cached waveform peak pyramid stored next to an audio file.
+	 */
+	public static final String peakPyramidFileExtension = "pyr";
 
 	
 	
@@ -91,9 +91,22 @@ public class GUIConstants {
 	public static final int defaultSliderValue = 100;
 	
 	/**
-	 * Number of pixels added/subtracted to zoomlessPixelsPerSecond for each zoom in/out action.
+	 * Largest number of times the pixels per second can be doubled from zoomlessPixelsPerSecond by zooming in.
+	 * Zooming in also stops once a pixel would be narrower than one audio frame.
 	 */
-	public static final int xZoomAmount = 40;
+	public static final int maxZoomInLevels = 8;
+
+	/**
+	 * Largest number of times the pixels per second can be halved from zoomlessPixelsPerSecond by zooming out.
+	 * At 14 levels each pixel covers more than a minute of audio, enough to see a long session at once.
+	 */
+	public static final int maxZoomOutLevels = 14;
+
+	/**
+	 * Highest rate at which the waveform is animated during playback.
+	 * On faster displays the waveform is redrawn on every second (third, ...) refresh, whichever comes closest to this rate.
+	 */
+	public static final int maxAnimationFramesPerSecond = 60;
 
 	/**
 	 * The title of the <code>MyFrame</code> when audio is closed.
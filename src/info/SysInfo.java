@@ -63,17 +63,23 @@ public class SysInfo {
 	public final boolean useSheets;
 	public final boolean launchedWithJWS;
 	public final boolean preferDefaultJSMixerLine;
+	public final boolean javaSoundPlayback;
+	public final boolean playerEventsOnEventDispatchThread;
+	public final boolean syncFileReplacements;
 	public final boolean useMetalLAF;
 	public final boolean mouseMode;
 	public final boolean forceListen;
 	public final boolean bandpassFilter;
 	public final boolean useAudioDataSmoothingForWaveform;
+	public final int audioDataSmoothingWindow;
+	public final boolean aggregateWaveformColumns;
 	public final boolean useWaveformImageDataSmoothing;	
 	public final boolean interpolateFrames;	
 	public final boolean nanoInterplation;
 	public final boolean antiAliasWaveform;
 	public final boolean pulseAudioSystem;
 	public final boolean doubleDraw;
+	public final boolean acceleratedWaveform;
 	
 	
 	public final String aboutMessage;
@@ -397,11 +403,15 @@ public class SysInfo {
 			interplationToleratedErrorZoneInSec = 0.25;
 			nanoInterplation = true;		
 		}
+		javaSoundPlayback = false; //play through Java Sound even when FMOD is available, e.g. to compare their latencies. Java Sound is always used if FMOD cannot be loaded
+		playerEventsOnEventDispatchThread = true; //player events update menus and show dialogs, so deliver them where Swing expects
+		syncFileReplacements = true; //force rewritten annotation and wordpool files to disk before they replace the old ones, so a crash cannot leave a half-written file
 
 		
 		
 		//performance optimiziations
 		chunkSizeInSeconds = (int)Math.ceil(Toolkit.getDefaultToolkit().getScreenSize().getWidth() / GUIConstants.zoomlessPixelsPerSecond);
+		acceleratedWaveform = true; //blit chunks from video memory with the annotations already drawn on, turn off if a pipeline mishandles VolatileImages
 		
 		//annotation optimizations
 		mouseMode = true;
@@ -415,6 +425,8 @@ public class SysInfo {
 		//pretty waveform 
 		bandpassFilter = true; //essential for making words discernable
 		useAudioDataSmoothingForWaveform = true; //essential for thickening the waveform
+		audioDataSmoothingWindow = 20; //samples on each side, wider is thicker
+		aggregateWaveformColumns = true; //true per-pixel peaks instead of one sample per pixel, makes the audio smoothing unnecessary (and skips it)
 		useWaveformImageDataSmoothing = true; //prettier but blockier
 		antiAliasWaveform = false; //no preference for it
 	}
@@ -162,6 +162,18 @@ public class UserPrefs {
 	 */
 	public static final int defaultMaxBandPass = 16000; //phone company standard: 3600, army standard: 2800 (http://cnx.org/content/m15683/latest/), pyparse: 16000
 	
+	/**
+	 * Memory budget for rendered waveform images kept after they scroll out of view, in megabytes.
+	 * Must map to a non-negative integer, 0 disables the cache.
+	 */
+	public static final String waveformCacheMegabytes = "WAVEFORM_CACHE_MB";
+	
+	/**
+	 * Default value for waveformCacheMegabytes.
+	 * A ten second chunk at the default window height takes up about 2.5 MB.
+	 */
+	public static final int defaultWaveformCacheMegabytes = 64;
+	
 
 	/**
 	 * Amount of a "large" shift, expressed in frames
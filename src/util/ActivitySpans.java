@@ -0,0 +1,142 @@
+//    This file is part of Penn TotalRecall <http://memory.psych.upenn.edu/TotalRecall>.
+//
+//    TotalRecall is free software: you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation, version 3 only.
+//
+//    TotalRecall is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with TotalRecall.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package util;
+
+import java.util.Arrays;
+
+/**
+ * Folds a stream of activity timestamps into spans of activity, in memory that does not grow with the number of stamps.
+ * 
+ * Stamps separated by no more than the timeout belong to the same span, and a longer gap starts a new span, as if all stamps were sorted and scanned once.
+ * Stamps go into a fixed-size <code>long</code> ring, which is sorted and folded into the current span whenever it fills,
+ * so stamps that arrive slightly out of order, e.g. from different threads, are still merged correctly.
+ * Only finished spans are kept, one pair of <code>longs</code> per gap in activity.
+ * 
+ * Stamps may be added from any thread.
+ * 
+ * @author Yuvi Masory
+ */
+public class ActivitySpans {
+
+	/**
+	 * Number of stamps held before they are folded into spans.
+	 */
+	public static final int ringSize = 256;
+
+	private final long timeout;
+
+	private final long[] ring;
+	private final long[] scratch;
+	private int head;
+	private int size;
+
+	private long[] spans;
+	private int numSpans;
+	private long start;
+	private long end;
+
+	/**
+	 * Creates an accumulator with no stamps.
+	 * 
+	 * @param timeout Longest gap, in the units of the stamps, that does not end a span
+	 */
+	public ActivitySpans(long timeout) {
+		this.timeout = timeout;
+		ring = new long[ringSize];
+		scratch = new long[ringSize];
+		spans = new long[32];
+		reset();
+	}
+
+	/**
+	 * Records one moment of activity.
+	 * 
+	 * @param stamp The moment, e.g. from <code>System.currentTimeMillis()</code>
+	 */
+	public synchronized void add(long stamp) {
+		if(size == ring.length) {
+			fold();
+		}
+		ring[(head + size) % ring.length] = stamp;
+		size++;
+	}
+
+	/**
+	 * @return Whether any stamps have been added since the spans were last drained
+	 */
+	public synchronized boolean isEmpty() {
+		return size == 0 && end == 0 && numSpans == 0;
+	}
+
+	/**
+	 * Returns the spans of all stamps added since the last call, and starts over.
+	 * 
+	 * Spans made of a single stamp are omitted, as they have no duration.
+	 * 
+	 * @return The spans in order, each an array of its first and last stamp
+	 */
+	public synchronized long[][] drainSpans() {
+		fold();
+		closeSpan();
+		long[][] result = new long[numSpans][];
+		for(int i = 0; i < numSpans; i++) {
+			result[i] = new long[] {spans[2 * i], spans[2 * i + 1]};
+		}
+		reset();
+		return result;
+	}
+
+	private void fold() {
+		for(int i = 0; i < size; i++) {
+			scratch[i] = ring[(head + i) % ring.length];
+		}
+		Arrays.sort(scratch, 0, size);
+		for(int i = 0; i < size; i++) {
+			long stamp = scratch[i];
+			if(stamp - end > timeout) {
+				closeSpan();
+				start = stamp;
+				end = stamp;
+			}
+			else if(stamp > end) {
+				end = stamp;
+			}
+		}
+		head = 0;
+		size = 0;
+	}
+
+	private void closeSpan() {
+		if(start > 0 && end > start) {
+			if(2 * numSpans + 2 > spans.length) {
+				spans = Arrays.copyOf(spans, spans.length * 2);
+			}
+			spans[2 * numSpans] = start;
+			spans[2 * numSpans + 1] = end;
+			numSpans++;
+		}
+		start = 0;
+		end = 0;
+	}
+
+	private void reset() {
+		head = 0;
+		size = 0;
+		numSpans = 0;
+		start = 0;
+		end = 0;
+	}
+}
@@ -0,0 +1,297 @@
+//    This file is part of Penn TotalRecall <http://memory.psych.upenn.edu/TotalRecall>.
+//
+//    TotalRecall is free software: you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation, version 3 only.
+//
+//    TotalRecall is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with TotalRecall.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package util;
+
+import java.util.InputMismatchException;
+import java.util.NoSuchElementException;
+
+/**
+ * Splits a line into fields separated by a single delimiter character, reading numbers straight from the line's characters.
+ *
+ * Replaces a <code>Scanner</code> per line in the annotation and suggestion file parsers.
+ * A <code>Scanner</code> compiles and runs regular expressions for every token and allocates its own buffers, which dominates the cost of parsing a line.
+ * One tokenizer can be {@link #reset(String, int, int) reset} onto each line of a file in turn, and allocates only the <code>Strings</code> returned by {@link #next()}.
+ *
+ * Tokens are found the way a <code>Scanner</code> with a one-character delimiter finds them: one delimiter is skipped before each token,
+ * two delimiters in a row make an empty token, and there is no token at the end of the line.
+ *
+ * Numbers are plain decimals with an optional exponent, the form written by <code>Double.toString</code>, whatever the default locale.
+ * Doubles with at most 15 significant digits and small exponents are computed exactly from the digits;
+ * longer ones, which <code>Double.toString</code> often writes, fall back on <code>Double.parseDouble</code>, which needs a substring.
+ *
+ * @author Yuvi Masory
+ */
+public class FieldTokenizer {
+
+	private static final double[] powersOfTen = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+		1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+	private static final int maxExactDigits = 15;
+
+	private final char delimiter;
+
+	private String line;
+	private int pos;
+	private int end;
+
+	private int tokenStart;
+	private int tokenEnd;
+
+	private double doubleVal;
+	private int intVal;
+
+	/**
+	 * Creates a tokenizer with no line.
+	 *
+	 * @param delimiter The character separating fields
+	 */
+	public FieldTokenizer(char delimiter) {
+		this.delimiter = delimiter;
+		reset("", 0, 0);
+	}
+
+	/**
+	 * Starts tokenizing the provided line from its beginning.
+	 *
+	 * @param line The line, without its line terminator
+	 * @return This tokenizer
+	 */
+	public FieldTokenizer reset(String line) {
+		return reset(line, 0, line.length());
+	}
+
+	/**
+	 * Starts tokenizing a range of the provided line.
+	 *
+	 * @param line The line, without its line terminator
+	 * @param start The index of the first character to tokenize
+	 * @param end The index after the last character to tokenize
+	 * @return This tokenizer
+	 */
+	public FieldTokenizer reset(String line, int start, int end) {
+		this.line = line;
+		this.pos = start;
+		this.end = end;
+		return this;
+	}
+
+	/**
+	 * @return Whether another token remains
+	 */
+	public boolean hasNext() {
+		return findToken();
+	}
+
+	/**
+	 * Returns the next token.
+	 *
+	 * @throws NoSuchElementException If no tokens remain
+	 */
+	public String next() {
+		if(findToken() == false) {
+			throw new NoSuchElementException();
+		}
+		pos = tokenEnd;
+		return line.substring(tokenStart, tokenEnd);
+	}
+
+	/**
+	 * @return Whether the next token is a decimal number
+	 */
+	public boolean hasNextDouble() {
+		return findToken() && scanDouble(tokenStart, tokenEnd);
+	}
+
+	/**
+	 * Returns the next token as a <code>double</code>.
+	 *
+	 * @throws InputMismatchException If the next token is not a decimal number, or no tokens remain
+	 */
+	public double nextDouble() {
+		if(hasNextDouble() == false) {
+			throw new InputMismatchException();
+		}
+		pos = tokenEnd;
+		return doubleVal;
+	}
+
+	/**
+	 * @return Whether the next token is a decimal integer in the range of an <code>int</code>
+	 */
+	public boolean hasNextInt() {
+		return findToken() && scanInt(tokenStart, tokenEnd);
+	}
+
+	/**
+	 * Returns the next token as an <code>int</code>.
+	 *
+	 * @throws InputMismatchException If the next token is not a decimal integer in the range of an <code>int</code>, or no tokens remain
+	 */
+	public int nextInt() {
+		if(hasNextInt() == false) {
+			throw new InputMismatchException();
+		}
+		pos = tokenEnd;
+		return intVal;
+	}
+
+	/**
+	 * Returns whether a range of a line holds only whitespace, as <code>\s*</code> would match it.
+	 *
+	 * @param line The line
+	 * @param start The index of the first character to check
+	 * @param end The index after the last character to check
+	 */
+	public static boolean isBlank(String line, int start, int end) {
+		for(int i = start; i < end; i++) {
+			char c = line.charAt(i);
+			if(c != ' ' && c != '\t' && c != '\n' && c != '\u000B' && c != '\f' && c != '\r') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean findToken() {
+		int start = pos;
+		if(start < end && line.charAt(start) == delimiter) {
+			start++;
+		}
+		if(start >= end) {
+			return false;
+		}
+		int stop = start;
+		while(stop < end && line.charAt(stop) != delimiter) {
+			stop++;
+		}
+		tokenStart = start;
+		tokenEnd = stop;
+		return true;
+	}
+
+	private boolean scanInt(int start, int stop) {
+		int i = start;
+		boolean negative = false;
+		if(i < stop && (line.charAt(i) == '-' || line.charAt(i) == '+')) {
+			negative = line.charAt(i) == '-';
+			i++;
+		}
+		if(i >= stop) {
+			return false;
+		}
+		long val = 0;
+		for(; i < stop; i++) {
+			int digit = line.charAt(i) - '0';
+			if(digit < 0 || digit > 9) {
+				return false;
+			}
+			val = val * 10 + digit;
+			if(val > (long)Integer.MAX_VALUE + 1) {
+				return false;
+			}
+		}
+		if(negative) {
+			val = -val;
+		}
+		if(val > Integer.MAX_VALUE) {
+			return false;
+		}
+		intVal = (int)val;
+		return true;
+	}
+
+	private boolean scanDouble(int start, int stop) {
+		int i = start;
+		boolean negative = false;
+		if(i < stop && (line.charAt(i) == '-' || line.charAt(i) == '+')) {
+			negative = line.charAt(i) == '-';
+			i++;
+		}
+
+		long mantissa = 0;
+		int numSignificant = 0;
+		int numDigits = 0;
+		int exponent = 0;
+		boolean seenPoint = false;
+		for(; i < stop; i++) {
+			char c = line.charAt(i);
+			if(c >= '0' && c <= '9') {
+				numDigits++;
+				if(numSignificant > 0 || c != '0') {
+					numSignificant++;
+					if(numSignificant <= maxExactDigits) {
+						mantissa = mantissa * 10 + (c - '0');
+						if(seenPoint) {
+							exponent--;
+						}
+					}
+					else if(seenPoint == false) {
+						exponent++;
+					}
+				}
+				else if(seenPoint) {
+					exponent--;
+				}
+			}
+			else if(c == '.' && seenPoint == false) {
+				seenPoint = true;
+			}
+			else {
+				break;
+			}
+		}
+		if(numDigits == 0) {
+			return false;
+		}
+
+		if(i < stop && (line.charAt(i) == 'e' || line.charAt(i) == 'E')) {
+			i++;
+			boolean negativeExponent = false;
+			if(i < stop && (line.charAt(i) == '-' || line.charAt(i) == '+')) {
+				negativeExponent = line.charAt(i) == '-';
+				i++;
+			}
+			if(i >= stop) {
+				return false;
+			}
+			int explicitExponent = 0;
+			for(; i < stop; i++) {
+				int digit = line.charAt(i) - '0';
+				if(digit < 0 || digit > 9) {
+					return false;
+				}
+				if(explicitExponent < 100000) {
+					explicitExponent = explicitExponent * 10 + digit;
+				}
+			}
+			exponent += negativeExponent ? -explicitExponent : explicitExponent;
+		}
+		if(i != stop) {
+			return false;
+		}
+
+		if(numSignificant <= maxExactDigits && exponent >= -22 && exponent <= 22) {
+			//mantissa and power of ten are both exact doubles, so one correctly rounded operation gives the correctly rounded result
+			double val = exponent < 0 ? mantissa / powersOfTen[-exponent] : mantissa * powersOfTen[exponent];
+			doubleVal = negative ? -val : val;
+		}
+		else {
+			doubleVal = Double.parseDouble(line.substring(start, stop));
+		}
+		return true;
+	}
+}
@@ -0,0 +1,193 @@
+//    This file is part of Penn TotalRecall <http://memory.psych.upenn.edu/TotalRecall>.
+//
+//    TotalRecall is free software: you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation, version 3 only.
+//
+//    TotalRecall is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with TotalRecall.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package util;
+
+import info.Constants;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replaces and deletes a group of files all at once, or not at all, even across a crash.
+ *
+ * The new contents of each file are first written in full to a temporary file next to it.
+ * Committing then writes a commit record listing every replacement and deletion, renames the temporary files over the old ones, performs the deletions, and deletes the record.
+ * If the program dies after the record is written, {@link #recover(File)} finishes the renames and deletions from the record; if it dies before, the old files are untouched.
+ *
+ * With syncing on, the temporary files and the record are forced to disk before anything is renamed, so the renames can never expose a half-written file.
+ * Renames replace the old file atomically where the file system allows it.
+ *
+ * @author Yuvi Masory
+ */
+public class FileTransaction {
+
+	private static final Charset recordCharset = Charset.forName("UTF-8");
+	private static final String moveRecord = "move";
+	private static final String deleteRecord = "delete";
+	private static final String fieldDelimiter = "\t";
+
+	private final File record;
+	private final boolean sync;
+
+	private final List<String> steps;
+	private final List<File> temps;
+
+	/**
+	 * Creates an empty transaction.
+	 *
+	 * @param record Where the commit record is written, and where {@link #recover(File)} looks for it
+	 * @param sync Whether files are forced to disk before they replace the old ones
+	 */
+	public FileTransaction(File record, boolean sync) {
+		this.record = record;
+		this.sync = sync;
+		steps = new ArrayList<String>();
+		temps = new ArrayList<File>();
+	}
+
+	/**
+	 * Writes the new contents of a file to a temporary file, to replace the file on commit.
+	 *
+	 * @param target The file to replace, which need not exist yet
+	 * @param contents The complete new contents
+	 * @param charset The encoding of the contents
+	 * @throws IOException If the temporary file cannot be written
+	 */
+	public void stage(File target, String contents, Charset charset) throws IOException {
+		File temp = new File(target.getAbsolutePath() + "." + Constants.deletionTempFileExtension);
+		write(temp, contents.getBytes(charset));
+		temps.add(temp);
+		steps.add(moveRecord + fieldDelimiter + temp.getAbsolutePath() + fieldDelimiter + target.getAbsolutePath());
+	}
+
+	/**
+	 * Arranges for a file to be deleted on commit, if it exists then.
+	 *
+	 * @param target The file to delete
+	 */
+	public void stageDeletion(File target) {
+		steps.add(deleteRecord + fieldDelimiter + target.getAbsolutePath());
+	}
+
+	/**
+	 * Performs every staged replacement and deletion.
+	 *
+	 * @throws IOException If the commit record cannot be written, in which case nothing has changed, or a step fails, in which case {@link #recover(File)} retries the rest
+	 */
+	public void commit() throws IOException {
+		StringBuilder buff = new StringBuilder();
+		for(String step: steps) {
+			buff.append(step).append('\n');
+		}
+		//the record only appears, by rename, once it is complete
+		File partialRecord = new File(record.getAbsolutePath() + "." + Constants.deletionTempFileExtension);
+		try {
+			write(partialRecord, buff.toString().getBytes(recordCharset));
+			move(partialRecord, record);
+		}
+		catch(IOException e) {
+			abort();
+			partialRecord.delete();
+			throw e;
+		}
+		recover(record);
+	}
+
+	/**
+	 * Deletes the temporary files of an uncommitted transaction, leaving every file as it was.
+	 */
+	public void abort() {
+		for(File temp: temps) {
+			temp.delete();
+		}
+		temps.clear();
+		steps.clear();
+	}
+
+	/**
+	 * Finishes a transaction whose commit record was written, if there is one.
+	 *
+	 * Replacements whose temporary file is gone were already done, so recovering twice is harmless.
+	 *
+	 * @param record The commit record given to the transaction
+	 * @throws IOException If a step cannot be done, leaving the record in place to try again
+	 */
+	public static void recover(File record) throws IOException {
+		if(record.exists() == false) {
+			return;
+		}
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(record), recordCharset));
+		try {
+			String line;
+			while((line = reader.readLine()) != null) {
+				String[] fields = line.split(fieldDelimiter);
+				if(fields.length == 3 && fields[0].equals(moveRecord)) {
+					File temp = new File(fields[1]);
+					if(temp.exists()) {
+						move(temp, new File(fields[2]));
+					}
+				}
+				else if(fields.length == 2 && fields[0].equals(deleteRecord)) {
+					File target = new File(fields[1]);
+					if(target.exists() && target.delete() == false) {
+						throw new IOException("could not delete " + target);
+					}
+				}
+				else if(line.length() > 0) {
+					System.err.println("unknown transaction step: " + line);
+				}
+			}
+		}
+		finally {
+			reader.close();
+		}
+		if(record.delete() == false) {
+			throw new IOException("could not delete transaction record " + record);
+		}
+	}
+
+	private void write(File file, byte[] bytes) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(bytes);
+			if(sync) {
+				out.getFD().sync();
+			}
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	private static void move(File source, File target) throws IOException {
+		try {
+			Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch(AtomicMoveNotSupportedException e) {
+			Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+}
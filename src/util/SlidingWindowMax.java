@@ -0,0 +1,161 @@
+//    This file is part of Penn TotalRecall <http://memory.psych.upenn.edu/TotalRecall>.
+//
+//    TotalRecall is free software: you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation, version 3 only.
+//
+//    TotalRecall is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with TotalRecall.  If not, see <http://www.gnu.org/licenses/>.
+
+package util;
+
+/**
+ * Sliding-window maximum of absolute values, in time linear in the number of values regardless of window size.
+ *
+ * Uses a monotonic deque of indices: each index is pushed and popped at most once, and the front of the deque is always the index of the window's maximum.
+ * 
+ * The static method works on a whole array at once. Instances work on a stream of values, using memory proportional only to the window size.
+ *
+ * @author Yuvi Masory
+ */
+public class SlidingWindowMax {
+
+	private final int window;
+	private final double[] abs;
+	private final long[] deque;
+	private int head;
+	private int size;
+	private long numPushed;
+	private long numEmitted;
+
+	/**
+	 * Creates a streaming sliding-window max, giving the same results as {@link #absMax(double[], int)} one value at a time.
+	 * 
+	 * @param window Number of values on each side of the current one to consider, must be positive
+	 */
+	public SlidingWindowMax(int window) {
+		if(window <= 0) {
+			throw new IllegalArgumentException("window must be positive: " + window);
+		}
+		this.window = window;
+		abs = new double[2 * window + 1];
+		deque = new long[2 * window + 1];
+		head = 0;
+		size = 0;
+		numPushed = 0;
+		numEmitted = 0;
+	}
+
+	/**
+	 * Adds the next value of the stream.
+	 * 
+	 * Results lag the input by <code>window</code> values, since each result depends on values after it.
+	 * 
+	 * @param val The next value
+	 * @return The result for value number {@link #numEmitted()} before this call, or <code>NaN</code> if the stream has not yet filled the window
+	 */
+	public double push(double val) {
+		double absVal = Math.abs(val);
+		while(size > 0 && abs[slot(deque[(head + size - 1) % deque.length])] <= absVal) {
+			size--;
+		}
+		deque[(head + size) % deque.length] = numPushed;
+		size++;
+		abs[slot(numPushed)] = absVal;
+		numPushed++;
+		if(numPushed - numEmitted >= window) {
+			return emit();
+		}
+		return Double.NaN;
+	}
+
+	/**
+	 * Returns the result for the next value that has been pushed but not emitted, treating the stream as having ended.
+	 * 
+	 * Call repeatedly, while {@link #numEmitted()} is less than the number of values pushed, to drain the results held back by <code>push</code>.
+	 * 
+	 * @return The result for value number {@link #numEmitted()} before this call
+	 */
+	public double flush() {
+		if(numEmitted >= numPushed) {
+			throw new IllegalStateException("no values left to flush");
+		}
+		return emit();
+	}
+
+	/**
+	 * @return The number of results returned so far, which is also the index of the next result
+	 */
+	public long numEmitted() {
+		return numEmitted;
+	}
+
+	/**
+	 * @return The number of values pushed so far
+	 */
+	public long numPushed() {
+		return numPushed;
+	}
+
+	private double emit() {
+		long start = numEmitted - window;
+		while(deque[head] < start) {
+			head = (head + 1) % deque.length;
+			size--;
+		}
+		numEmitted++;
+		return abs[slot(deque[head])];
+	}
+
+	private int slot(long index) {
+		return (int)(index % abs.length);
+	}
+
+	/**
+	 * Replaces every value with the largest absolute value in the window <code>[i - window, i + window)</code>, clipped to the array.
+	 *
+	 * Gives exactly the result of taking <code>Math.max(Math.abs(vals[j]))</code> over that window for every <code>i</code>, but in O(n) time.
+	 * A window of 0 sets every value to 0, as the direct computation does.
+	 *
+	 * @param vals The values to smooth, modified in place
+	 * @param window Number of values on each side of the current one to consider
+	 */
+	public static void absMax(double[] vals, int window) {
+		if(window < 0) {
+			throw new IllegalArgumentException("window cannot be negative: " + window);
+		}
+		final int n = vals.length;
+		double[] abs = new double[n];
+		for(int i = 0; i < n; i++) {
+			abs[i] = Math.abs(vals[i]);
+		}
+
+		int[] deque = new int[n];
+		int head = 0;
+		int tail = 0;
+		int next = 0;
+		for(int i = 0; i < n; i++) {
+			//push values entering the window, dropping any they dominate
+			int end = (int)Math.min(n, (long)i + window);
+			while(next < end) {
+				double val = abs[next];
+				while(tail > head && abs[deque[tail - 1]] <= val) {
+					tail--;
+				}
+				deque[tail++] = next;
+				next++;
+			}
+			//drop values leaving the window
+			int start = i - window;
+			while(tail > head && deque[head] < start) {
+				head++;
+			}
+			vals[i] = tail > head ? abs[deque[head]] : 0;
+		}
+	}
+}
@@ -0,0 +1,122 @@
+//    This file is part of Penn TotalRecall <http://memory.psych.upenn.edu/TotalRecall>.
+//
+//    TotalRecall is free software: you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation, version 3 only.
+//
+//    TotalRecall is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with TotalRecall.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package util;
+
+import java.util.List;
+
+/**
+ * Binary searches over lists of {@link Timed} items sorted by time, for finding the items near a position without scanning from the start.
+ *
+ * The lists are searched in place, so lookups allocate nothing and can be made on every repaint.
+ * Both searches return insertion points, so a range of items is visited by a loop from one result up to another, or up to the first item past the range.
+ *
+ * @author Yuvi Masory
+ */
+public class TimeIndex {
+
+	private TimeIndex() {
+	}
+
+	/**
+	 * Returns the index of the first item at or after the provided time.
+	 *
+	 * @param sorted The items, in non-decreasing order of time
+	 * @param timeMillis The time to search for, in milliseconds
+	 * @return The index of the first item whose time is not less than <code>timeMillis</code>, or <code>sorted.size()</code> if there is none
+	 */
+	public static int firstAtOrAfter(List<? extends Timed> sorted, double timeMillis) {
+		int low = 0;
+		int high = sorted.size();
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			if(sorted.get(mid).getTime() < timeMillis) {
+				low = mid + 1;
+			}
+			else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the index of the first item strictly after the provided time.
+	 *
+	 * @param sorted The items, in non-decreasing order of time
+	 * @param timeMillis The time to search for, in milliseconds
+	 * @return The index of the first item whose time is greater than <code>timeMillis</code>, or <code>sorted.size()</code> if there is none
+	 */
+	public static int firstAfter(List<? extends Timed> sorted, double timeMillis) {
+		int low = 0;
+		int high = sorted.size();
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			if(sorted.get(mid).getTime() <= timeMillis) {
+				low = mid + 1;
+			}
+			else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the index of the first time at or after the provided time, in a sorted array of times.
+	 *
+	 * @param times The times, in non-decreasing order, in milliseconds
+	 * @param size The number of times in use at the start of the array
+	 * @param timeMillis The time to search for, in milliseconds
+	 * @return The index of the first time not less than <code>timeMillis</code>, or <code>size</code> if there is none
+	 */
+	public static int firstAtOrAfter(double[] times, int size, double timeMillis) {
+		int low = 0;
+		int high = size;
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			if(times[mid] < timeMillis) {
+				low = mid + 1;
+			}
+			else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the index of the first time strictly after the provided time, in a sorted array of times.
+	 *
+	 * @param times The times, in non-decreasing order, in milliseconds
+	 * @param size The number of times in use at the start of the array
+	 * @param timeMillis The time to search for, in milliseconds
+	 * @return The index of the first time greater than <code>timeMillis</code>, or <code>size</code> if there is none
+	 */
+	public static int firstAfter(double[] times, int size, double timeMillis) {
+		int low = 0;
+		int high = size;
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			if(times[mid] <= timeMillis) {
+				low = mid + 1;
+			}
+			else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+}
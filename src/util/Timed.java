@@ -0,0 +1,29 @@
+//    This file is part of Penn TotalRecall <http://memory.psych.upenn.edu/TotalRecall>.
+//
+//    TotalRecall is free software: you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation, version 3 only.
+//
+//    TotalRecall is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with TotalRecall.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package util;
+
+/**
+ * An item placed at a point in the audio, such as an annotation or a suggestion.
+ *
+ * @author Yuvi Masory
+ */
+public interface Timed {
+
+	/**
+	 * @return The item's position in the audio, in milliseconds
+	 */
+	public double getTime();
+}
@@ -0,0 +1,40 @@
+//    This file is part of Penn TotalRecall <http://memory.psych.upenn.edu/TotalRecall>.
+//
+//    TotalRecall is free software: you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation, version 3 only.
+//
+//    TotalRecall is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with TotalRecall.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package util;
+
+/**
+ * Converts one kind of {@link Timed} item to and from the lines of its file, for use by a {@link TimedEventStore}.
+ *
+ * @author Yuvi Masory
+ */
+public interface TimedEventCodec<T extends Timed> {
+
+	/**
+	 * Reads an item from the fields of a line.
+	 *
+	 * @param fields A tokenizer positioned at the start of the line, with comments already removed
+	 * @return The item, or <code>null</code> if the line does not hold one
+	 */
+	public T decode(FieldTokenizer fields);
+
+	/**
+	 * Writes an item as a line.
+	 *
+	 * @param item The item
+	 * @return The line, without a line terminator, which {@link #decode(FieldTokenizer)} reads back as an equal item
+	 */
+	public String encode(T item);
+}
@@ -0,0 +1,563 @@
+//    This file is part of Penn TotalRecall <http://memory.psych.upenn.edu/TotalRecall>.
+//
+//    TotalRecall is free software: you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation, version 3 only.
+//
+//    TotalRecall is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with TotalRecall.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package util;
+
+import info.Constants;
+import info.SysInfo;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Reads and edits files of {@link Timed} items, one item per line in order of time, such as annotation and suggestion files.
+ *
+ * The kind of item is supplied by a {@link TimedEventCodec}; parsing, journaling, compaction and headers are shared by every kind.
+ *
+ * Additions and removals are not written into the file right away, but appended as records to a write-ahead journal next to it,
+ * so committing an item costs one small append instead of reading, rewriting and renaming the whole file.
+ * Every {@link Constants#eventJournalCompactionThreshold} records, and whenever the file is about to be read or replaced, the journal is compacted into the file.
+ * Compaction applies each record the way the old per-item rewrites did, so the file ends up byte for byte what it would have been without the journal.
+ * A journal left behind by a crash is replayed the next time its file is opened or parsed.
+ *
+ * Each record is a line holding <code>+</code> or <code>-</code>, the file's field delimiter, and the item's line from the codec.
+ * A last record without its newline was cut off mid-write and is ignored.
+ * An add of an item already in the file adds another line for it, as the per-item rewrites did.
+ *
+ * Every rewrite of a file, including compaction, replaces the file and deletes its journal as one {@link FileTransaction},
+ * so a crash leaves either the old file and its journal or the new file alone, and never a half-written file.
+ *
+ * The items of the open file are kept in memory, sorted by time, so removals can be checked without reading the file.
+ *
+ * @author Yuvi Masory
+ */
+public class TimedEventStore<T extends Timed> {
+
+	private static final String addRecord = "+";
+	private static final String removeRecord = "-";
+
+	private final TimedEventCodec<T> codec;
+	private final char delimiter;
+
+	private File openFile;
+	private List<T> openItems;
+	private int numRecords;
+
+	/**
+	 * Creates a store for the files of one kind of item.
+	 *
+	 * @param codec Converts items to and from lines
+	 */
+	public TimedEventStore(TimedEventCodec<T> codec) {
+		this.codec = codec;
+		this.delimiter = Constants.annotationFileDelimiter.charAt(0);
+	}
+
+	/**
+	 * Parses the items of a file, after replaying its journal.
+	 * 
+	 * Proceeds line by line, parsing at most one item per line.
+	 * Everything from the last inline comment indicator of a line on is ignored.
+	 * 
+	 * @param file The file to be parsed
+	 * @return The items from the file, or <code>null</code> if the file does not exist
+	 */
+	public synchronized List<T> parse(File file) {
+		try {
+			compact(file);
+		}
+		catch(IOException e) {
+			e.printStackTrace();
+		}
+		BufferedReader br;
+		try {
+			br = new BufferedReader(new FileReader(file));
+		} 
+		catch (FileNotFoundException e) {
+			e.printStackTrace();
+			return null;
+		}
+		ArrayList<T> items = new ArrayList<T>();
+		try {
+			FieldTokenizer fields = new FieldTokenizer(delimiter);
+			int lineNum = 1;
+			String line = br.readLine();
+			while(line != null) {
+				int end = line.lastIndexOf(Constants.inlineCommentIndicator);
+				if(end < 0) {
+					end = line.length();
+				}
+				if(end > 0) {
+					T item = codec.decode(fields.reset(line, 0, end));
+					if(item != null) {
+						items.add(item);
+					}
+					else if(FieldTokenizer.isBlank(line, 0, end) == false) {
+						System.err.println("line #" + lineNum + " unparseable: " + line.substring(0, end));
+					}
+				}
+				line = br.readLine();
+				lineNum++;
+			}
+			br.close();
+		} 
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+		return items;
+	}
+
+	/**
+	 * Adds an item to a file, before the first item with a later time.
+	 * 
+	 * @param item The item to add
+	 * @param oFile The file
+	 * @throws IOException If the file cannot be read or the journal cannot be written
+	 */
+	public synchronized void append(T item, File oFile) throws IOException {
+		appendAll(Collections.singletonList(item), oFile);
+	}
+
+	/**
+	 * Adds items to a file, each before the first item with a later time, with a single write to the journal.
+	 * 
+	 * @param items The items to add, in the order they would have been added one by one
+	 * @param oFile The file
+	 * @throws IOException If the file cannot be read or the journal cannot be written
+	 */
+	public synchronized void appendAll(Collection<T> items, File oFile) throws IOException {
+		open(oFile);
+		StringBuilder records = new StringBuilder();
+		List<T> decoded = new ArrayList<T>(items.size());
+		FieldTokenizer fields = new FieldTokenizer(delimiter);
+		for(T item: items) {
+			String line = codec.encode(item);
+			records.append(addRecord).append(delimiter).append(line).append('\n');
+			decoded.add(codec.decode(fields.reset(line)));
+		}
+		writeRecords(oFile, records.toString());
+		for(T item: decoded) {
+			openItems.add(TimeIndex.firstAfter(openItems, item.getTime()), item);
+		}
+		recordsWritten(oFile, items.size());
+	}
+
+	/**
+	 * Removes every line matching the provided item from a file.
+	 * 
+	 * @param item The item to remove
+	 * @param oFile The file
+	 * @return <code>true</code> iff the item was found, nothing is journaled if not
+	 * @throws IOException If the file cannot be read or the journal cannot be written
+	 */
+	public synchronized boolean remove(T item, File oFile) throws IOException {
+		open(oFile);
+		int index = indexOf(openItems, item);
+		if(index < 0) {
+			return false;
+		}
+		while(index >= 0) {
+			openItems.remove(index);
+			index = indexOf(openItems, item);
+		}
+		writeRecords(oFile, removeRecord + delimiter + codec.encode(item) + "\n");
+		recordsWritten(oFile, 1);
+		return true;
+	}
+
+	/**
+	 * Applies the journal of the provided file, if it has one, and deletes the journal.
+	 *
+	 * @param oFile The file
+	 * @throws IOException If the files cannot be read, written or renamed
+	 */
+	public synchronized void compact(File oFile) throws IOException {
+		FileTransaction.recover(transactionFile(oFile));
+		File journal = journalFile(oFile);
+		if(oFile.equals(openFile)) {
+			numRecords = 0;
+		}
+		if(journal.exists() == false) {
+			return;
+		}
+		List<String> records = readRecords(journal);
+		if(records.isEmpty()) {
+			if(journal.delete() == false) {
+				throw new IOException("could not delete empty journal");
+			}
+		}
+		else {
+			if(oFile.exists() == false) {
+				throw new IOException("journal found without its file: " + journal);
+			}
+			applyRecords(oFile, records);
+		}
+	}
+
+	/**
+	 * Compacts the journal of the open file and forgets its items.
+	 *
+	 * Must be called before the file is renamed, deleted or rewritten by anything other than this store.
+	 *
+	 * @throws IOException If the journal cannot be compacted
+	 */
+	public synchronized void closeJournal() throws IOException {
+		if(openFile != null) {
+			File toCompact = openFile;
+			openFile = null;
+			openItems = null;
+			compact(toCompact);
+		}
+	}
+
+	/**
+	 * Starts a transaction that can replace a file of this store together with other files.
+	 * 
+	 * A transaction interrupted by a crash is finished the next time the file is opened or parsed.
+	 * 
+	 * @param oFile The file the transaction is recorded next to
+	 * @return A transaction that forces files to disk if {@link SysInfo#syncFileReplacements} is set
+	 */
+	public FileTransaction beginTransaction(File oFile) {
+		return new FileTransaction(transactionFile(oFile), SysInfo.sys.syncFileReplacements);
+	}
+
+	/**
+	 * Stages a complete replacement of a file's contents, and the deletion of its journal, in a transaction.
+	 * 
+	 * The file is written in a single pass as a new header followed by the items, exactly as writing the items and then calling {@link #prependHeader(File, String)} would.
+	 * Any items in memory for the file are forgotten, so they are read again from the file once the transaction has committed, or failed.
+	 * 
+	 * @param oFile The file to replace
+	 * @param annotatorName The annotator named in the new header
+	 * @param items The items of the new file, in order
+	 * @param transaction A transaction from {@link #beginTransaction(File)}
+	 * @throws IOException If the new contents cannot be staged
+	 */
+	public synchronized void stageReplacement(File oFile, String annotatorName, List<T> items, FileTransaction transaction) throws IOException {
+		StringWriter contents = new StringWriter();
+		BufferedWriter fw = new BufferedWriter(contents);
+		writeHeader(fw, annotatorName);
+		for(T item: items) {
+			fw.write(codec.encode(item) + "\n");
+		}
+		fw.close();
+		transaction.stage(oFile, contents.toString(), Charset.defaultCharset());
+		transaction.stageDeletion(journalFile(oFile));
+		if(oFile.equals(openFile)) {
+			openFile = null;
+			openItems = null;
+		}
+	}
+
+	public boolean headerExists(File oFile) {
+		if(oFile.exists()) {
+			BufferedReader br;
+			try {
+				br = new BufferedReader(new FileReader(oFile));
+				String firstLine = br.readLine();
+				br.close();
+				if(firstLine != null) {
+					return firstLine.contains(Constants.headerStartLine);
+				}
+				else {
+					return false;
+				}
+			} 	
+			catch (IOException e) {
+				e.printStackTrace();
+				return false;
+			}
+		}
+		else {
+			return false;
+		}
+	}
+	
+
+
+	public synchronized void prependHeader(File oFile, String annotatorName) throws IOException {		
+		if(oFile.exists() == false) {
+			throw new FileNotFoundException(oFile + " not found");
+		}
+		compact(oFile);
+		
+		StringWriter contents = new StringWriter();
+		BufferedWriter fw = new BufferedWriter(contents);
+		writeHeader(fw, annotatorName);
+		
+		BufferedReader br = new BufferedReader(new FileReader(oFile));
+		String curLine;
+		while((curLine = br.readLine()) != null) {
+			fw.write(curLine + "\n");
+		}
+		br.close();
+		
+		fw.close();		
+		
+		replace(oFile, contents.toString());
+	}
+
+	/**
+	 * Writes the header that {@link #prependHeader(File, String)} adds, followed by the blank line that ends it.
+	 */
+	private void writeHeader(BufferedWriter fw, String annotatorName) throws IOException {
+		fw.write(Constants.headerStartLine + "\n");
+		fw.write(Constants.commentStart + "Annotator: " + annotatorName + "\n");
+		
+		Date date = new Date();
+		String utcString = DateFormat.getDateInstance(DateFormat.LONG).format(date) + Constants.annotationFileDelimiter + DateFormat.getTimeInstance(DateFormat.LONG).format(date);
+		fw.write(Constants.commentStart + "UTC Locally Formatted: " +  utcString + "\n");
+		
+		fw.write(Constants.commentStart + "UNIX: " + System.currentTimeMillis()/1000 + "\n");
+		
+		fw.write(Constants.commentStart + "Program Version: " + Constants.programVersion + "\n");
+		
+		String[] osPropertyStrings = {"os.name", "os.arch", "user.name", "user.country", "user.language"};
+		writePropertyLine("OS Properties", osPropertyStrings, fw);		
+		String[] javaPropertyStrings = {
+				"java.runtime.version", "java.specification.name", "java.specification.vendor", "java.specification.version", "java.vendor", "java.version",
+				"java.vm.name", "java.vm.specification.name", "java.vm.specification.vendor", "java.vm.specification.version", "java.vm.vendor", "java.vm.version"};
+		writePropertyLine("Java Properties", javaPropertyStrings, fw);
+
+		fw.write("\n");
+	}
+	
+	private void writePropertyLine(String name, String[] properties, BufferedWriter fw) throws IOException {
+		fw.write(Constants.commentStart + name + ": ");
+		for(String prop: properties) {
+			String propVal = System.getProperty(prop);
+			if(propVal != null) {
+				if(propVal.contains(Constants.propertyPairOpenBrace) || propVal.contains(Constants.propertyPairCloseBrace) || propVal.contains(Constants.annotationFileDelimiter)) {
+					System.err.println("cannot store property value: " + propVal + " because it contains a reserved character");
+					continue;
+				}
+			}
+			else {
+				System.err.println("no such property: " + prop);
+				continue;
+			}
+			fw.write(Constants.propertyPairOpenBrace);
+			fw.write(prop);
+			fw.write(Constants.annotationFileDelimiter);
+			fw.write(propVal);
+			fw.write(Constants.propertyPairCloseBrace);
+		}
+		fw.write("\n");
+	}
+
+	public synchronized void addField(File oFile, String string) throws IOException {
+		if(oFile.exists() == false) {
+			throw new FileNotFoundException(oFile + " not found");
+		}
+		compact(oFile);
+		
+		StringWriter contents = new StringWriter();
+		BufferedWriter fw = new BufferedWriter(contents);
+		
+		BufferedReader br = new BufferedReader(new FileReader(oFile));
+		String curLine;
+		boolean wroteTime = false;
+		while((curLine = br.readLine()) != null) {
+			if(curLine.startsWith("#") == false && wroteTime == false) {
+				fw.write(Constants.commentStart + string + "\n");
+				wroteTime = true;
+			}
+			fw.write(curLine + "\n");
+		}
+		br.close();
+		
+		fw.close();		
+		
+		replace(oFile, contents.toString());
+	}
+
+	private void open(File oFile) throws IOException {
+		if(oFile.equals(openFile)) {
+			return;
+		}
+		closeJournal();
+		compact(oFile);
+		List<T> items = new ArrayList<T>();
+		FieldTokenizer fields = new FieldTokenizer(delimiter);
+		BufferedReader reader = new BufferedReader(new FileReader(oFile));
+		try {
+			String curLine;
+			while((curLine = reader.readLine()) != null) {
+				T item = codec.decode(fields.reset(curLine));
+				if(item != null) {
+					items.add(TimeIndex.firstAfter(items, item.getTime()), item);
+				}
+			}
+		}
+		finally {
+			reader.close();
+		}
+		openFile = oFile;
+		openItems = items;
+		numRecords = 0;
+	}
+
+	/**
+	 * Returns the index of an item equal to the provided one, searching only the items at its time.
+	 */
+	private static <T extends Timed> int indexOf(List<T> sorted, T item) {
+		for(int i = TimeIndex.firstAtOrAfter(sorted, item.getTime()); i < sorted.size() && sorted.get(i).getTime() == item.getTime(); i++) {
+			if(item.equals(sorted.get(i))) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void recordsWritten(File oFile, int num) throws IOException {
+		numRecords += num;
+		if(numRecords >= Constants.eventJournalCompactionThreshold) {
+			compact(oFile);
+		}
+	}
+
+	private void writeRecords(File oFile, String records) throws IOException {
+		BufferedWriter writer = new BufferedWriter(new FileWriter(journalFile(oFile), true));
+		try {
+			writer.write(records);
+		}
+		finally {
+			writer.close();
+		}
+	}
+
+	private List<String> readRecords(File journal) throws IOException {
+		StringBuilder buff = new StringBuilder();
+		BufferedReader reader = new BufferedReader(new FileReader(journal));
+		try {
+			char[] chars = new char[4096];
+			int numRead;
+			while((numRead = reader.read(chars)) != -1) {
+				buff.append(chars, 0, numRead);
+			}
+		}
+		finally {
+			reader.close();
+		}
+		List<String> records = new ArrayList<String>();
+		int start = 0;
+		int end;
+		while((end = buff.indexOf("\n", start)) >= 0) {
+			records.add(buff.substring(start, end));
+			start = end + 1;
+		}
+		if(start < buff.length()) {
+			System.err.println("ignoring incomplete journal record: " + buff.substring(start));
+		}
+		return records;
+	}
+
+	/**
+	 * Rewrites the file with the records applied, in a single write.
+	 */
+	private void applyRecords(File oFile, List<String> records) throws IOException {
+		FieldTokenizer fields = new FieldTokenizer(delimiter);
+		List<String> lines = new ArrayList<String>();
+		List<T> items = new ArrayList<T>();
+		BufferedReader reader = new BufferedReader(new FileReader(oFile));
+		try {
+			String curLine;
+			while((curLine = reader.readLine()) != null) {
+				lines.add(curLine);
+				items.add(codec.decode(fields.reset(curLine)));
+			}
+		}
+		finally {
+			reader.close();
+		}
+
+		for(String record: records) {
+			int split = record.indexOf(delimiter);
+			if(split <= 0) {
+				System.err.println("journal record unparseable: " + record);
+				continue;
+			}
+			String type = record.substring(0, split);
+			String line = record.substring(split + 1);
+			T item = codec.decode(fields.reset(line));
+			if(item == null) {
+				System.err.println("journal record unparseable: " + record);
+				continue;
+			}
+			if(type.equals(addRecord)) {
+				//insert before the first item that comes later, as the per-item rewrites always did
+				int pos = lines.size();
+				for(int i = 0; i < items.size(); i++) {
+					T curItem = items.get(i);
+					if(curItem != null && item.getTime() < curItem.getTime()) {
+						pos = i;
+						break;
+					}
+				}
+				lines.add(pos, line);
+				items.add(pos, item);
+			}
+			else if(type.equals(removeRecord)) {
+				for(int i = items.size() - 1; i >= 0; i--) {
+					if(item.equals(items.get(i))) {
+						lines.remove(i);
+						items.remove(i);
+					}
+				}
+			}
+			else {
+				System.err.println("unknown journal record: " + record);
+			}
+		}
+
+		StringBuilder contents = new StringBuilder();
+		for(String line: lines) {
+			contents.append(line).append('\n');
+		}
+		replace(oFile, contents.toString());
+	}
+
+	/**
+	 * Replaces a file's contents and deletes its journal, as one {@link FileTransaction}.
+	 */
+	private void replace(File oFile, String contents) throws IOException {
+		FileTransaction transaction = beginTransaction(oFile);
+		transaction.stage(oFile, contents, Charset.defaultCharset());
+		transaction.stageDeletion(journalFile(oFile));
+		transaction.commit();
+	}
+
+	private static File journalFile(File oFile) {
+		return new File(oFile.getAbsolutePath() + "." + Constants.eventJournalFileExtension);
+	}
+
+	private static File transactionFile(File oFile) {
+		return new File(oFile.getAbsolutePath() + "." + Constants.transactionFileExtension);
+	}
+}
@@ -0,0 +1,238 @@
+//    This file is part of Penn TotalRecall <http://memory.psych.upenn.edu/TotalRecall>.
+//
+//    TotalRecall is free software: you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation, version 3 only.
+//
+//    TotalRecall is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with TotalRecall.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+import javax.swing.table.TableModel;
+
+/**
+ * Read-only <code>TableModel</code> of {@link Timed} items kept in order of time, one item per row.
+ *
+ * Single items are placed by a binary search over a primitive array of the rows' times, and only an <code>INSERT</code> or <code>DELETE</code> event for that row is fired,
+ * so a <code>JTable</code> shows an added or removed row without re-sorting the items or laying out every row again.
+ * Items with equal times keep the order they were added in.
+ *
+ * Subclasses supply the columns and keep their own names for the protected mutators, which are meant for their display classes.
+ *
+ * @author Yuvi Masory
+ */
+public abstract class TimedTableModel<T extends Timed> implements TableModel {
+
+	private static final String colErr = "column index out of range";
+	private static final String rowErr = "row index out of range";
+	private static final String stateErr = "inconsistency in internal column handling";
+
+	private static final Comparator<Timed> byTime = new Comparator<Timed>() {
+		public int compare(Timed a, Timed b) {
+			return Double.compare(a.getTime(), b.getTime());
+		}
+	};
+
+	private final HashSet<TableModelListener> listeners;
+
+	private final Class<?>[] columnClasses;
+	private final String[] columnNames;
+
+	private final ArrayList<T> rows;
+	private double[] times;
+
+	private int version;
+
+	/**
+	 * Creates an empty model.
+	 *
+	 * @param columnClasses The class of each column's values
+	 * @param columnNames The header of each column
+	 */
+	protected TimedTableModel(Class<?>[] columnClasses, String[] columnNames) {
+		if(columnClasses.length != columnNames.length) {
+			throw new IllegalStateException(stateErr);
+		}
+		this.columnClasses = columnClasses;
+		this.columnNames = columnNames;
+		listeners = new HashSet<TableModelListener>();
+		rows = new ArrayList<T>();
+		times = new double[16];
+		version = 0;
+	}
+
+	/**
+	 * Returns the value shown for an item in a column.
+	 *
+	 * @param item The item of the row
+	 * @param columnIndex The column, already checked to be in range
+	 */
+	protected abstract Object getColumnValue(T item, int columnIndex);
+
+	public int getColumnCount() {
+		return columnClasses.length;
+	}
+
+	public int getRowCount() {
+		return rows.size();
+	}
+
+	public Class<?> getColumnClass(int columnIndex) {
+		if(columnIndex >= columnClasses.length || columnIndex < 0) {
+			throw new IllegalArgumentException(colErr);
+		}
+		return columnClasses[columnIndex];
+	}
+
+	public boolean isCellEditable(int row, int col) {
+		return false;
+	}
+
+	public void addTableModelListener(TableModelListener l) {
+		listeners.add(l);
+	}
+
+	public void removeTableModelListener(TableModelListener l) {
+		listeners.remove(l);
+	}
+
+	public String getColumnName(int columnIndex) {
+		if(columnIndex >= columnNames.length || columnIndex < 0) {
+			throw new IllegalArgumentException(colErr);
+		}
+		return columnNames[columnIndex];
+	}
+
+	public Object getValueAt(int rowIndex, int columnIndex) {
+		if(columnIndex >= columnClasses.length || columnIndex < 0) {
+			throw new IllegalArgumentException(colErr);
+		}
+		return getColumnValue(get(rowIndex), columnIndex);
+	}
+
+	public void setValueAt(Object aValue, int rowIndex, int columnIndex) {
+		throw new UnsupportedOperationException("setting table values not supported, use add/remove methods");
+	}
+
+	public int size() {
+		return rows.size();
+	}
+
+	/**
+	 * Returns a count of the changes made to the model, which only ever increases.
+	 *
+	 * Unlike the number of rows, this changes when an item is removed and another added in its place.
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	protected T get(int rowIndex) {
+		if(rowIndex < 0 || rowIndex >= rows.size()) {
+			throw new IllegalArgumentException(rowErr);
+		}
+		return rows.get(rowIndex);
+	}
+
+	/**
+	 * Returns the index of the first item at or after the provided time, found by binary search.
+	 */
+	protected int firstAtOrAfter(double timeMillis) {
+		return TimeIndex.firstAtOrAfter(times, rows.size(), timeMillis);
+	}
+
+	/**
+	 * Returns the index of the first item after the provided time, found by binary search.
+	 */
+	protected int firstAfter(double timeMillis) {
+		return TimeIndex.firstAfter(times, rows.size(), timeMillis);
+	}
+
+	protected T[] toArray(T[] a) {
+		return rows.toArray(a);
+	}
+
+	/**
+	 * Adds an item after every item at or before its time, firing an <code>INSERT</code> event for its row.
+	 *
+	 * @return The row of the item
+	 */
+	protected int insert(T item) {
+		int size = rows.size();
+		int index = TimeIndex.firstAfter(times, size, item.getTime());
+		if(size == times.length) {
+			times = Arrays.copyOf(times, size * 2);
+		}
+		System.arraycopy(times, index, times, index + 1, size - index);
+		times[index] = item.getTime();
+		rows.add(index, item);
+		fireTableChanged(new TableModelEvent(this, index, index, TableModelEvent.ALL_COLUMNS, TableModelEvent.INSERT));
+		return index;
+	}
+
+	/**
+	 * Adds many items with one sort, firing a single event for the whole table.
+	 */
+	protected void insertAll(Iterable<T> batch) {
+		for(T item: batch) {
+			rows.add(item);
+		}
+		//stable, so items with equal times stay in the order they were added
+		Collections.sort(rows, byTime);
+		if(times.length < rows.size()) {
+			times = new double[Math.max(rows.size(), times.length * 2)];
+		}
+		for(int i = 0; i < rows.size(); i++) {
+			times[i] = rows.get(i).getTime();
+		}
+		fireTableChanged(new TableModelEvent(this));
+	}
+
+	/**
+	 * Removes the item of a row, firing a <code>DELETE</code> event for that row.
+	 *
+	 * @return The removed item
+	 */
+	protected T remove(int rowIndex) {
+		if(rowIndex < 0 || rowIndex >= rows.size()) {
+			throw new IllegalArgumentException(rowErr);
+		}
+		T item = rows.remove(rowIndex);
+		System.arraycopy(times, rowIndex + 1, times, rowIndex, rows.size() - rowIndex);
+		fireTableChanged(new TableModelEvent(this, rowIndex, rowIndex, TableModelEvent.ALL_COLUMNS, TableModelEvent.DELETE));
+		return item;
+	}
+
+	/**
+	 * Removes every item, firing a <code>DELETE</code> event for all rows.
+	 */
+	protected void clear() {
+		int size = rows.size();
+		rows.clear();
+		if(size > 0) {
+			fireTableChanged(new TableModelEvent(this, 0, size - 1, TableModelEvent.ALL_COLUMNS, TableModelEvent.DELETE));
+		}
+	}
+
+	protected void fireTableChanged(TableModelEvent e) {
+		version++;
+		for(TableModelListener tml: listeners) {
+			tml.tableChanged(e);
+		}
+	}
+}
@@ -0,0 +1,237 @@
+//    This file is part of Penn TotalRecall <http://memory.psych.upenn.edu/TotalRecall>.
+//
+//    TotalRecall is free software: you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation, version 3 only.
+//
+//    TotalRecall is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with TotalRecall.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package edu.upenn.psych.memory.totalrecall.tests;
+
+import info.Constants;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import components.annotations.Annotation;
+import components.annotations.AnnotationFileParser;
+import components.suggestions.Suggestion;
+import components.suggestions.SuggestionFileParser;
+
+/**
+ * Compares the <code>FieldTokenizer</code> based parsers against the <code>Scanner</code> and regex parsing they replaced,
+ * on synthetic 100,000 line annotation (.tmp/.ann) and suggestion (.mmw) files.
+ *
+ * Checks that both give identical results, then reports the median lines per second of each over many runs,
+ * and the bytes allocated per line where the JVM can count them. Both sides read the file with the same <code>BufferedReader</code>, so the difference is parsing alone.
+ * Usage: <code>AnnotationParseBenchmark [numLines]</code>
+ *
+ * @author Yuvi Masory
+ */
+public class AnnotationParseBenchmark {
+
+	private static final int warmupRuns = 3;
+	private static final int timedRuns = 7;
+
+	private static final Pattern delimiter = Pattern.compile(Constants.annotationFileDelimiter);
+	private static final Pattern commentPattern = Pattern.compile("(.*)" + Constants.inlineCommentIndicator + ".*");
+
+	private static interface Parser {
+		public List<?> parse(File file) throws IOException;
+	}
+
+	public static void main(String[] args) throws IOException {
+		int numLines = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+
+		File annFile = File.createTempFile("parsebench", "." + Constants.temporaryAnnotationFileExtension);
+		File suggFile = File.createTempFile("parsebench", "." + Constants.temporarySuggestionFileExtension);
+		annFile.deleteOnExit();
+		suggFile.deleteOnExit();
+		writeFile(annFile, numLines, false);
+		writeFile(suggFile, numLines, true);
+
+		compare("annotations", annFile, numLines, new Parser() {
+			public List<?> parse(File file) throws IOException {
+				return scannerParse(file, false);
+			}
+		}, new Parser() {
+			public List<?> parse(File file) {
+				return AnnotationFileParser.parse(file);
+			}
+		});
+		compare("suggestions", suggFile, numLines, new Parser() {
+			public List<?> parse(File file) throws IOException {
+				return scannerParse(file, true);
+			}
+		}, new Parser() {
+			public List<?> parse(File file) {
+				return SuggestionFileParser.parse(file);
+			}
+		});
+	}
+
+	private static void compare(String name, File file, int numLines, Parser scanner, Parser tokenizer) throws IOException {
+		if(scanner.parse(file).equals(tokenizer.parse(file)) == false) {
+			System.err.println(name + ": results differ!");
+			System.exit(1);
+		}
+		for(int i = 0; i < warmupRuns; i++) {
+			scanner.parse(file);
+			tokenizer.parse(file);
+		}
+
+		long[] scannerNanos = new long[timedRuns];
+		long[] tokenizerNanos = new long[timedRuns];
+		long scannerBytes = 0;
+		long tokenizerBytes = 0;
+		for(int i = 0; i < timedRuns; i++) {
+			long bytes = allocatedBytes();
+			long start = System.nanoTime();
+			scanner.parse(file);
+			scannerNanos[i] = System.nanoTime() - start;
+			scannerBytes += allocatedBytes() - bytes;
+
+			bytes = allocatedBytes();
+			start = System.nanoTime();
+			tokenizer.parse(file);
+			tokenizerNanos[i] = System.nanoTime() - start;
+			tokenizerBytes += allocatedBytes() - bytes;
+		}
+
+		System.out.println(name + ", " + numLines + " lines, median of " + timedRuns + " runs");
+		report("scanner:  ", numLines, median(scannerNanos), scannerBytes / timedRuns);
+		report("tokenizer:", numLines, median(tokenizerNanos), tokenizerBytes / timedRuns);
+		System.out.println("speedup:   " + ((double)median(scannerNanos) / median(tokenizerNanos)) + "x");
+	}
+
+	private static void report(String name, int numLines, long nanos, long bytes) {
+		String allocation = allocatedBytes() < 0 ? "n/a" : (bytes / numLines) + " bytes/line";
+		System.out.println(name + " " + (long)(numLines / (nanos / 1e9)) + " lines/sec, " + allocation);
+	}
+
+	/**
+	 * Writes a header like <code>AnnotationFileParser.prependHeader</code> does, then lines at times that fall on 44.1 kHz frames, as real annotations do.
+	 */
+	private static void writeFile(File file, int numLines, boolean suggestions) throws IOException {
+		Random rand = new Random(0);
+		BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+		writer.write(Constants.headerStartLine + "\n");
+		writer.write(Constants.commentStart + "Annotator: benchmark\n");
+		writer.write(Constants.commentStart + "UNIX: " + System.currentTimeMillis()/1000 + "\n");
+		writer.write("\n");
+		long frame = 0;
+		for(int i = 0; i < numLines; i++) {
+			frame += rand.nextInt(44100 * 5);
+			double time = frame * 1000.0 / 44100;
+			String text = "WORD" + rand.nextInt(300);
+			String middle = suggestions ? Double.toString(rand.nextDouble()) : Integer.toString(rand.nextInt(300));
+			writer.write(time + Constants.annotationFileDelimiter + middle + Constants.annotationFileDelimiter + text);
+			if(i % 50 == 0) {
+				writer.write(" " + Constants.inlineCommentIndicator + "checked");
+			}
+			writer.write("\n");
+		}
+		writer.close();
+	}
+
+	/**
+	 * The parsing loop the file parsers used before <code>FieldTokenizer</code>.
+	 */
+	private static List<Object> scannerParse(File file, boolean suggestions) throws IOException {
+		BufferedReader br = new BufferedReader(new FileReader(file));
+		ArrayList<Object> anns = new ArrayList<Object>();
+		int lineNum = 1;
+		String line = br.readLine();
+		while(line != null) {
+			Matcher m = commentPattern.matcher(line);
+			if(m.matches()) {
+				line = m.group(1);
+			}
+			if(line.length() > 0) {
+				Object ann = suggestions ? scannerParseSuggestion(line) : scannerParseAnnotation(line);
+				if(ann != null) {
+					anns.add(ann);
+				}
+				else {
+					Matcher whiteSpace = Pattern.compile("\\s*").matcher(line);
+					if(whiteSpace.matches() == false) {
+						System.err.println("line #" + lineNum + " unparseable: " + line);
+					}
+				}
+			}
+			line = br.readLine();
+			lineNum++;
+		}
+		br.close();
+		return anns;
+	}
+
+	private static Annotation scannerParseAnnotation(String line) {
+		Scanner sc = new Scanner(line).useDelimiter(delimiter);
+		if(sc.hasNextDouble()) {
+			double time = sc.nextDouble();
+			if(sc.hasNextInt()) {
+				int wordNum = sc.nextInt();
+				if(sc.hasNext()) {
+					String text = sc.next().toUpperCase();
+					return new Annotation(time, wordNum, text);
+				}
+			}
+		}
+		return null;
+	}
+
+	private static Suggestion scannerParseSuggestion(String line) {
+		Scanner sc = new Scanner(line).useDelimiter(delimiter);
+		if(sc.hasNextDouble()) {
+			double time = sc.nextDouble();
+			if(sc.hasNextDouble()) {
+				double wordScore = sc.nextDouble();
+				if(sc.hasNext()) {
+					String text = sc.next().toUpperCase();
+					return new Suggestion(time, wordScore, text);
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the number of bytes the current thread has allocated, or <code>-1</code> if the JVM does not count them.
+	 */
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if(bean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean)bean;
+			if(sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+				return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
+
+	private static long median(long[] vals) {
+		long[] sorted = vals.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+}
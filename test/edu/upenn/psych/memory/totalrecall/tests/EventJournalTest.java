@@ -0,0 +1,402 @@
+//    This file is part of Penn TotalRecall <http://memory.psych.upenn.edu/TotalRecall>.
+//
+//    TotalRecall is free software: you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation, version 3 only.
+//
+//    TotalRecall is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with TotalRecall.  If not, see <http://www.gnu.org/licenses/>.
+
+package edu.upenn.psych.memory.totalrecall.tests;
+
+import info.Constants;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.regex.Pattern;
+
+import components.annotations.Annotation;
+import components.annotations.AnnotationFileParser;
+import components.suggestions.Suggestion;
+import components.suggestions.SuggestionFileParser;
+
+import util.Timed;
+
+/**
+ * Checks that journaling additions and removals leaves annotation (.tmp) and suggestion (.mmw) files byte for byte what the per-item rewrites they replaced left.
+ *
+ * The same random additions, duplicate additions, removals of present and missing items, and <code>addField</code> calls are made
+ * on two copies of each file, one through the old rewrites, copied here, and one through <code>AnnotationFileParser</code> or <code>SuggestionFileParser</code>.
+ * Annotation and suggestion operations are interleaved, as both kinds of file are edited while an audio file is open.
+ * The copies are compared whenever the journals are closed, and a journal copied away mid-run, as a crash would leave it, is replayed and compared too.
+ * Usage: <code>EventJournalTest [numOperations] [seed]</code>
+ *
+ * @author Yuvi Masory
+ */
+public class EventJournalTest {
+
+	private static final int operationsPerCheck = 50;
+
+	private static final Pattern delimiter = Pattern.compile(Constants.annotationFileDelimiter);
+
+	/**
+	 * One kind of file: its old line parsing, and the parser that now edits it.
+	 */
+	private static abstract class Format<T extends Timed> {
+
+		protected abstract String getName();
+		protected abstract String getExtension();
+		protected abstract T randomItem(Random rand);
+		protected abstract T oldParseLine(Scanner sc);
+		protected abstract String makeLine(T item);
+		protected abstract void append(T item, File oFile) throws IOException;
+		protected abstract boolean remove(T item, File oFile) throws IOException;
+		protected abstract void addField(File oFile, String field) throws IOException;
+		protected abstract void closeJournal() throws IOException;
+		protected abstract List<T> parse(File oFile);
+
+		protected T oldParseLine(String line) {
+			return oldParseLine(new Scanner(line).useDelimiter(delimiter));
+		}
+	}
+
+	private static final Format<Annotation> annotations = new Format<Annotation>() {
+		protected String getName() {
+			return "annotations";
+		}
+		protected String getExtension() {
+			return Constants.temporaryAnnotationFileExtension;
+		}
+		protected Annotation randomItem(Random rand) {
+			return new Annotation(randomTime(rand), rand.nextInt(20), "WORD" + rand.nextInt(5));
+		}
+		protected Annotation oldParseLine(Scanner sc) {
+			if(sc.hasNextDouble()) {
+				double time = sc.nextDouble();
+				if(sc.hasNextInt()) {
+					int wordNum = sc.nextInt();
+					if(sc.hasNext()) {
+						String text = sc.next().toUpperCase();
+						return new Annotation(time, wordNum, text);
+					}
+				}
+			}
+			return null;
+		}
+		protected String makeLine(Annotation ann) {
+			return AnnotationFileParser.makeLine(ann);
+		}
+		protected void append(Annotation ann, File oFile) throws IOException {
+			AnnotationFileParser.appendAnnotation(ann, oFile);
+		}
+		protected boolean remove(Annotation ann, File oFile) throws IOException {
+			return AnnotationFileParser.removeAnnotation(ann, oFile);
+		}
+		protected void addField(File oFile, String field) throws IOException {
+			AnnotationFileParser.addField(oFile, field);
+		}
+		protected void closeJournal() throws IOException {
+			AnnotationFileParser.closeJournal();
+		}
+		protected List<Annotation> parse(File oFile) {
+			return AnnotationFileParser.parse(oFile);
+		}
+	};
+
+	private static final Format<Suggestion> suggestions = new Format<Suggestion>() {
+		protected String getName() {
+			return "suggestions";
+		}
+		protected String getExtension() {
+			return Constants.temporarySuggestionFileExtension;
+		}
+		protected Suggestion randomItem(Random rand) {
+			return new Suggestion(randomTime(rand), rand.nextInt(100) / 100.0, "WORD" + rand.nextInt(5));
+		}
+		protected Suggestion oldParseLine(Scanner sc) {
+			if(sc.hasNextDouble()) {
+				double time = sc.nextDouble();
+				if(sc.hasNextDouble()) {
+					double wordScore = sc.nextDouble();
+					if(sc.hasNext()) {
+						String text = sc.next().toUpperCase();
+						return new Suggestion(time, wordScore, text);
+					}
+				}
+			}
+			return null;
+		}
+		protected String makeLine(Suggestion sugg) {
+			return sugg.getTime() + Constants.annotationFileDelimiter + sugg.getWordScore() + Constants.annotationFileDelimiter + sugg.getText();
+		}
+		protected void append(Suggestion sugg, File oFile) throws IOException {
+			SuggestionFileParser.appendSuggestion(sugg, oFile);
+		}
+		protected boolean remove(Suggestion sugg, File oFile) throws IOException {
+			return SuggestionFileParser.removeSuggestion(sugg, oFile);
+		}
+		protected void addField(File oFile, String field) throws IOException {
+			SuggestionFileParser.addField(oFile, field);
+		}
+		protected void closeJournal() throws IOException {
+			SuggestionFileParser.closeJournal();
+		}
+		protected List<Suggestion> parse(File oFile) {
+			return SuggestionFileParser.parse(oFile);
+		}
+	};
+
+	/**
+	 * The files and items of one format during a run.
+	 */
+	private static class Run<T extends Timed> {
+
+		private final Format<T> format;
+		private final File oldFile;
+		private final File newFile;
+		private final File crashFile;
+		private final File journal;
+		private final List<T> live;
+		private final int crashAt;
+
+		private byte[] crashExpected;
+		private int crashedAt;
+
+		private Run(Format<T> format, File dir, int crashAt) throws IOException {
+			this.format = format;
+			this.crashAt = crashAt;
+			oldFile = new File(dir, "old." + format.getExtension());
+			newFile = new File(dir, "new." + format.getExtension());
+			crashFile = new File(dir, "crash." + format.getExtension());
+			journal = journalFile(newFile);
+			live = new ArrayList<T>();
+			crashExpected = null;
+			crashedAt = -1;
+			writeHeader(oldFile);
+			Files.copy(oldFile.toPath(), newFile.toPath());
+		}
+
+		private void step(Random rand, int i) throws IOException {
+			int op = rand.nextInt(50);
+			if(op < 30 || live.isEmpty()) {
+				T item = format.randomItem(rand);
+				oldAppend(item);
+				format.append(item, newFile);
+				live.add(item);
+			}
+			else if(op < 35) {
+				//re-annotating the same word at the same time
+				T item = live.get(rand.nextInt(live.size()));
+				oldAppend(item);
+				format.append(item, newFile);
+				live.add(item);
+			}
+			else if(op < 49) {
+				T item = op < 45 ? live.get(rand.nextInt(live.size())) : format.randomItem(rand);
+				boolean oldFound = oldRemove(item);
+				boolean newFound = format.remove(item, newFile);
+				if(oldFound != newFound) {
+					fail(format.getName() + ", operation " + i + ": removal of " + item + " found " + oldFound + " with the rewrite, " + newFound + " with the journal");
+				}
+				while(live.remove(item));
+			}
+			else {
+				String field = "FIELD" + i;
+				oldAddField(field);
+				format.addField(newFile, field);
+			}
+
+			if(crashExpected == null && i >= crashAt && journal.exists()) {
+				Files.copy(newFile.toPath(), crashFile.toPath());
+				Files.copy(journal.toPath(), journalFile(crashFile).toPath());
+				crashExpected = Files.readAllBytes(oldFile.toPath());
+				crashedAt = i;
+			}
+		}
+
+		private void check(String when) throws IOException {
+			format.closeJournal();
+			if(Arrays.equals(Files.readAllBytes(oldFile.toPath()), Files.readAllBytes(newFile.toPath())) == false) {
+				fail(format.getName() + ", " + when + ": journaled file differs from the rewritten file");
+			}
+			if(journal.exists()) {
+				fail(format.getName() + ", " + when + ": journal left after closing it");
+			}
+		}
+
+		private void finish() throws IOException {
+			check("end");
+			if(format.parse(newFile).equals(oldParse()) == false) {
+				fail(format.getName() + ": parsed items differ");
+			}
+			if(crashExpected != null) {
+				//parsing replays the journal left behind
+				format.parse(crashFile);
+				if(Arrays.equals(crashExpected, Files.readAllBytes(crashFile.toPath())) == false) {
+					fail(format.getName() + ": replayed journal differs from the rewrite at operation " + crashedAt);
+				}
+				System.out.println(format.getName() + ": replayed a journal left at operation " + crashedAt);
+			}
+			System.out.println(format.getName() + ": " + live.size() + " items left, files identical");
+		}
+
+		/**
+		 * <code>appendAnnotation</code> and <code>appendSuggestion</code> before the journal.
+		 */
+		private void oldAppend(T item) throws IOException {
+			ArrayList<String> inLines = readLines(oldFile);
+			ArrayList<String> outLines = new ArrayList<String>();
+			String lineToAdd = format.makeLine(item);
+			boolean foundPosition = false;
+			for(int i = 0; i < inLines.size(); i++) {
+				if(foundPosition == false) {
+					T curItem = format.oldParseLine(inLines.get(i));
+					if(curItem != null) {
+						if(item.getTime() < curItem.getTime()) {
+							outLines.add(lineToAdd);
+							foundPosition = true;
+						}
+					}
+				}
+				outLines.add(inLines.get(i));
+			}
+			if(foundPosition == false) {
+				outLines.add(lineToAdd);
+			}
+			writeLines(oldFile, outLines);
+		}
+
+		/**
+		 * <code>removeAnnotation</code> and <code>removeSuggestion</code> before the journal.
+		 */
+		private boolean oldRemove(T itemToDelete) throws IOException {
+			ArrayList<String> outLines = new ArrayList<String>();
+			boolean foundTarget = false;
+			for(String curLine: readLines(oldFile)) {
+				T curItem = format.oldParseLine(curLine);
+				if(curItem != null && curItem.equals(itemToDelete)) {
+					foundTarget = true;
+				}
+				else {
+					outLines.add(curLine);
+				}
+			}
+			writeLines(oldFile, outLines);
+			return foundTarget;
+		}
+
+		/**
+		 * <code>addField</code> before the journal.
+		 */
+		private void oldAddField(String string) throws IOException {
+			ArrayList<String> outLines = new ArrayList<String>();
+			boolean wroteTime = false;
+			for(String curLine: readLines(oldFile)) {
+				if(curLine.startsWith("#") == false && wroteTime == false) {
+					outLines.add(Constants.commentStart + string);
+					wroteTime = true;
+				}
+				outLines.add(curLine);
+			}
+			writeLines(oldFile, outLines);
+		}
+
+		private List<T> oldParse() throws IOException {
+			List<T> items = new ArrayList<T>();
+			for(String line: readLines(oldFile)) {
+				T item = format.oldParseLine(line);
+				if(item != null) {
+					items.add(item);
+				}
+			}
+			return items;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		int numOperations = args.length > 0 ? Integer.parseInt(args[0]) : 600;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 0;
+		Random rand = new Random(seed);
+
+		File dir = Files.createTempDirectory("journaltest").toFile();
+		Run<Annotation> annRun = new Run<Annotation>(annotations, dir, rand.nextInt(numOperations));
+		Run<Suggestion> suggRun = new Run<Suggestion>(suggestions, dir, rand.nextInt(numOperations));
+		for(int i = 0; i < numOperations; i++) {
+			annRun.step(rand, i);
+			suggRun.step(rand, i);
+			if(i % operationsPerCheck == operationsPerCheck - 1) {
+				annRun.check("operation " + i);
+				suggRun.check("operation " + i);
+			}
+		}
+		annRun.finish();
+		suggRun.finish();
+		System.out.println(numOperations + " operations on each file");
+		for(File file: dir.listFiles()) {
+			file.delete();
+		}
+		dir.delete();
+	}
+
+	private static double randomTime(Random rand) {
+		//times that fall on 44.1 kHz frames, as real annotations do, with a few words so that equal items come up
+		return rand.nextInt(44100 * 600) * 1000.0 / 44100;
+	}
+
+	private static File journalFile(File oFile) {
+		return new File(oFile.getAbsolutePath() + "." + Constants.eventJournalFileExtension);
+	}
+
+	private static void fail(String message) {
+		System.err.println(message);
+		System.exit(1);
+	}
+
+	private static void writeHeader(File file) throws IOException {
+		BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+		writer.write(Constants.headerStartLine + "\n");
+		writer.write(Constants.commentStart + "Annotator: test\n");
+		writer.write("\n");
+		writer.close();
+	}
+
+	private static ArrayList<String> readLines(File file) throws IOException {
+		ArrayList<String> lines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		String curLine;
+		while((curLine = reader.readLine()) != null) {
+			lines.add(curLine);
+		}
+		reader.close();
+		return lines;
+	}
+
+	/**
+	 * Writes the lines through a temporary file and a rename, as the old rewrites did.
+	 */
+	private static void writeLines(File oFile, List<String> lines) throws IOException {
+		File nFile = new File(oFile.getAbsolutePath() + "." + Constants.deletionTempFileExtension);
+		BufferedWriter writer = new BufferedWriter(new FileWriter(nFile));
+		for(String line: lines) {
+			writer.write(line + "\n");
+		}
+		writer.close();
+		Files.move(nFile.toPath(), oFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+}
@@ -0,0 +1,260 @@
+//    This file is part of Penn TotalRecall <http://memory.psych.upenn.edu/TotalRecall>.
+//
+//    TotalRecall is free software: you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation, version 3 only.
+//
+//    TotalRecall is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with TotalRecall.  If not, see <http://www.gnu.org/licenses/>.
+
+package edu.upenn.psych.memory.totalrecall.tests;
+
+import info.Constants;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import util.FileTransaction;
+
+import components.annotations.Annotation;
+import components.annotations.AnnotationFileParser;
+
+/**
+ * Checks the single-write intrusion commit of <code>AnnotateAction</code>, and its recovery after a crash.
+ *
+ * First the annotation file written by <code>AnnotationFileParser.stageRewrite</code> is compared with the one the old intrusion code wrote,
+ * every annotation line followed by <code>prependHeader</code>, ignoring the header's timestamps.
+ *
+ * Then a transaction replacing an annotation file and a wordpool file is interrupted at every point, with and without a journal pending,
+ * and the annotation file is parsed as it would be on the next start.
+ * Before its commit record (.txn) is in place, recovery must leave the old files, with the journal (.jnl) applied.
+ * Once the record is in place, after any number of its steps, recovery must leave exactly the new files, and no journal, record or temporary file.
+ * Usage: <code>FileTransactionTest [seed]</code>
+ *
+ * @author Yuvi Masory
+ */
+public class FileTransactionTest {
+
+	private static final int numAnnotations = 200;
+
+	private static final String[] timestampLines = {Constants.commentStart + "UTC Locally Formatted: ", Constants.commentStart + "UNIX: "};
+
+	private static final Comparator<Annotation> byTime = new Comparator<Annotation>() {
+		public int compare(Annotation a, Annotation b) {
+			return Double.compare(a.getTime(), b.getTime());
+		}
+	};
+
+	private static int numScenarios = 0;
+
+	public static void main(String[] args) throws IOException {
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : 0;
+		Random rand = new Random(seed);
+
+		checkRewrite(rand);
+		for(boolean journaled: new boolean[] {false, true}) {
+			checkCrash(rand, journaled, -2);
+			checkCrash(rand, journaled, -1);
+			for(int steps = 0; steps <= 3; steps++) {
+				checkCrash(rand, journaled, steps);
+			}
+		}
+		System.out.println(numScenarios + " scenarios recovered correctly");
+	}
+
+	/**
+	 * Compares a committed rewrite with the lines-then-header rewrite it replaced.
+	 */
+	private static void checkRewrite(Random rand) throws IOException {
+		File dir = Files.createTempDirectory("txntest").toFile();
+		Annotation[] anns = randomAnnotations(rand, numAnnotations);
+
+		File oldFile = new File(dir, "old." + Constants.temporaryAnnotationFileExtension);
+		BufferedWriter fw = new BufferedWriter(new FileWriter(oldFile));
+		for(Annotation ann: anns) {
+			fw.write(AnnotationFileParser.makeLine(ann) + "\n");
+		}
+		fw.close();
+		AnnotationFileParser.prependHeader(oldFile, "test");
+
+		File newFile = new File(dir, "new." + Constants.temporaryAnnotationFileExtension);
+		newFile.createNewFile();
+		FileTransaction transaction = AnnotationFileParser.beginTransaction(newFile);
+		AnnotationFileParser.stageRewrite(newFile, "test", anns, transaction);
+		transaction.commit();
+
+		if(withoutTimestamps(oldFile).equals(withoutTimestamps(newFile)) == false) {
+			fail("single-write rewrite differs from lines followed by prependHeader");
+		}
+		System.out.println("rewrite matches the lines-then-header rewrite");
+		delete(dir);
+	}
+
+	/**
+	 * Interrupts an intrusion commit and recovers.
+	 *
+	 * @param stepsDone <code>-2</code> to crash before the commit record is written, <code>-1</code> to crash while it is being written,
+	 *                  otherwise the number of its steps done before the crash
+	 */
+	private static void checkCrash(Random rand, boolean journaled, int stepsDone) throws IOException {
+		String scenario = (journaled ? "with" : "without") + " journal, " + (stepsDone < 0 ? (stepsDone == -2 ? "no record" : "partial record") : stepsDone + " steps done");
+		File dir = Files.createTempDirectory("txntest").toFile();
+		File annFile = new File(dir, "audio." + Constants.temporaryAnnotationFileExtension);
+		File wpFile = new File(dir, "wordpool.txt");
+		File journal = new File(annFile.getAbsolutePath() + "." + Constants.eventJournalFileExtension);
+		File record = new File(annFile.getAbsolutePath() + "." + Constants.transactionFileExtension);
+		File annTemp = new File(annFile.getAbsolutePath() + "." + Constants.deletionTempFileExtension);
+		File wpTemp = new File(wpFile.getAbsolutePath() + "." + Constants.deletionTempFileExtension);
+
+		//an annotation file, with the annotations since the last compaction still in its journal if journaled, and a wordpool
+		List<Annotation> anns = new ArrayList<Annotation>(Arrays.asList(randomAnnotations(rand, numAnnotations)));
+		annFile.createNewFile();
+		AnnotationFileParser.prependHeader(annFile, "test");
+		for(Annotation ann: anns) {
+			AnnotationFileParser.appendAnnotation(ann, annFile);
+		}
+		if(journaled == false) {
+			AnnotationFileParser.closeJournal();
+		}
+		if(journal.exists() != journaled) {
+			fail(scenario + ": journal not set up");
+		}
+		List<String> words = new ArrayList<String>();
+		for(int i = 0; i < 20; i++) {
+			words.add("WORD" + i);
+		}
+		Files.write(wpFile.toPath(), words, StandardCharsets.UTF_8);
+
+		//the old state, as a restart would find it without the transaction
+		File control = new File(dir, "control." + Constants.temporaryAnnotationFileExtension);
+		Files.copy(annFile.toPath(), control.toPath());
+		if(journaled) {
+			Files.copy(journal.toPath(), new File(control.getAbsolutePath() + "." + Constants.eventJournalFileExtension).toPath());
+		}
+		AnnotationFileParser.parse(control);
+		byte[] oldAnnBytes = Files.readAllBytes(control.toPath());
+		byte[] oldWpBytes = Files.readAllBytes(wpFile.toPath());
+
+		//stage the intrusion as AnnotateAction does, an annotation added and a word inserted into the wordpool
+		Annotation intrusion = new Annotation(randomTime(rand), 21, "INTRUSION");
+		anns.add(intrusion);
+		Annotation[] newAnns = anns.toArray(new Annotation[anns.size()]);
+		Arrays.sort(newAnns, byTime);
+		FileTransaction transaction = AnnotationFileParser.beginTransaction(annFile);
+		AnnotationFileParser.stageRewrite(annFile, "test", newAnns, transaction);
+		words.add(5, intrusion.getText());
+		StringBuilder wpContents = new StringBuilder();
+		for(String word: words) {
+			wpContents.append(word).append(System.lineSeparator());
+		}
+		transaction.stage(wpFile, wpContents.toString(), StandardCharsets.UTF_8);
+		byte[] newAnnBytes = Files.readAllBytes(annTemp.toPath());
+		byte[] newWpBytes = Files.readAllBytes(wpTemp.toPath());
+
+		//the commit record as FileTransaction.commit writes it, then the steps done before the crash
+		String[] steps = {
+				"move\t" + annTemp.getAbsolutePath() + "\t" + annFile.getAbsolutePath(),
+				"delete\t" + journal.getAbsolutePath(),
+				"move\t" + wpTemp.getAbsolutePath() + "\t" + wpFile.getAbsolutePath()};
+		StringBuilder recordContents = new StringBuilder();
+		for(String step: steps) {
+			recordContents.append(step).append('\n');
+		}
+		if(stepsDone == -1) {
+			File partialRecord = new File(record.getAbsolutePath() + "." + Constants.deletionTempFileExtension);
+			Files.write(partialRecord.toPath(), recordContents.substring(0, recordContents.length() / 2).getBytes(StandardCharsets.UTF_8));
+		}
+		else if(stepsDone >= 0) {
+			Files.write(record.toPath(), recordContents.toString().getBytes(StandardCharsets.UTF_8));
+			for(int i = 0; i < stepsDone; i++) {
+				String[] fields = steps[i].split("\t");
+				if(fields[0].equals("move")) {
+					Files.move(new File(fields[1]).toPath(), new File(fields[2]).toPath(), StandardCopyOption.REPLACE_EXISTING);
+				}
+				else {
+					new File(fields[1]).delete();
+				}
+			}
+		}
+
+		//restart
+		AnnotationFileParser.parse(annFile);
+		boolean committed = stepsDone >= 0;
+		if(Arrays.equals(Files.readAllBytes(annFile.toPath()), committed ? newAnnBytes : oldAnnBytes) == false) {
+			fail(scenario + ": annotation file is not the " + (committed ? "new" : "old") + " one");
+		}
+		if(Arrays.equals(Files.readAllBytes(wpFile.toPath()), committed ? newWpBytes : oldWpBytes) == false) {
+			fail(scenario + ": wordpool file is not the " + (committed ? "new" : "old") + " one");
+		}
+		if(journal.exists() || record.exists()) {
+			fail(scenario + ": journal or commit record left after recovery");
+		}
+		if(committed && (annTemp.exists() || wpTemp.exists())) {
+			fail(scenario + ": temporary file left after recovery");
+		}
+
+		//recovering again changes nothing
+		FileTransaction.recover(record);
+		AnnotationFileParser.parse(annFile);
+		if(Arrays.equals(Files.readAllBytes(annFile.toPath()), committed ? newAnnBytes : oldAnnBytes) == false) {
+			fail(scenario + ": second recovery changed the annotation file");
+		}
+		numScenarios++;
+		delete(dir);
+	}
+
+	private static Annotation[] randomAnnotations(Random rand, int num) {
+		Annotation[] anns = new Annotation[num];
+		for(int i = 0; i < num; i++) {
+			anns[i] = new Annotation(randomTime(rand), rand.nextInt(20), "WORD" + rand.nextInt(20));
+		}
+		Arrays.sort(anns, byTime);
+		return anns;
+	}
+
+	private static double randomTime(Random rand) {
+		return rand.nextInt(44100 * 600) * 1000.0 / 44100;
+	}
+
+	private static List<String> withoutTimestamps(File file) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		outer:
+		for(String line: Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+			for(String prefix: timestampLines) {
+				if(line.startsWith(prefix)) {
+					continue outer;
+				}
+			}
+			lines.add(line);
+		}
+		return lines;
+	}
+
+	private static void fail(String message) {
+		System.err.println(message);
+		System.exit(1);
+	}
+
+	private static void delete(File dir) throws IOException {
+		AnnotationFileParser.closeJournal();
+		for(File file: dir.listFiles()) {
+			file.delete();
+		}
+		dir.delete();
+	}
+}
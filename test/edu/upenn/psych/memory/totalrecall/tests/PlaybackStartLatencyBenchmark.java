@@ -0,0 +1,115 @@
+//    This file is part of Penn TotalRecall <http://memory.psych.upenn.edu/TotalRecall>.
+//
+//    TotalRecall is free software: you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation, version 3 only.
+//
+//    TotalRecall is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with TotalRecall.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package edu.upenn.psych.memory.totalrecall.tests;
+
+import java.util.Arrays;
+
+import edu.upenn.psych.memory.nativestatelessplayer.LibPennTotalRecall;
+
+/**
+ * Measures how long native playback takes to start, opening the device and file on each start (<code>startPlayback()</code>) against starting on an open engine (<code>enginePlay()</code>).
+ *
+ * Each start is timed both until the native call returns and until <code>streamPosition()</code> first reports frames played, then stopped.
+ * Reports the median of each over many starts, from the middle of the file as <code>Last200PlusMoveAction</code> and replays do.
+ * Usage: <code>PlaybackStartLatencyBenchmark file.wav [numFrames]</code>, where the mono 16-bit file is at least a few seconds long.
+ *
+ * @author Yuvi Masory
+ */
+public class PlaybackStartLatencyBenchmark {
+
+	private static final int warmupRuns = 3;
+	private static final int timedRuns = 25;
+	private static final long timeoutNanos = 2000000000L;
+
+	private static final LibPennTotalRecall lib = LibPennTotalRecall.instance;
+
+	public static void main(String[] args) throws InterruptedException {
+		if(args.length < 1) {
+			System.err.println("usage: PlaybackStartLatencyBenchmark file.wav [numFrames]");
+			System.exit(1);
+		}
+		String path = args[0];
+		long numFrames = args.length > 1 ? Long.parseLong(args[1]) : 44100;
+		long startFrame = numFrames;
+		long endFrame = startFrame + numFrames;
+
+		long[] statelessCall = new long[timedRuns];
+		long[] statelessAudible = new long[timedRuns];
+		for(int i = -warmupRuns; i < timedRuns; i++) {
+			long start = System.nanoTime();
+			int code = lib.startPlayback(path, startFrame, endFrame);
+			long returned = System.nanoTime();
+			check(code);
+			long audible = awaitProgress();
+			lib.stopPlayback();
+			if(i >= 0) {
+				statelessCall[i] = returned - start;
+				statelessAudible[i] = audible - start;
+			}
+		}
+
+		check(lib.openEngine(path));
+		long[] engineCall = new long[timedRuns];
+		long[] engineAudible = new long[timedRuns];
+		for(int i = -warmupRuns; i < timedRuns; i++) {
+			long start = System.nanoTime();
+			int code = lib.enginePlay(startFrame, endFrame);
+			long returned = System.nanoTime();
+			check(code);
+			long audible = awaitProgress();
+			lib.engineStop();
+			if(i >= 0) {
+				engineCall[i] = returned - start;
+				engineAudible[i] = audible - start;
+			}
+		}
+		lib.closeEngine();
+
+		System.out.println(lib.getLibraryName() + ", revision " + lib.getLibraryRevisionNumber() + ", median of " + timedRuns + " starts");
+		System.out.println("startPlayback(): call " + median(statelessCall) / 1e6 + " ms, first progress " + median(statelessAudible) / 1e6 + " ms");
+		System.out.println("enginePlay():    call " + median(engineCall) / 1e6 + " ms, first progress " + median(engineAudible) / 1e6 + " ms");
+	}
+
+	/**
+	 * Polls until the native library reports frames played, which also drives FMOD's updates.
+	 *
+	 * @return The <code>System.nanoTime()</code> at which progress was first seen
+	 */
+	private static long awaitProgress() throws InterruptedException {
+		long deadline = System.nanoTime() + timeoutNanos;
+		while(lib.streamPosition() <= 0) {
+			if(System.nanoTime() > deadline) {
+				System.err.println("playback made no progress");
+				System.exit(1);
+			}
+			Thread.sleep(1);
+		}
+		return System.nanoTime();
+	}
+
+	private static void check(int returnCode) {
+		if(returnCode < 0) {
+			System.err.println("native playback failed with code " + returnCode);
+			System.exit(1);
+		}
+	}
+
+	private static long median(long[] vals) {
+		long[] sorted = vals.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+}
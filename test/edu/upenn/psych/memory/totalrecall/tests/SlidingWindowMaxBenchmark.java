@@ -0,0 +1,106 @@
+//    This file is part of Penn TotalRecall <http://memory.psych.upenn.edu/TotalRecall>.
+//
+//    TotalRecall is free software: you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation, version 3 only.
+//
+//    TotalRecall is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with TotalRecall.  If not, see <http://www.gnu.org/licenses/>.
+
+package edu.upenn.psych.memory.totalrecall.tests;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import util.SlidingWindowMax;
+
+/**
+ * Compares <code>SlidingWindowMax</code> against the nested loop it replaced in <code>WaveformBuffer</code>, on a 10 second chunk of 44.1 kHz audio.
+ *
+ * Checks that both give identical results, then reports the median time of each over many runs.
+ * Usage: <code>SlidingWindowMaxBenchmark [window]</code>
+ *
+ * @author Yuvi Masory
+ */
+public class SlidingWindowMaxBenchmark {
+
+	private static final int numSamples = 441000;
+	private static final int warmupRuns = 20;
+	private static final int timedRuns = 50;
+
+	public static void main(String[] args) {
+		int window = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+
+		Random rand = new Random(0);
+		double[] chunk = new double[numSamples];
+		for(int i = 0; i < chunk.length; i++) {
+			chunk[i] = rand.nextGaussian() * 0.1;
+		}
+
+		double[] expected = chunk.clone();
+		nestedLoop(expected, window);
+		double[] actual = chunk.clone();
+		SlidingWindowMax.absMax(actual, window);
+		if(Arrays.equals(expected, actual) == false) {
+			System.err.println("results differ!");
+			System.exit(1);
+		}
+
+		for(int i = 0; i < warmupRuns; i++) {
+			nestedLoop(chunk.clone(), window);
+			SlidingWindowMax.absMax(chunk.clone(), window);
+		}
+
+		long[] loopNanos = new long[timedRuns];
+		long[] dequeNanos = new long[timedRuns];
+		for(int i = 0; i < timedRuns; i++) {
+			double[] vals = chunk.clone();
+			long start = System.nanoTime();
+			nestedLoop(vals, window);
+			loopNanos[i] = System.nanoTime() - start;
+
+			vals = chunk.clone();
+			start = System.nanoTime();
+			SlidingWindowMax.absMax(vals, window);
+			dequeNanos[i] = System.nanoTime() - start;
+		}
+
+		double loopMillis = median(loopNanos) / 1e6;
+		double dequeMillis = median(dequeNanos) / 1e6;
+		System.out.println("window +/-" + window + ", " + numSamples + " samples, median of " + timedRuns + " runs");
+		System.out.println("nested loop:     " + loopMillis + " ms");
+		System.out.println("monotonic deque: " + dequeMillis + " ms");
+		System.out.println("speedup:         " + (loopMillis / dequeMillis) + "x");
+	}
+
+	/**
+	 * The original smoothing loop from <code>WaveformBuffer</code>.
+	 */
+	private static void nestedLoop(double[] samples, int window) {
+		double[] copy = new double[samples.length];
+		System.arraycopy(samples, 0, copy, 0, copy.length);
+		double biggestInWindow;
+		int start;
+		int end;
+		for(int i = 0; i < samples.length; i++) {
+			biggestInWindow = 0;
+			start = Math.max(0, i - window);
+			end = Math.min(samples.length, i + window);
+			for(int j = start; j < end; j++) {
+				biggestInWindow = Math.max(biggestInWindow, Math.abs(copy[j]));
+			}
+			samples[i] = biggestInWindow;
+		}
+	}
+
+	private static long median(long[] vals) {
+		long[] sorted = vals.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+}
@@ -0,0 +1,140 @@
+//    This file is part of Penn TotalRecall <http://memory.psych.upenn.edu/TotalRecall>.
+//
+//    TotalRecall is free software: you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation, version 3 only.
+//
+//    TotalRecall is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with TotalRecall.  If not, see <http://www.gnu.org/licenses/>.
+
+package edu.upenn.psych.memory.totalrecall.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import components.waveform.EnvelopeExtractor;
+import components.waveform.WaveformBuffer;
+import control.MappedPcmSource;
+import de.dfki.lt.signalproc.util.DoubleDataSource;
+
+/**
+ * Checks that decoded waveform chunks line up in time at every zoom level, including chunks that start less than the decoding lead-in into the audio.
+ *
+ * Single-sample clicks of different heights are written into a 44.1 kHz WAV file, several of them in the first quarter second, where zoomed-in chunks after the first begin.
+ * Each click's chunk is decoded the way <code>WaveformBuffer</code> decodes chunks without the pyramid, from its lead-in onward, and the column whose peak is the click's height is converted back to a frame.
+ * At every zoom level from 0 to 8 each click must be drawn within one column, or frame, of where it is, so chunk N at a zoomed-in level lines up with the chunk at zoom 0 covering the same audio.
+ * Usage: <code>WaveformAlignmentTest</code>
+ *
+ * @author Yuvi Masory
+ */
+public class WaveformAlignmentTest {
+
+	private static final float frameRate = 44100;
+	private static final int maxZoomLevel = 8;
+	private static final long[] clickFrames = {500, 3000, 6891, 7500, 9000, 10500, 11024, 12000, 20000, 44100 * 3 + 17, 44100 * 12 + 4321};
+	private static final int numFrames = 44100 * 25;
+
+	public static void main(String[] args) throws IOException, UnsupportedAudioFileException {
+		File wav = File.createTempFile("alignment", ".wav");
+		wav.deleteOnExit();
+		writeClicks(wav);
+		MappedPcmSource pcm = new MappedPcmSource(wav);
+
+		int numChecked = 0;
+		for(long click: clickFrames) {
+			double zoomlessFrame = drawnFrame(pcm, click, 0);
+			for(int zoomLevel = 0; zoomLevel <= maxZoomLevel; zoomLevel++) {
+				double framesPerColumn = WaveformBuffer.framesPerPixel(zoomLevel, frameRate);
+				double frame = drawnFrame(pcm, click, zoomLevel);
+				//columns narrower than a frame start on whole frames
+				if(Math.abs(frame - click) > framesPerColumn + 1) {
+					fail("zoom " + zoomLevel + ": click at frame " + click + " drawn at frame " + frame);
+				}
+				if(Math.abs(frame - zoomlessFrame) > WaveformBuffer.framesPerPixel(0, frameRate)) {
+					fail("zoom " + zoomLevel + ": click at frame " + click + " drawn at frame " + frame + ", but at " + zoomlessFrame + " at zoom 0");
+				}
+				numChecked++;
+			}
+		}
+		System.out.println(numChecked + " clicks line up across zoom levels 0 to " + maxZoomLevel);
+	}
+
+	/**
+	 * Decodes the chunk holding the provided frame and returns the first frame of the column its click is drawn in.
+	 */
+	private static double drawnFrame(MappedPcmSource pcm, long click, int zoomLevel) {
+		int chunkNum = 0;
+		while(WaveformBuffer.firstFrameOfChunk(chunkNum + 1, zoomLevel, frameRate) <= click) {
+			chunkNum++;
+		}
+		long firstFrame = WaveformBuffer.firstFrameOfChunk(chunkNum, zoomLevel, frameRate);
+		int leadIn = WaveformBuffer.leadInFrames(chunkNum, zoomLevel, frameRate);
+		long numFramesToRead = WaveformBuffer.firstFrameOfChunk(chunkNum + 1, zoomLevel, frameRate) - firstFrame + leadIn;
+		double framesPerColumn = WaveformBuffer.framesPerPixel(zoomLevel, frameRate);
+		int numColumns = WaveformBuffer.chunkWidthInPixels();
+
+		DoubleDataSource samples = pcm.asDoubleDataSource(firstFrame - leadIn, numFramesToRead);
+		EnvelopeExtractor extractor = new EnvelopeExtractor(EnvelopeExtractor.Mode.AGGREGATE, numColumns, framesPerColumn, leadIn, 0);
+		extractor.extract(samples, Math.min(numFramesToRead, samples.available()));
+		double[] peaks = extractor.getPeaks();
+
+		double height = amplitude(click) / 32768.0;
+		int column = -1;
+		for(int i = 0; i < peaks.length; i++) {
+			if(Math.abs(peaks[i] - height) < 0.5 / 32768) {
+				if(column >= 0) {
+					fail("zoom " + zoomLevel + ": click at frame " + click + " drawn twice in chunk " + chunkNum);
+				}
+				column = i;
+			}
+		}
+		if(column < 0) {
+			fail("zoom " + zoomLevel + ": click at frame " + click + " missing from chunk " + chunkNum);
+		}
+		return firstFrame + column * framesPerColumn;
+	}
+
+	/**
+	 * Writes a 16-bit mono PCM WAV file of silence with a click at each of the click frames.
+	 */
+	private static void writeClicks(File wav) throws IOException {
+		byte[] data = new byte[numFrames * 2];
+		for(long click: clickFrames) {
+			int amplitude = amplitude(click);
+			data[(int)click * 2] = (byte)amplitude;
+			data[(int)click * 2 + 1] = (byte)(amplitude >> 8);
+		}
+		AudioFormat format = new AudioFormat(frameRate, 16, 1, true, false);
+		AudioInputStream ais = new AudioInputStream(new ByteArrayInputStream(data), format, numFrames);
+		AudioSystem.write(ais, AudioFileFormat.Type.WAVE, wav);
+	}
+
+	/**
+	 * Returns the height of the click at the provided frame, different for every click so each can be told apart from others in its chunk.
+	 */
+	private static int amplitude(long click) {
+		for(int i = 0; i < clickFrames.length; i++) {
+			if(clickFrames[i] == click) {
+				return 32767 - 2000 * i;
+			}
+		}
+		throw new IllegalArgumentException("no click at frame " + click);
+	}
+
+	private static void fail(String message) {
+		System.err.println(message);
+		System.exit(1);
+	}
+}
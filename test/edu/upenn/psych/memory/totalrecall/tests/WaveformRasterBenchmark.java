@@ -0,0 +1,128 @@
+//    This file is part of Penn TotalRecall <http://memory.psych.upenn.edu/TotalRecall>.
+//
+//    TotalRecall is free software: you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation, version 3 only.
+//
+//    TotalRecall is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with TotalRecall.  If not, see <http://www.gnu.org/licenses/>.
+
+package edu.upenn.psych.memory.totalrecall.tests;
+
+import info.MyColors;
+import info.MyShapes;
+
+import java.awt.AlphaComposite;
+import java.awt.Composite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+
+import components.waveform.WaveformRasterizer;
+
+/**
+ * Compares <code>WaveformRasterizer</code> against the <code>Graphics2D.drawLine</code> loop it replaced in <code>WaveformBuffer</code>.
+ *
+ * Both paint a typical chunk, 2000 columns by 200 pixels, of random envelope values onto a <code>TYPE_INT_RGB</code> image, with and without anti-aliasing.
+ * Reports the median time of each over many runs. Runs headless.
+ * Usage: <code>WaveformRasterBenchmark [width height]</code>
+ *
+ * @author Yuvi Masory
+ */
+public class WaveformRasterBenchmark {
+
+	private static final int warmupRuns = 50;
+	private static final int timedRuns = 100;
+
+	private static final AlphaComposite antiAliasingComposite = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.5F);
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		int width = args.length > 1 ? Integer.parseInt(args[0]) : 2000;
+		int height = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+		Random rand = new Random(0);
+		double[] vals = new double[width];
+		for(int i = 0; i < vals.length; i++) {
+			vals[i] = Math.abs(rand.nextGaussian());
+		}
+		double yScale = (height/2 - 1) / 3.0;
+
+		for(boolean antiAlias: new boolean[] {false, true}) {
+			long[] java2dNanos = new long[timedRuns];
+			long[] rasterNanos = new long[timedRuns];
+			for(int i = 0; i < warmupRuns + timedRuns; i++) {
+				BufferedImage image = WaveformRasterizer.createImage(width, height);
+				long start = System.nanoTime();
+				java2d(image, vals, yScale, antiAlias);
+				long java2dTime = System.nanoTime() - start;
+
+				image = WaveformRasterizer.createImage(width, height);
+				start = System.nanoTime();
+				raster(image, vals, yScale, antiAlias);
+				long rasterTime = System.nanoTime() - start;
+
+				if(i >= warmupRuns) {
+					java2dNanos[i - warmupRuns] = java2dTime;
+					rasterNanos[i - warmupRuns] = rasterTime;
+				}
+			}
+			double java2dMillis = median(java2dNanos) / 1e6;
+			double rasterMillis = median(rasterNanos) / 1e6;
+			System.out.println(width + "x" + height + (antiAlias ? ", anti-aliased" : "") + ", median of " + timedRuns + " runs");
+			System.out.println("Graphics2D drawLine: " + java2dMillis + " ms");
+			System.out.println("int[] raster:        " + rasterMillis + " ms");
+			System.out.println("speedup:             " + (java2dMillis / rasterMillis) + "x");
+		}
+	}
+
+	/**
+	 * The original drawing loop from <code>WaveformBuffer</code>, background and waveform only.
+	 */
+	private static void java2d(BufferedImage image, double[] vals, double yScale, boolean antiAlias) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		Graphics2D g2d = image.createGraphics();
+		g2d.setRenderingHints(MyShapes.getRenderingHints());
+		g2d.setColor(MyColors.waveformBackground);
+		g2d.fillRect(0, 0, width, height);
+		g2d.setColor(MyColors.waveformReferenceLineColor);
+		g2d.drawLine(0, height/2, width, height/2);
+		g2d.setColor(MyColors.firstChannelWaveformColor);
+		final int refLinePos = height/2;
+		for(int i = 0; i < vals.length; i++) {
+			double scaledSample = vals[i] * yScale;
+			int topY = (int)(refLinePos - scaledSample);
+			int bottomY = (int)(refLinePos + scaledSample);
+			if(antiAlias) {
+				Composite originalAc = g2d.getComposite();
+				g2d.setComposite(antiAliasingComposite);
+				g2d.drawLine(i + 1, refLinePos, i + 1, topY);
+				g2d.drawLine(i + 1, refLinePos, i + 1, bottomY);
+				g2d.setComposite(originalAc);
+			}
+			g2d.drawLine(i, refLinePos, i, topY);
+			g2d.drawLine(i, refLinePos, i, bottomY);
+		}
+		g2d.dispose();
+	}
+
+	private static void raster(BufferedImage image, double[] vals, double yScale, boolean antiAlias) {
+		WaveformRasterizer rasterizer = new WaveformRasterizer(image);
+		rasterizer.fill(MyColors.waveformBackground);
+		rasterizer.drawHorizontalLine(image.getHeight()/2, MyColors.waveformReferenceLineColor);
+		rasterizer.drawWaveform(vals, yScale, MyColors.firstChannelWaveformColor, antiAlias);
+	}
+
+	private static long median(long[] vals) {
+		long[] sorted = vals.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+}